@@ -53,6 +53,7 @@ public class FunctionCallService {
         LLMRequest llmRequest = new LLMRequest();
         llmRequest.setMessages(List.of(systemMsg, userMsg));
         llmRequest.setTemperature(0.1f); // 低温度，保证LLM严格按格式返回
+        llmRequest.setCacheable(true); // 相同问题+相同工具列表复用上次的工具调用指令
 
         // 步骤3：调用LLM，获取工具调用指令
         var llmResponse = llmService.callLLM(llmRequest);
@@ -69,9 +70,11 @@ public class FunctionCallService {
             llmResult = llmResult.replaceAll("```json|```", "").trim();
             toolCallResult = JSONUtil.toBean(llmResult, ToolCallResult.class);
         } catch (Exception e) {
+            llmService.evictCachedResponse(llmRequest);
             throw new BusinessException("工具调用失败：LLM返回指令格式非法，非约定的JSON格式，指令=" + llmResult + "，错误=" + e.getMessage());
         }
         if (toolCallResult == null || toolCallResult.getTool_code() == null || toolCallResult.getTool_code().isBlank()) {
+            llmService.evictCachedResponse(llmRequest);
             throw new BusinessException("工具调用失败：LLM返回指令中缺少tool_code（工具标识）");
         }
 
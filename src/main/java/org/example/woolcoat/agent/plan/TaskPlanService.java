@@ -103,6 +103,7 @@ public class TaskPlanService {
         LLMRequest llmRequest = new LLMRequest();
         llmRequest.setMessages(List.of(systemMsg, userMsg));
         llmRequest.setTemperature(0.1f); // 低温度，保证步骤拆解精准
+        llmRequest.setCacheable(true); // 相同任务+相同工具列表复用上次的拆解结果
 
         // 3. 调用LLM，获取步骤拆解结果
         var llmResponse = llmService.callLLM(llmRequest);
@@ -115,6 +116,7 @@ public class TaskPlanService {
         try {
             return JSONUtil.toList(llmResult, Task.TaskStep.class);
         } catch (Exception e) {
+            llmService.evictCachedResponse(llmRequest);
             throw new BusinessException("任务拆解失败：LLM返回步骤格式非法，非约定的JSON格式，步骤=" + llmResult);
         }
     }
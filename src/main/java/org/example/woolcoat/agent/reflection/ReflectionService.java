@@ -65,6 +65,7 @@ public class ReflectionService {
                 LLMRequest llmRequest = new LLMRequest();
                 llmRequest.setMessages(List.of(systemMsg, userMsg));
                 llmRequest.setTemperature(0.2f);
+                llmRequest.setCacheable(false); // 每次重试的Prompt相同，缓存会让重试拿到同一条失败的修正指令
 
                 // 步骤2：调用LLM，获取修正后的工具调用指令
                 var llmResponse = llmService.callLLM(llmRequest);
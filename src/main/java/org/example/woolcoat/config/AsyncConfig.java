@@ -1,22 +1,41 @@
 package org.example.woolcoat.config;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
- * 异步/流式任务线程池配置（SSE 流式接口等使用，避免 new Thread）
+ * 异步/流式任务线程池配置（SSE 流式接口、文档入库流水线等使用，避免 new Thread）
+ * agent.executor.mode=virtual 时，SSE 流式任务、Tomcat 请求处理、MVC 异步请求改用虚拟线程（Java 21），
+ * 阻塞等待 LLM/工具的 I/O 不再占用平台线程，并发由限流器而非固定线程数控制；CPU 密集的入库/检索线程池不受影响。
  */
+@Slf4j
 @Configuration
 public class AsyncConfig {
 
     /**
-     * SSE 流式任务专用线程池（有界队列，避免 OOM）
+     * SSE 流式任务执行器
+     * platform 模式：有界线程池（队列满时由提交线程执行）；
+     * virtual 模式：每个流式任务一个虚拟线程，等待 LLM 输出时不占用平台线程，并发数由 agent.executor.max-concurrency 限制（超出直接拒绝）
      */
     @Bean("sseStreamExecutor")
-    public Executor sseStreamExecutor() {
+    public Executor sseStreamExecutor(@Value("${agent.executor.mode:platform}") String mode,
+                                      @Value("${agent.executor.max-concurrency:2000}") int maxConcurrency) {
+        if (isVirtual(mode)) {
+            return new LimitedVirtualThreadExecutor("sse-stream-vt-", maxConcurrency);
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(4);
         executor.setMaxPoolSize(16);
@@ -26,4 +45,145 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
+
+    /**
+     * virtual 模式：Tomcat 请求处理使用虚拟线程（每个请求一个虚拟线程，同步执行的工具调用、多步规划等阻塞等待不再占用平台线程；
+     * 并发连接数仍由 server.tomcat.max-connections 限制）
+     */
+    @Bean
+    @ConditionalOnProperty(name = "agent.executor.mode", havingValue = "virtual")
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        log.info("Tomcat 请求处理已切换为虚拟线程");
+        return protocolHandler -> protocolHandler.setExecutor(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("tomcat-vt-", 0).factory()));
+    }
+
+    /**
+     * virtual 模式：Spring MVC 异步请求（StreamingResponseBody 流式导出等）使用限流的虚拟线程执行器
+     */
+    @Bean
+    @ConditionalOnProperty(name = "agent.executor.mode", havingValue = "virtual")
+    public WebMvcConfigurer virtualThreadAsyncSupportConfigurer(@Value("${agent.executor.max-concurrency:2000}") int maxConcurrency) {
+        AsyncTaskExecutor executor = new TaskExecutorAdapter(new LimitedVirtualThreadExecutor("mvc-async-vt-", maxConcurrency));
+        return new WebMvcConfigurer() {
+            @Override
+            public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                configurer.setTaskExecutor(executor);
+            }
+        };
+    }
+
+    private static boolean isVirtual(String mode) {
+        return "virtual".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * 文档入库-解析/分片线程池（队列满时直接拒绝，上传接口返回"任务过多"，保护下游）
+     */
+    @Bean("ingestParseExecutor")
+    public Executor ingestParseExecutor(@Value("${rag.ingest.parse-pool-size:2}") int poolSize,
+                                        @Value("${rag.ingest.parse-queue-capacity:16}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ingest-parse-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 文档入库-分片入库线程池（队列满时由提交线程执行，形成背压）
+     */
+    @Bean("ingestPersistExecutor")
+    public Executor ingestPersistExecutor(@Value("${rag.ingest.persist-pool-size:4}") int poolSize,
+                                          @Value("${rag.ingest.queue-capacity:64}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ingest-persist-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 文档入库-索引写入线程池（队列满时由提交线程执行，形成背压）
+     */
+    @Bean("ingestIndexExecutor")
+    public Executor ingestIndexExecutor(@Value("${rag.ingest.index-pool-size:2}") int poolSize,
+                                        @Value("${rag.ingest.queue-capacity:64}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ingest-index-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * PDF按页并行解析线程池（默认按CPU核数，队列满时由提交线程执行）
+     */
+    @Bean("pdfExtractExecutor")
+    public Executor pdfExtractExecutor(@Value("${rag.document.pdf.pool-size:0}") int poolSize) {
+        int size = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(size);
+        executor.setMaxPoolSize(size);
+        executor.setQueueCapacity(size * 4);
+        executor.setThreadNamePrefix("pdf-extract-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * RAG混合检索线程池（关键词检索与向量检索并行执行，队列满时由调用线程执行）
+     */
+    @Bean("ragSearchExecutor")
+    public Executor ragSearchExecutor(@Value("${rag.search.pool-size:8}") int poolSize) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(poolSize * 16);
+        executor.setThreadNamePrefix("rag-search-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Lucene检索线程池（分片扇出提交/刷新/删除，以及IndexSearcher按段切片并行检索，默认按CPU核数）
+     */
+    @Bean("luceneSearchExecutor")
+    public Executor luceneSearchExecutor(@Value("${rag.lucene.search-pool-size:0}") int poolSize) {
+        int size = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(size);
+        executor.setMaxPoolSize(size);
+        executor.setQueueCapacity(size * 16);
+        executor.setThreadNamePrefix("lucene-search-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 全量重建索引写入线程池（多个线程并行写入新索引，队列满时由读取游标的线程执行，形成背压）
+     */
+    @Bean("reindexExecutor")
+    public Executor reindexExecutor(@Value("${rag.reindex.writer-threads:4}") int poolSize) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(poolSize * 2);
+        executor.setThreadNamePrefix("reindex-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
 }
@@ -1,15 +1,18 @@
 package org.example.woolcoat.config;
 
 import lombok.extern.slf4j.Slf4j;
+import org.example.woolcoat.llm.ChunkPublisher;
 import org.example.woolcoat.llm.LLMClient;
 import org.example.woolcoat.vo.request.LLMRequest;
 import org.example.woolcoat.vo.response.LLMResponse;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 import java.util.function.Consumer;
 
 /**
@@ -27,8 +30,7 @@ public class LLMFallbackConfig {
      */
     @Bean
     @Primary
-    @ConditionalOnProperty(name = "llm.fallback-switch", havingValue = "true")
-    @org.springframework.boot.autoconfigure.condition.ConditionalOnProperty(name = "llm.type", havingValue = "dashscope")
+    @ConditionalOnExpression("'${llm.fallback-switch:false}'=='true' && '${llm.type:dashscope}'=='dashscope'")
     public LLMClient fallbackLLMClient(
             @Qualifier("dashscopeLLMClient") LLMClient primary,
             @Qualifier("ollamaLLMClient") LLMClient fallback) {
@@ -49,6 +51,11 @@ public class LLMFallbackConfig {
             this.fallback = fallback;
         }
 
+        @Override
+        public String modelId() {
+            return primary.modelId();
+        }
+
         @Override
         public LLMResponse chat(LLMRequest request) {
             try {
@@ -70,5 +77,65 @@ public class LLMFallbackConfig {
                 fallback.chatStream(request, onChunk);
             }
         }
+
+        @Override
+        public CompletableFuture<LLMResponse> chatAsync(LLMRequest request) {
+            return primary.chatAsync(request)
+                    .exceptionally(e -> {
+                        log.warn("主 LLM 异步调用异常，尝试降级到 Ollama", e);
+                        return null;
+                    })
+                    .thenCompose(r -> {
+                        if (r != null && "success".equals(r.getStatus())) {
+                            return CompletableFuture.completedFuture(r);
+                        }
+                        log.warn("主 LLM 异步调用失败，尝试降级到 Ollama");
+                        return fallback.chatAsync(request);
+                    });
+        }
+
+        /**
+         * 主客户端在输出任何分片前失败时切换到备用；已输出部分内容后失败直接报错（避免两个模型的输出拼接在一起）
+         */
+        @Override
+        public Flow.Publisher<String> chatStreamAsync(LLMRequest request) {
+            return ChunkPublisher.create(sink -> relay(primary.chatStreamAsync(request), sink, e -> {
+                log.warn("主 LLM 流式调用失败，尝试降级到 Ollama", e);
+                relay(fallback.chatStreamAsync(request), sink, sink::error);
+            }));
+        }
+
+        // 把上游分片转发到 sink；上游在输出任何分片前失败时交给 onEarlyError 处理
+        private static void relay(Flow.Publisher<String> upstream, ChunkPublisher.Sink sink, Consumer<Throwable> onEarlyError) {
+            upstream.subscribe(new Flow.Subscriber<>() {
+                private boolean emitted;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    sink.onCancel(subscription::cancel);
+                    subscription.request(Long.MAX_VALUE); // 分片由 sink 缓冲，按下游 request 下发
+                }
+
+                @Override
+                public void onNext(String chunk) {
+                    emitted = true;
+                    sink.next(chunk);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    if (emitted || sink.isCancelled()) {
+                        sink.error(error);
+                    } else {
+                        onEarlyError.accept(error);
+                    }
+                }
+
+                @Override
+                public void onComplete() {
+                    sink.complete();
+                }
+            });
+        }
     }
 }
@@ -0,0 +1,47 @@
+package org.example.woolcoat.config;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LLM 调用共享 HTTP 客户端配置（所有 LLMClient 共用一个连接池和调度器）
+ * 各客户端通过 newBuilder() 覆盖自己的读超时，派生出的客户端仍共享连接池/调度器/线程，
+ * 连接跨请求复用（省去每次 TCP + TLS 握手）；HTTPS 服务端支持时经 ALPN 协商 HTTP/2，多个请求复用同一连接。
+ */
+@Slf4j
+@Configuration
+public class LLMHttpConfig {
+
+    /**
+     * LLM 共享 OkHttpClient（连接池、调度器显式限定大小；调度器并发上限只约束异步调用）
+     */
+    @Bean("llmHttpClient")
+    public OkHttpClient llmHttpClient(@Value("${llm.http.max-idle-connections:20}") int maxIdleConnections,
+                                      @Value("${llm.http.keep-alive-ms:300000}") long keepAliveMs,
+                                      @Value("${llm.http.max-requests:128}") int maxRequests,
+                                      @Value("${llm.http.max-requests-per-host:32}") int maxRequestsPerHost,
+                                      @Value("${llm.http.connect-timeout-ms:10000}") long connectTimeoutMs) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        log.info("LLM 共享HTTP客户端初始化：maxIdleConnections={}，maxRequests={}，maxRequestsPerHost={}",
+                maxIdleConnections, maxRequests, maxRequestsPerHost);
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMs, TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1)) // 明文 http（如本地 Ollama）自动使用 HTTP/1.1
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+    }
+}
@@ -0,0 +1,53 @@
+package org.example.woolcoat.config;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 限流的虚拟线程执行器（每个任务一个虚拟线程，同时运行的任务数由信号量限制）
+ * 任务阻塞在 I/O（如等待 LLM 输出）时不占用平台线程；超过并发上限时直接拒绝（不在提交线程上执行，避免拖住请求线程）。
+ */
+public class LimitedVirtualThreadExecutor implements Executor {
+
+    private final Semaphore permits;
+    private final ThreadFactory threadFactory;
+    private final int maxConcurrency;
+
+    /**
+     * @param namePrefix 虚拟线程名前缀
+     * @param maxConcurrency 同时运行的最大任务数
+     */
+    public LimitedVirtualThreadExecutor(String namePrefix, int maxConcurrency) {
+        this.permits = new Semaphore(maxConcurrency);
+        this.threadFactory = Thread.ofVirtual().name(namePrefix, 0).factory();
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("并发任务数已达上限：" + maxConcurrency);
+        }
+        try {
+            threadFactory.newThread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            }).start();
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 当前运行中的任务数
+     */
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+}
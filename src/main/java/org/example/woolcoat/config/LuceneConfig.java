@@ -1,38 +1,145 @@
 package org.example.woolcoat.config;
 
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.example.woolcoat.service.rag.index.IndexLayout;
+import org.example.woolcoat.service.rag.index.LuceneIndexManager;
+import org.example.woolcoat.service.rag.index.ShardedIndexManager;
+import org.example.woolcoat.service.rag.snapshot.IndexSnapshotStore;
 import org.example.woolcoat.utils.FileUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.wltea.analyzer.lucene.IKAnalyzer;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Lucene配置（索引目录、分词器）
  */
+@Slf4j
 @Configuration
 public class LuceneConfig {
 
     @Value("${rag.lucene.index-path:./lucene/index/}")
     private String luceneIndexPath;
 
+    @Value("${rag.lucene.refresh-interval-ms:1000}")
+    private long refreshIntervalMs;
+
+    @Value("${rag.lucene.shards:1}")
+    private int shardCount;
+
+    @Value("${rag.replication.role:standalone}")
+    private String replicationRole;
+
+    @Value("${rag.snapshot.enabled:false}")
+    private boolean snapshotEnabled;
+
+    @Value("${rag.snapshot.path:./lucene/snapshot/}")
+    private String snapshotPath;
+
+    @Value("${rag.snapshot.restore-on-startup:true}")
+    private boolean restoreOnStartup;
+
+    @Value("${rag.vector.enabled:false}")
+    private boolean vectorEnabled;
+
+    @Value("${rag.vector.index-path:./lucene/vector/}")
+    private String vectorIndexPath;
+
     /**
-     * Lucene索引目录
+     * Lucene索引目录布局（全量重建后通过 index.current 指向新的索引目录）
      */
     @Bean
-    public Directory luceneDirectory() {
+    public IndexLayout indexLayout() {
+        return new IndexLayout(Paths.get(luceneIndexPath), shardCount);
+    }
+
+    /**
+     * Lucene索引目录（当前生效的索引目录）
+     */
+    @Bean
+    public Directory luceneDirectory(IndexLayout indexLayout) {
         try {
             // 创建索引目录（不存在则创建）
             FileUtils.createDirIfNotExist(luceneIndexPath);
-            return FSDirectory.open(Paths.get(luceneIndexPath));
+            return FSDirectory.open(indexLayout.currentBase());
         } catch (Exception e) {
             throw new RuntimeException("初始化Lucene索引目录失败：" + e.getMessage());
         }
     }
 
+    /**
+     * 索引快照存储（开启快照且本地索引为空时，在打开索引前从最新快照恢复分片与向量索引文件）
+     */
+    @Bean
+    public IndexSnapshotStore indexSnapshotStore(IndexLayout indexLayout) {
+        IndexSnapshotStore store = new IndexSnapshotStore(Paths.get(snapshotPath));
+        if (snapshotEnabled && restoreOnStartup) {
+            try {
+                List<Path> shardDirs = indexLayout.shardDirs(indexLayout.currentBase());
+                store.restoreIfEmpty(shardDirs, vectorEnabled ? Paths.get(vectorIndexPath, "hnsw.bin") : null);
+            } catch (Exception e) {
+                // 恢复失败不影响启动（从空索引开始，可重新入库）
+                log.error("从快照恢复索引失败，使用本地索引启动", e);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * 分片索引管理器（每个分片一个IndexWriter + 近实时SearcherManager，容器关闭时释放写锁）
+     * 分片数为1时直接使用当前索引目录（兼容已有索引），否则在其下按 shard-{序号} 建子目录
+     * 只读副本（rag.replication.role=follower）的分片不打开IndexWriter，索引文件由复制任务从主节点拉取
+     * 依赖 indexSnapshotStore，保证快照恢复在打开索引之前完成
+     */
+    @Bean(destroyMethod = "close")
+    public ShardedIndexManager shardedIndexManager(Directory luceneDirectory, Analyzer ikAnalyzer,
+                                                   @Qualifier("luceneSearchExecutor") Executor luceneSearchExecutor,
+                                                   IndexLayout indexLayout, IndexSnapshotStore indexSnapshotStore) {
+        List<LuceneIndexManager> shards = new ArrayList<>();
+        boolean replica = "follower".equalsIgnoreCase(replicationRole);
+        try {
+            if (shardCount <= 1) {
+                shards.add(openShard("main", luceneDirectory, ikAnalyzer, luceneSearchExecutor, replica));
+            } else {
+                List<Path> shardDirs = indexLayout.shardDirs(indexLayout.currentBase());
+                for (int i = 0; i < shardDirs.size(); i++) {
+                    FileUtils.createDirIfNotExist(shardDirs.get(i).toString());
+                    Directory shardDirectory = FSDirectory.open(shardDirs.get(i));
+                    shards.add(openShard("shard-" + i, shardDirectory, ikAnalyzer, luceneSearchExecutor, replica));
+                }
+            }
+            return new ShardedIndexManager(shards, luceneSearchExecutor);
+        } catch (Exception e) {
+            for (LuceneIndexManager shard : shards) {
+                try {
+                    shard.close();
+                } catch (Exception ignored) {
+                    // 初始化失败时尽力释放已打开的分片
+                }
+            }
+            throw new RuntimeException("初始化Lucene分片索引失败：" + e.getMessage());
+        }
+    }
+
+    private LuceneIndexManager openShard(String name, Directory directory, Analyzer analyzer,
+                                         Executor searchExecutor, boolean replica) throws IOException {
+        if (replica) {
+            return LuceneIndexManager.openReplica(name, directory, searchExecutor);
+        }
+        return new LuceneIndexManager(name, directory, analyzer, refreshIntervalMs, searchExecutor);
+    }
+
     /**
      * IK中文分词器（智能分词）
      */
@@ -0,0 +1,44 @@
+package org.example.woolcoat.config;
+
+import org.example.woolcoat.service.rag.index.HnswVectorIndex;
+import org.example.woolcoat.service.rag.snapshot.IndexSnapshotStore;
+import org.example.woolcoat.utils.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+
+/**
+ * 向量检索配置（rag.vector.enabled=true 时生效，向量索引与Lucene索引同盘存放）
+ */
+@Configuration
+@ConditionalOnProperty(name = "rag.vector.enabled", havingValue = "true")
+public class VectorIndexConfig {
+
+    @Value("${rag.vector.index-path:./lucene/vector/}")
+    private String vectorIndexPath;
+
+    @Value("${rag.vector.m:16}")
+    private int m;
+
+    @Value("${rag.vector.ef-construction:100}")
+    private int efConstruction;
+
+    @Value("${rag.vector.ef-search:64}")
+    private int efSearch;
+
+    /**
+     * HNSW向量索引（启动时加载，容器关闭时持久化；依赖 indexSnapshotStore，保证快照恢复在加载之前完成）
+     */
+    @Bean(destroyMethod = "close")
+    public HnswVectorIndex hnswVectorIndex(IndexSnapshotStore indexSnapshotStore) {
+        try {
+            FileUtils.createDirIfNotExist(vectorIndexPath);
+            return HnswVectorIndex.open(Paths.get(vectorIndexPath, "hnsw.bin"), m, efConstruction, efSearch);
+        } catch (Exception e) {
+            throw new RuntimeException("初始化向量索引失败：" + e.getMessage());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.example.woolcoat.controller;
 
 import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 
 import io.swagger.v3.oas.annotations.Operation;
@@ -10,20 +11,33 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.example.woolcoat.service.LLMService;
 import org.example.woolcoat.service.SessionService;
+import org.example.woolcoat.entity.KbDocument;
+import org.example.woolcoat.entity.KbDocumentChunk;
+import org.example.woolcoat.service.document.CursorPage;
 import org.example.woolcoat.service.document.DocumentService;
+import org.example.woolcoat.service.document.IngestJob;
 import org.example.woolcoat.service.memory.MemoryService;
 import org.example.woolcoat.vo.common.Message;
 import org.example.woolcoat.vo.request.LLMRequest;
 import org.example.woolcoat.vo.response.CommonResponse;
 import org.example.woolcoat.vo.response.LLMResponse;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Flow;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -42,6 +56,7 @@ public class AgentBasicController {
     private final SessionService sessionService;
     private final DocumentService documentService;
     private final MemoryService memoryService;
+    private final ObjectMapper objectMapper;
     @Qualifier("sseStreamExecutor")
     private final Executor sseStreamExecutor;
 
@@ -107,31 +122,112 @@ public class AgentBasicController {
         request.setTemperature(0.7f);
 
         SseEmitter emitter = new SseEmitter(120_000L);
-        StringBuilder fullContent = new StringBuilder();
+        try {
+            sseStreamExecutor.execute(() -> streamChat(request, finalSessionId, emitter));
+        } catch (RejectedExecutionException e) {
+            // virtual 模式下流式任务数达到 agent.executor.max-concurrency
+            log.warn("流式对话被拒绝：{}", e.getMessage());
+            try {
+                emitter.send(SseEmitter.event().name("error").data("当前流式会话过多，请稍后重试"));
+            } catch (IOException ignored) {}
+            emitter.complete();
+        }
+
+        return emitter;
+    }
 
-        sseStreamExecutor.execute(() -> {
+    private void streamChat(LLMRequest request, String finalSessionId, SseEmitter emitter) {
+        StringBuilder fullContent = new StringBuilder();
+        try {
+            llmService.callLLMStream(request, chunk -> {
+                if (chunk != null && !chunk.isEmpty()) {
+                    fullContent.append(chunk);
+                    try {
+                        emitter.send(SseEmitter.event().data(chunk));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            Message assistantMsg = new Message("assistant", fullContent.toString());
+            sessionService.saveSessionMessage(finalSessionId, assistantMsg);
+            emitter.send(SseEmitter.event().name("done").data("会话ID：" + finalSessionId));
+            emitter.complete();
+        } catch (Exception e) {
+            log.error("流式对话异常", e);
             try {
-                llmService.callLLMStream(request, chunk -> {
-                    if (chunk != null && !chunk.isEmpty()) {
+                emitter.send(SseEmitter.event().name("error").data(e.getMessage()));
+            } catch (IOException ignored) {}
+            emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * 异步流式对话接口（记忆+LLM 联动，SSE 流式返回）
+     * 不占用 sseStreamExecutor 线程：LLM 分片在 HTTP 客户端回调线程上推送，每发出一段再请求下一段（背压），
+     * 客户端断开或超时时取消订阅并中止 LLM 调用。
+     */
+    @Operation(summary = "异步流式对话", description = "同流式对话，基于非阻塞 LLM 调用，连接数不受流式线程池限制")
+    @GetMapping(value = "/chat/stream-async", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStreamAsync(
+            @Parameter(description = "会话ID（无则自动生成）") @RequestParam(required = false) String sessionId,
+            @Parameter(description = "用户ID（用于长期记忆）") @RequestParam(required = false, defaultValue = "default_user") String userId,
+            @Parameter(description = "用户问题") @RequestParam String question
+    ) {
+        String finalSessionId = StrUtil.isBlank(sessionId) ? UUID.randomUUID().toString() : sessionId;
+        List<Message> messages = buildMessagesWithMemory(finalSessionId, userId, question);
+
+        LLMRequest request = new LLMRequest();
+        request.setMessages(messages);
+        request.setTemperature(0.7f);
+
+        SseEmitter emitter = new SseEmitter(120_000L);
+        StringBuilder fullContent = new StringBuilder();
+
+        llmService.callLLMStreamAsync(request).subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription = s;
+                emitter.onTimeout(s::cancel);
+                emitter.onError(e -> s.cancel());
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(String chunk) {
+                try {
+                    if (!chunk.isEmpty()) {
                         fullContent.append(chunk);
-                        try {
-                            emitter.send(SseEmitter.event().data(chunk));
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
+                        emitter.send(SseEmitter.event().data(chunk));
                     }
-                });
-                Message assistantMsg = new Message("assistant", fullContent.toString());
-                sessionService.saveSessionMessage(finalSessionId, assistantMsg);
-                emitter.send(SseEmitter.event().name("done").data("会话ID：" + finalSessionId));
-                emitter.complete();
-            } catch (Exception e) {
-                log.error("流式对话异常", e);
+                    subscription.request(1);
+                } catch (IOException e) {
+                    subscription.cancel(); // 客户端已断开
+                    emitter.completeWithError(e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                log.error("异步流式对话异常", e);
                 try {
                     emitter.send(SseEmitter.event().name("error").data(e.getMessage()));
                 } catch (IOException ignored) {}
                 emitter.completeWithError(e);
             }
+
+            @Override
+            public void onComplete() {
+                try {
+                    sessionService.saveSessionMessage(finalSessionId, new Message("assistant", fullContent.toString()));
+                    emitter.send(SseEmitter.event().name("done").data("会话ID：" + finalSessionId));
+                    emitter.complete();
+                } catch (Exception e) {
+                    emitter.completeWithError(e);
+                }
+            }
         });
 
         return emitter;
@@ -139,20 +235,129 @@ public class AgentBasicController {
 
     /**
      * 知识库文档上传接口（沿用之前的变量名：file、userId、tag）
+     * 文件落盘后立即返回入库任务ID，解析/分片/入库/索引在入库流水线中异步执行
      */
-    @Operation(summary = "知识库上传", description = "支持 md/txt/pdf 格式，自动解析分片入库")
+    @Operation(summary = "知识库上传", description = "支持 md/txt/pdf 格式，立即返回入库任务ID，异步解析分片入库")
     @PostMapping("/upload-document")
-    public CommonResponse<String> uploadDocument(
+    public CommonResponse<IngestJob> uploadDocument(
             @Parameter(description = "上传文件") @RequestParam MultipartFile file,
             @Parameter(description = "用户ID（默认 default_user）") @RequestParam(defaultValue = "default_user") String userId,
             @Parameter(description = "文档标签（多个用逗号分隔）") @RequestParam(required = false, defaultValue = "") String tag
     ) {
         try {
-            String result = documentService.uploadDocument(file, userId);
-            return CommonResponse.success(result);
+            IngestJob job = documentService.submitUploadDocument(file, userId);
+            return CommonResponse.success(job);
         } catch (Exception e) {
             log.error("文档上传失败", e);
             return CommonResponse.fail(e.getMessage());
         }
     }
+
+    /**
+     * 知识库入库任务进度查询接口
+     */
+    @Operation(summary = "知识库入库进度", description = "按任务ID查询入库阶段及解析/分片/入库/索引各阶段进度")
+    @GetMapping("/upload-document/status")
+    public CommonResponse<IngestJob> uploadDocumentStatus(
+            @Parameter(description = "入库任务ID") @RequestParam String jobId,
+            @Parameter(description = "用户ID（默认 default_user）") @RequestParam(defaultValue = "default_user") String userId
+    ) {
+        try {
+            return CommonResponse.success(documentService.getIngestJob(jobId, userId));
+        } catch (Exception e) {
+            log.error("查询入库进度失败", e);
+            return CommonResponse.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * 替换知识库文档（重新上传新版本）
+     * 只重建内容变化的分片，进度通过上传进度接口查询
+     */
+    @Operation(summary = "知识库文档替换", description = "上传文档新版本，按分片内容比对后只重建变化的分片，立即返回入库任务ID")
+    @PostMapping("/replace-document")
+    public CommonResponse<IngestJob> replaceDocument(
+            @Parameter(description = "文档ID") @RequestParam Long docId,
+            @Parameter(description = "新版本文件") @RequestParam MultipartFile file,
+            @Parameter(description = "用户ID（默认 default_user）") @RequestParam(defaultValue = "default_user") String userId
+    ) {
+        try {
+            return CommonResponse.success(documentService.submitReplaceDocument(docId, file, userId));
+        } catch (Exception e) {
+            log.error("文档替换失败", e);
+            return CommonResponse.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * 知识库文档分页查询接口（按上传时间倒序，游标分页）
+     */
+    @Operation(summary = "知识库文档列表", description = "按上传时间倒序分页，下一页传入上一页返回的 nextCursor")
+    @GetMapping("/documents")
+    public CommonResponse<CursorPage<KbDocument>> pageDocuments(
+            @Parameter(description = "用户ID（默认 default_user）") @RequestParam(defaultValue = "default_user") String userId,
+            @Parameter(description = "分页游标（首页不传）") @RequestParam(required = false) String cursor,
+            @Parameter(description = "每页条数（默认20，最大200）") @RequestParam(required = false) Integer limit
+    ) {
+        try {
+            return CommonResponse.success(documentService.pageDocuments(userId, cursor, limit));
+        } catch (Exception e) {
+            log.error("查询文档列表失败", e);
+            return CommonResponse.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * 知识库文档分片分页查询接口（按分片序号升序，游标分页）
+     */
+    @Operation(summary = "知识库文档分片列表", description = "按分片序号升序分页，下一页传入上一页返回的 nextCursor")
+    @GetMapping("/document-chunks")
+    public CommonResponse<CursorPage<KbDocumentChunk>> pageDocumentChunks(
+            @Parameter(description = "文档ID") @RequestParam Long docId,
+            @Parameter(description = "用户ID（默认 default_user）") @RequestParam(defaultValue = "default_user") String userId,
+            @Parameter(description = "分页游标（首页不传）") @RequestParam(required = false) String cursor,
+            @Parameter(description = "每页条数（默认20，最大200）") @RequestParam(required = false) Integer limit
+    ) {
+        try {
+            return CommonResponse.success(documentService.pageDocumentChunks(docId, userId, cursor, limit));
+        } catch (Exception e) {
+            log.error("查询文档分片失败", e);
+            return CommonResponse.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * 知识库文档分片流式导出接口（NDJSON，每行一个分片）
+     * 服务端通过数据库游标逐行读取、逐行写出，内存占用与文档大小无关
+     */
+    @Operation(summary = "知识库文档分片流式导出", description = "以 NDJSON 格式（每行一个分片JSON）按分片序号流式返回文档的全部分片")
+    @GetMapping(value = "/document-chunks/stream", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<?> streamDocumentChunks(
+            @Parameter(description = "文档ID") @RequestParam Long docId,
+            @Parameter(description = "用户ID（默认 default_user）") @RequestParam(defaultValue = "default_user") String userId
+    ) {
+        try {
+            documentService.getDocument(docId, userId); // 开始写出前校验归属，失败时仍返回统一响应
+        } catch (Exception e) {
+            log.error("导出文档分片失败", e);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(CommonResponse.fail(e.getMessage()));
+        }
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            try {
+                documentService.streamDocumentChunks(docId, userId, chunk -> {
+                    try {
+                        writer.write(objectMapper.writeValueAsString(chunk));
+                        writer.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e); // 客户端断开时结束游标遍历
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
 }
@@ -0,0 +1,93 @@
+package org.example.woolcoat.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.woolcoat.exceptions.BusinessException;
+import org.example.woolcoat.service.rag.reindex.IndexRebuildService;
+import org.example.woolcoat.service.rag.reindex.ReindexJob;
+import org.example.woolcoat.service.rag.snapshot.IndexSnapshot;
+import org.example.woolcoat.service.rag.snapshot.IndexSnapshotService;
+import org.example.woolcoat.vo.response.CommonResponse;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * 索引管理控制器（全量重建、索引快照，走统一鉴权；快照接口需开启 rag.snapshot.enabled）
+ */
+@Slf4j
+@Tag(name = "索引管理接口", description = "全量重建索引、索引快照的生成与查询")
+@RestController
+@RequestMapping("/admin/index")
+@RequiredArgsConstructor
+public class IndexAdminController {
+
+    private final IndexRebuildService indexRebuildService;
+    private final ObjectProvider<IndexSnapshotService> indexSnapshotServiceProvider; // 未开启快照时不存在
+
+    /**
+     * 提交全量重建索引任务（后台执行，重建期间检索继续使用旧索引）
+     */
+    @Operation(summary = "全量重建索引", description = "从数据库流式读取全部分片，并行写入新索引目录，完成后原子切换")
+    @PostMapping("/rebuild")
+    public CommonResponse<ReindexJob> rebuild() {
+        try {
+            return CommonResponse.success(indexRebuildService.startRebuild());
+        } catch (Exception e) {
+            log.error("提交索引重建任务失败", e);
+            return CommonResponse.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * 查询最近一次重建任务进度
+     */
+    @Operation(summary = "查询重建进度", description = "返回最近一次全量重建任务的阶段与进度")
+    @GetMapping("/rebuild")
+    public CommonResponse<ReindexJob> rebuildStatus() {
+        ReindexJob job = indexRebuildService.getCurrentJob();
+        return job == null ? CommonResponse.fail("尚未执行过索引重建") : CommonResponse.success(job);
+    }
+
+    /**
+     * 立即生成索引快照
+     */
+    @Operation(summary = "生成索引快照", description = "固定各分片当前提交点并复制到快照目录，超出保留个数的旧快照自动删除")
+    @PostMapping("/snapshot")
+    public CommonResponse<IndexSnapshot> createSnapshot() {
+        try {
+            return CommonResponse.success(requireSnapshotService().createSnapshot());
+        } catch (Exception e) {
+            log.error("生成索引快照失败", e);
+            return CommonResponse.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * 查询可用快照
+     */
+    @Operation(summary = "查询索引快照", description = "按创建时间倒序返回全部可用快照")
+    @GetMapping("/snapshots")
+    public CommonResponse<List<IndexSnapshot>> listSnapshots() {
+        try {
+            return CommonResponse.success(requireSnapshotService().listSnapshots());
+        } catch (Exception e) {
+            log.error("查询索引快照失败", e);
+            return CommonResponse.fail(e.getMessage());
+        }
+    }
+
+    private IndexSnapshotService requireSnapshotService() {
+        IndexSnapshotService indexSnapshotService = indexSnapshotServiceProvider.getIfAvailable();
+        if (indexSnapshotService == null) {
+            throw new BusinessException("未开启索引快照（rag.snapshot.enabled）");
+        }
+        return indexSnapshotService;
+    }
+}
@@ -0,0 +1,77 @@
+package org.example.woolcoat.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.woolcoat.exceptions.BusinessException;
+import org.example.woolcoat.service.rag.replication.IndexManifest;
+import org.example.woolcoat.service.rag.replication.IndexPublisher;
+import org.example.woolcoat.vo.response.CommonResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+
+/**
+ * 索引复制控制器（仅主节点开启，供只读副本拉取索引清单与文件，走统一鉴权）
+ */
+@Slf4j
+@Tag(name = "索引复制接口", description = "主节点发布索引提交点，只读副本增量拉取（内部接口）")
+@RestController
+@RequestMapping("/internal/index/replication")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "rag.replication.role", havingValue = "primary")
+public class IndexReplicationController {
+
+    private final IndexPublisher indexPublisher;
+
+    /**
+     * 当前索引清单（各分片最新提交点及其文件列表）
+     */
+    @Operation(summary = "索引清单", description = "返回各分片最新提交点引用的文件、向量索引版本和检索缓存代数")
+    @GetMapping("/manifest")
+    public CommonResponse<IndexManifest> manifest() {
+        try {
+            return CommonResponse.success(indexPublisher.currentManifest());
+        } catch (Exception e) {
+            log.error("生成索引清单失败", e);
+            return CommonResponse.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * 下载已发布提交点中的索引文件（失败返回 404，避免副本把错误信息当作文件内容）
+     */
+    @Operation(summary = "下载索引文件", description = "按分片、提交代数、文件名下载索引文件")
+    @GetMapping("/file")
+    public void file(@RequestParam("shard") int shard,
+                     @RequestParam("generation") long generation,
+                     @RequestParam("name") String name,
+                     HttpServletResponse response) throws IOException {
+        try {
+            response.setContentType("application/octet-stream");
+            indexPublisher.writeFile(shard, generation, name, response.getOutputStream());
+        } catch (BusinessException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+        }
+    }
+
+    /**
+     * 下载向量索引文件
+     */
+    @Operation(summary = "下载向量索引文件", description = "下载当前HNSW向量索引文件")
+    @GetMapping("/vector")
+    public void vector(HttpServletResponse response) throws IOException {
+        try {
+            response.setContentType("application/octet-stream");
+            indexPublisher.writeVectorFile(response.getOutputStream());
+        } catch (BusinessException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+        }
+    }
+}
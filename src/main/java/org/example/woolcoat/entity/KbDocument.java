@@ -47,6 +47,11 @@ public class KbDocument implements Serializable {
      */
     private String tag;
 
+    /**
+     * 文件内容哈希（SHA-256，同一用户重复上传相同文件时直接返回已有文档）
+     */
+    private String contentHash;
+
     /**
      * 状态：1-有效，0-删除（沿用之前SQL的字段名）
      */
@@ -42,6 +42,21 @@ public class KbDocumentChunk implements Serializable {
      */
     private String keyword;
 
+    /**
+     * 分片内容哈希（SHA-256，同一用户内容相同的分片共用一个索引条目）
+     */
+    private String contentHash;
+
+    /**
+     * 分片内容SimHash签名（近似重复检测，内容过短的分片为空）
+     */
+    private Long simHash;
+
+    /**
+     * 规范分片ID（与同一用户已有分片内容相同或相近时指向该分片，本分片不单独索引；为空表示本分片即规范分片）
+     */
+    private Long canonicalChunkId;
+
     /**
      * 创建时间（沿用之前SQL的字段名）
      */
@@ -0,0 +1,182 @@
+package org.example.woolcoat.llm;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * LLM 流式输出的 Flow.Publisher（单订阅者，订阅时才启动生产者）
+ * 生产者（HTTP 回调线程）通过 Sink 推送分片，分片先进入队列，按订阅者 request 的数量下发（背压）；
+ * 订阅者取消时执行生产者注册的取消回调（如取消 HTTP 调用）。下发由 wip 计数串行化，onNext 不会并发调用。
+ */
+public final class ChunkPublisher implements Flow.Publisher<String> {
+
+    /**
+     * 生产者推送端（线程安全，终止后的推送被忽略）
+     */
+    public interface Sink {
+        void next(String chunk);
+
+        void complete();
+
+        void error(Throwable error);
+
+        /**
+         * 订阅者是否已取消（生产者可据此提前结束读取）
+         */
+        boolean isCancelled();
+
+        /**
+         * 注册取消回调（订阅者取消时调用；已取消时立即调用）
+         */
+        void onCancel(Runnable action);
+    }
+
+    private final Consumer<Sink> producer;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    private ChunkPublisher(Consumer<Sink> producer) {
+        this.producer = producer;
+    }
+
+    /**
+     * 创建 Publisher，producer 在订阅时调用（应尽快返回，在其他线程上推送分片）
+     */
+    public static Flow.Publisher<String> create(Consumer<Sink> producer) {
+        return new ChunkPublisher(producer);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        StreamSubscription subscription = new StreamSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        if (!subscribed.compareAndSet(false, true)) {
+            subscription.error(new IllegalStateException("LLM 流式输出只支持一个订阅者"));
+            return;
+        }
+        try {
+            producer.accept(subscription);
+        } catch (Throwable e) {
+            subscription.error(e);
+        }
+    }
+
+    private static final class StreamSubscription implements Flow.Subscription, Sink {
+
+        private final Flow.Subscriber<? super String> subscriber;
+        private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final Queue<Runnable> cancelActions = new ConcurrentLinkedQueue<>();
+        private volatile boolean done;
+        private volatile Throwable failure;
+        private volatile boolean cancelled;
+        private boolean terminated; // 只在下发循环内读写
+
+        StreamSubscription(Flow.Subscriber<? super String> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("request 数量必须为正数：" + n));
+                return;
+            }
+            requested.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            Runnable action;
+            while ((action = cancelActions.poll()) != null) {
+                action.run();
+            }
+            queue.clear();
+        }
+
+        @Override
+        public void next(String chunk) {
+            if (done || cancelled) {
+                return;
+            }
+            queue.offer(chunk);
+            drain();
+        }
+
+        @Override
+        public void complete() {
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void error(Throwable error) {
+            if (done) {
+                return;
+            }
+            failure = error;
+            done = true;
+            drain();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void onCancel(Runnable action) {
+            cancelActions.offer(action);
+            if (cancelled && cancelActions.remove(action)) {
+                action.run();
+            }
+        }
+
+        // 串行下发：同一时刻只有一个线程执行循环，其他线程只增加 wip 让循环多跑一轮
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                if (terminated || cancelled) {
+                    queue.clear();
+                } else {
+                    long delivered = 0;
+                    long demand = requested.get();
+                    while (delivered < demand && !cancelled) {
+                        String chunk = queue.poll();
+                        if (chunk == null) {
+                            break;
+                        }
+                        subscriber.onNext(chunk);
+                        delivered++;
+                    }
+                    if (delivered > 0 && demand != Long.MAX_VALUE) {
+                        requested.addAndGet(-delivered);
+                    }
+                    if (done && queue.isEmpty() && !cancelled) {
+                        terminated = true;
+                        if (failure != null) {
+                            subscriber.onError(failure);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package org.example.woolcoat.llm;
 import org.example.woolcoat.vo.request.LLMRequest;
 import org.example.woolcoat.vo.response.LLMResponse;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 import java.util.function.Consumer;
 
 public interface LLMClient {
@@ -14,6 +16,13 @@ public interface LLMClient {
      */
     LLMResponse chat(LLMRequest request);
 
+    /**
+     * 模型标识（如 dashscope:qwen-turbo），用于区分不同模型的响应缓存
+     */
+    default String modelId() {
+        return getClass().getSimpleName();
+    }
+
     /**
      * 流式调用 LLM，每产生一段内容就回调 onChunk；结束时不再调用 onChunk。
      * 若某客户端未实现流式，可用 chat() 结果一次性传入 onChunk 做兼容。
@@ -26,4 +35,31 @@ public interface LLMClient {
             onChunk.accept(resp.getContent());
         }
     }
+
+    /**
+     * 异步调用 LLM（非流式）：立即返回，调用线程不等待生成结果
+     * 默认实现在公共线程池上执行 chat()，基于 HTTP 异步调用的客户端应覆盖该方法。
+     * @param request LLM 请求参数
+     * @return 完成时携带 LLM 响应结果（调用失败时响应 status=fail，与 chat() 一致）
+     */
+    default CompletableFuture<LLMResponse> chatAsync(LLMRequest request) {
+        return CompletableFuture.supplyAsync(() -> chat(request));
+    }
+
+    /**
+     * 异步流式调用 LLM：返回分片的 Publisher，订阅时才发起调用，取消订阅时中止调用
+     * 默认实现在公共线程池上执行 chatStream()，基于 HTTP 异步调用的客户端应覆盖该方法。
+     * @param request LLM 请求参数
+     * @return 内容分片的 Publisher（调用失败时 onError）
+     */
+    default Flow.Publisher<String> chatStreamAsync(LLMRequest request) {
+        return ChunkPublisher.create(sink -> CompletableFuture.runAsync(() -> {
+            try {
+                chatStream(request, sink::next);
+                sink.complete();
+            } catch (Exception e) {
+                sink.error(e);
+            }
+        }));
+    }
 }
@@ -1,41 +1,45 @@
 package org.example.woolcoat.llm.impl;
 
-import com.alibaba.dashscope.aigc.generation.Generation;
-import com.alibaba.dashscope.aigc.generation.GenerationResult;
-import com.alibaba.dashscope.aigc.generation.models.QwenParam;
-import com.alibaba.dashscope.common.Message;
-import com.alibaba.dashscope.common.MessageManager;
-import com.alibaba.dashscope.common.Role;
-import com.alibaba.dashscope.exception.ApiException;
-import com.alibaba.dashscope.exception.InputRequiredException;
-import com.alibaba.dashscope.exception.NoApiKeyException;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import org.example.woolcoat.llm.ChunkPublisher;
 import org.example.woolcoat.llm.LLMClient;
 import org.example.woolcoat.vo.request.LLMRequest;
 import org.example.woolcoat.vo.response.LLMResponse;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
 /**
  * 通义千问 LLM 客户端（在线模型）
  * 当 llm.type=dashscope 时，该Bean生效（适配项目 wool-coat）
+ * 非流式与流式均直接调用 DashScope HTTP API，复用 LLM 共享 HTTP 客户端的连接池（不再每次创建 SDK Generation）。
+ * 异步方法（chatAsync / chatStreamAsync）通过 OkHttp 异步调用实现，调用线程不阻塞。
  */
 @Slf4j
 @Component("dashscopeLLMClient")
@@ -44,13 +48,9 @@ public class DashscopeLLMClient implements LLMClient {
 
     private static final Gson GSON = new Gson();
     private static final MediaType JSON_MEDIA_TYPE = MediaType.get("application/json; charset=utf-8");
-    private static final String STREAM_API_URL = "https://dashscope.aliyuncs.com/api/v1/services/aigc/text-generation/generation";
+    private static final String API_URL = "https://dashscope.aliyuncs.com/api/v1/services/aigc/text-generation/generation";
 
-    private final OkHttpClient httpClient = new OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS)
-            .readTimeout(120, TimeUnit.SECONDS)
-            .writeTimeout(30, TimeUnit.SECONDS)
-            .build();
+    private final OkHttpClient httpClient;
 
     @Value("${llm.dashscope.api-key}")
     private String apiKey;
@@ -58,147 +58,243 @@ public class DashscopeLLMClient implements LLMClient {
     @Value("${llm.dashscope.model}")
     private String model;
 
+    // 基于共享客户端派生（共用连接池/调度器），读超时使用 llm.dashscope.timeout
+    public DashscopeLLMClient(@Qualifier("llmHttpClient") OkHttpClient llmHttpClient,
+                              @Value("${llm.dashscope.timeout:30000}") long timeoutMs) {
+        this.httpClient = llmHttpClient.newBuilder()
+                .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Override
+    public String modelId() {
+        return "dashscope:" + model;
+    }
+
     @Override
     public LLMResponse chat(LLMRequest request) {
         long startTime = System.currentTimeMillis();
-        LLMResponse response = new LLMResponse();
+        try {
+            // 1. 校验 API Key
+            checkApiKey();
+            // 2. 调用通义千问 HTTP API（响应体随 Response 关闭，连接归还连接池）
+            try (Response httpResponse = httpClient.newCall(buildRequest(request, false)).execute()) {
+                return toResponse(httpResponse, startTime);
+            }
+        } catch (Exception e) {
+            return failResponse(e, startTime);
+        }
+    }
 
+    /**
+     * 异步调用：请求在共享调度器上发起，响应在 OkHttp 回调线程上解析，调用线程不阻塞
+     */
+    @Override
+    public CompletableFuture<LLMResponse> chatAsync(LLMRequest request) {
+        long startTime = System.currentTimeMillis();
+        CompletableFuture<LLMResponse> future = new CompletableFuture<>();
         try {
-            // 1. 配置通义千问 API Key
-            System.setProperty("DASHSCOPE_API_KEY", apiKey);
-
-            // 2. 转换请求参数（适配通义千问 SDK 格式）
-            MessageManager messageManager = new MessageManager();
-            for (org.example.woolcoat.vo.common.Message msg : request.getMessages()) {
-                // 映射角色：system/user/assistant 对应通义千问 SDK 的 Role 枚举
-                String roleStr;
-                switch (msg.getRole()) {
-                    case "system":
-                        roleStr = Role.SYSTEM.getValue();
-                        break;
-                    case "assistant":
-                        roleStr = Role.ASSISTANT.getValue();
-                        break;
-                    default:
-                        roleStr = Role.USER.getValue();
-                        break;
-                }
+            checkApiKey();
+        } catch (IllegalArgumentException e) {
+            future.complete(failResponse(e, startTime));
+            return future;
+        }
+        Call call = httpClient.newCall(buildRequest(request, false));
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call c, IOException e) {
+                future.complete(failResponse(e, startTime));
+            }
 
-                // 第二步：构建 SDK 自带的 Message 对象
-                Message sdkMessage = Message.builder()
-                        .role(roleStr)
-                        .content(msg.getContent())
-                        .build();
+            @Override
+            public void onResponse(Call c, Response httpResponse) {
+                try (httpResponse) {
+                    future.complete(toResponse(httpResponse, startTime));
+                } catch (Exception e) {
+                    future.complete(failResponse(e, startTime));
+                }
+            }
+        });
+        future.whenComplete((r, e) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
 
-                // 第三步：调用 MessageManager 的 add(Message msg) 方法添加消息（核心，解决无 addMessage 的问题）
-                messageManager.add(sdkMessage);
+    /**
+     * 流式调用（基于 DashScope HTTP 流式 API）
+     * 请求体使用 incremental_output，响应为 SSE，逐段回调 onChunk。
+     */
+    @Override
+    public void chatStream(LLMRequest request, Consumer<String> onChunk) {
+        try {
+            try (Response httpResponse = httpClient.newCall(buildRequest(request, true)).execute()) {
+                readEvents(httpResponse, onChunk, () -> false);
             }
+        } catch (Exception e) {
+            log.error("Dashscope 流式调用异常", e);
+            throw new RuntimeException("Dashscope 流式异常：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 异步流式调用：订阅时发起 HTTP 异步调用，SSE 事件在 OkHttp 回调线程上解析并推送，取消订阅时取消 HTTP 调用
+     */
+    @Override
+    public Flow.Publisher<String> chatStreamAsync(LLMRequest request) {
+        return ChunkPublisher.create(sink -> {
+            Call call = httpClient.newCall(buildRequest(request, true));
+            sink.onCancel(call::cancel);
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call c, IOException e) {
+                    log.error("Dashscope 流式调用异常", e);
+                    sink.error(new RuntimeException("Dashscope 流式异常：" + e.getMessage(), e));
+                }
 
-            // 3. 构建通义千问请求参数
-            QwenParam param = QwenParam.builder()
-                    .model(model)
-                    .messages(messageManager.get())
-                    .temperature(request.getTemperature())
-                    .resultFormat(QwenParam.ResultFormat.MESSAGE)
-                    .build();
+                @Override
+                public void onResponse(Call c, Response httpResponse) {
+                    try (httpResponse) {
+                        readEvents(httpResponse, sink::next, sink::isCancelled);
+                        sink.complete();
+                    } catch (Exception e) {
+                        if (!sink.isCancelled()) {
+                            log.error("Dashscope 流式调用异常", e);
+                        }
+                        sink.error(new RuntimeException("Dashscope 流式异常：" + e.getMessage(), e));
+                    }
+                }
+            });
+        });
+    }
 
-            // 4. 调用通义千问 API 获取响应
-            Generation generation = new Generation();
-            GenerationResult generationResult = generation.call(param);
+    private void checkApiKey() {
+        if (!StringUtils.hasText(apiKey)) {
+            throw new IllegalArgumentException("未配置通义千问 API Key（llm.dashscope.api-key）");
+        }
+    }
 
-            // 5. 封装成功响应结果
-            response.setStatus("success");
-            response.setContent(generationResult.getOutput().getChoices().get(0).getMessage().getContent());
-            log.info("通义千问调用成功（项目：wool-coat），耗时：{}ms", System.currentTimeMillis() - startTime);
+    // 解析非流式响应（调用方负责关闭 Response）
+    private LLMResponse toResponse(Response httpResponse, long startTime) throws IOException {
+        ResponseBody body = httpResponse.body();
+        String responseJson = body == null ? "" : body.string();
+        if (!httpResponse.isSuccessful()) {
+            throw new RuntimeException("DashScope 调用失败，响应码：" + httpResponse.code() + "，响应：" + responseJson);
+        }
+        String content = extractContent(GSON.fromJson(responseJson, JsonObject.class));
+        if (content == null) {
+            throw new RuntimeException("DashScope 响应缺少生成内容：" + responseJson);
+        }
+        LLMResponse response = new LLMResponse();
+        response.setStatus("success");
+        response.setContent(content);
+        response.setModel(modelId());
+        response.setCostTime(System.currentTimeMillis() - startTime);
+        log.info("通义千问调用成功（项目：wool-coat），耗时：{}ms", response.getCostTime());
+        return response;
+    }
 
-        } catch (NoApiKeyException | InputRequiredException e) {
+    private LLMResponse failResponse(Exception e, long startTime) {
+        LLMResponse response = new LLMResponse();
+        response.setStatus("fail");
+        if (e instanceof IllegalArgumentException) {
             log.error("LLM 调用参数异常（项目：wool-coat）：", e);
-            response.setStatus("fail");
             response.setErrorMsg("参数异常：" + e.getMessage());
-        } catch (ApiException e) {
-            log.error("LLM 调用 API 异常（项目：wool-coat）：", e);
-            response.setStatus("fail");
+        } else {
+            log.error("LLM 调用异常（项目：wool-coat）：", e);
             response.setErrorMsg("API 异常：" + e.getMessage());
-        } catch (Exception e) {
-            log.error("LLM 调用未知异常（项目：wool-coat）：", e);
-            response.setStatus("fail");
-            response.setErrorMsg("未知异常：" + e.getMessage());
         }
-
-        // 填充响应耗时
         response.setCostTime(System.currentTimeMillis() - startTime);
         return response;
     }
 
-    /**
-     * 流式调用（基于 DashScope HTTP 流式 API，兼容 SDK 2.12.0）
-     * 请求体使用 incremental_output，响应为 SSE，逐段回调 onChunk。
-     */
-    @Override
-    public void chatStream(LLMRequest request, Consumer<String> onChunk) {
-        try {
-            List<JsonObject> messages = new ArrayList<>();
-            for (org.example.woolcoat.vo.common.Message msg : request.getMessages()) {
-                JsonObject m = new JsonObject();
-                m.addProperty("role", msg.getRole());
-                m.addProperty("content", msg.getContent());
-                messages.add(m);
-            }
-            JsonObject input = new JsonObject();
-            input.add("messages", GSON.toJsonTree(messages));
-            JsonObject parameters = new JsonObject();
-            parameters.addProperty("result_format", "message");
-            parameters.addProperty("incremental_output", true);
-            JsonObject body = new JsonObject();
-            body.addProperty("model", model);
-            body.add("input", input);
-            body.add("parameters", parameters);
-
-            Request httpRequest = new Request.Builder()
-                    .url(STREAM_API_URL)
-                    .header("Authorization", "Bearer " + apiKey)
-                    .post(RequestBody.create(GSON.toJson(body), JSON_MEDIA_TYPE))
-                    .build();
-
-            try (Response httpResponse = httpClient.newCall(httpRequest).execute();
-                 ResponseBody bodyResp = httpResponse.body()) {
-                if (!httpResponse.isSuccessful() || bodyResp == null) {
-                    throw new RuntimeException("DashScope 流式调用失败，响应码：" + httpResponse.code());
+    // 逐行读取 SSE 事件，取出增量内容回调 onChunk（调用方负责关闭 Response）
+    private void readEvents(Response httpResponse, Consumer<String> onChunk, BooleanSupplier cancelled) throws IOException {
+        ResponseBody bodyResp = httpResponse.body();
+        if (!httpResponse.isSuccessful() || bodyResp == null) {
+            throw new RuntimeException("DashScope 流式调用失败，响应码：" + httpResponse.code());
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(bodyResp.byteStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while (!cancelled.getAsBoolean() && (line = reader.readLine()) != null) {
+                if (!line.startsWith("data:")) continue;
+                String json = line.substring(5).trim();
+                if ("[DONE]".equals(json)) break;
+                JsonObject event;
+                try {
+                    event = GSON.fromJson(json, JsonObject.class);
+                } catch (Exception e) {
+                    if (!json.isEmpty()) log.warn("解析流式事件失败: {}", json, e);
+                    continue;
                 }
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(bodyResp.byteStream(), StandardCharsets.UTF_8))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        if (!line.startsWith("data:")) continue;
-                        String json = line.substring(5).trim();
-                        if ("[DONE]".equals(json)) break;
-                        try {
-                            JsonObject event = GSON.fromJson(json, JsonObject.class);
-                            if (event == null) continue;
-                            if (event.has("code") && !event.get("code").isJsonNull()) {
-                                int code = event.get("code").getAsInt();
-                                if (code != 0) {
-                                    throw new RuntimeException("DashScope 返回错误：" + event.toString());
-                                }
-                            }
-                            if (!event.has("output")) continue;
-                            JsonObject output = event.getAsJsonObject("output");
-                            if (!output.has("choices") || output.getAsJsonArray("choices").isEmpty()) continue;
-                            JsonObject choice = output.getAsJsonArray("choices").get(0).getAsJsonObject();
-                            if (!choice.has("message")) continue;
-                            var msgObj = choice.getAsJsonObject("message");
-                            if (!msgObj.has("content") || msgObj.get("content").isJsonNull()) continue;
-                            String content = msgObj.get("content").getAsString();
-                            if (content != null && !content.isEmpty()) onChunk.accept(content);
-                        } catch (Exception e) {
-                            if (!json.isEmpty()) log.warn("解析流式事件失败: {}", json, e);
-                        }
+                if (event == null) continue;
+                if (event.has("code") && !event.get("code").isJsonNull()) {
+                    String code = event.get("code").getAsString();
+                    if (!code.isEmpty() && !"0".equals(code)) {
+                        throw new RuntimeException("DashScope 返回错误：" + event);
                     }
                 }
+                String content = extractContent(event);
+                if (content != null && !content.isEmpty()) onChunk.accept(content);
             }
-        } catch (Exception e) {
-            log.error("Dashscope 流式调用异常", e);
-            throw new RuntimeException("Dashscope 流式异常：" + e.getMessage());
         }
     }
+
+    // 构建 DashScope 文本生成请求（stream=true 时开启 SSE 增量输出）
+    private Request buildRequest(LLMRequest request, boolean stream) {
+        List<JsonObject> messages = new ArrayList<>();
+        for (org.example.woolcoat.vo.common.Message msg : request.getMessages()) {
+            JsonObject m = new JsonObject();
+            m.addProperty("role", msg.getRole());
+            m.addProperty("content", msg.getContent());
+            messages.add(m);
+        }
+        JsonObject input = new JsonObject();
+        input.add("messages", GSON.toJsonTree(messages));
+        JsonObject parameters = new JsonObject();
+        parameters.addProperty("result_format", "message");
+        if (request.getTemperature() != null) {
+            parameters.addProperty("temperature", request.getTemperature());
+        }
+        if (stream) {
+            parameters.addProperty("incremental_output", true);
+        }
+        JsonObject body = new JsonObject();
+        body.addProperty("model", model);
+        body.add("input", input);
+        body.add("parameters", parameters);
+
+        Request.Builder builder = new Request.Builder()
+                .url(API_URL)
+                .header("Authorization", "Bearer " + apiKey)
+                .post(RequestBody.create(GSON.toJson(body), JSON_MEDIA_TYPE));
+        if (stream) {
+            builder.header("X-DashScope-SSE", "enable");
+        }
+        return builder.build();
+    }
+
+    // 取 output.choices[0].message.content（缺失时返回null）
+    private static String extractContent(JsonObject result) {
+        if (result == null || !result.has("output") || !result.get("output").isJsonObject()) {
+            return null;
+        }
+        JsonObject output = result.getAsJsonObject("output");
+        if (!output.has("choices") || !output.get("choices").isJsonArray()) {
+            return null;
+        }
+        JsonArray choices = output.getAsJsonArray("choices");
+        if (choices.isEmpty() || !choices.get(0).isJsonObject()) {
+            return null;
+        }
+        JsonObject choice = choices.get(0).getAsJsonObject();
+        if (!choice.has("message") || !choice.get("message").isJsonObject()) {
+            return null;
+        }
+        JsonElement content = choice.getAsJsonObject("message").get("content");
+        return content == null || content.isJsonNull() ? null : content.getAsString();
+    }
 }
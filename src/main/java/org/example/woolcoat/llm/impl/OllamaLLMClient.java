@@ -3,30 +3,39 @@ package org.example.woolcoat.llm.impl;
 import com.google.gson.Gson;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import org.example.woolcoat.llm.ChunkPublisher;
 import org.example.woolcoat.llm.LLMClient;
 import org.example.woolcoat.vo.request.LLMRequest;
 import org.example.woolcoat.vo.response.LLMResponse;
 import org.example.woolcoat.vo.common.Message;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.stereotype.Component;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
 /**
  * Ollama 本地 LLM 客户端（离线模型，兜底使用）
  * 当 llm.type=ollama 时，该Bean生效（适配项目 wool-coat）
+ * 异步方法（chatAsync / chatStreamAsync）通过 OkHttp 异步调用实现，调用线程不阻塞。
  */
 @Slf4j
 @Component("ollamaLLMClient")
@@ -43,99 +52,162 @@ public class OllamaLLMClient implements LLMClient {
     @Value("${llm.ollama.model}")
     private String model;
 
-    // 初始化 OkHttpClient，设置超时时间（适配本地模型调用，超时时间稍长）
-    public OllamaLLMClient() {
-        this.okHttpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
+    // 基于 LLM 共享 OkHttpClient 派生（共用连接池/调度器），读超时使用 llm.ollama.timeout（本地模型超时稍长）
+    public OllamaLLMClient(@Qualifier("llmHttpClient") OkHttpClient llmHttpClient,
+                           @Value("${llm.ollama.timeout:60000}") long timeoutMs) {
+        this.okHttpClient = llmHttpClient.newBuilder()
+                .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
                 .build();
     }
 
+    @Override
+    public String modelId() {
+        return "ollama:" + model;
+    }
+
     @Override
     public LLMResponse chat(LLMRequest request) {
         long startTime = System.currentTimeMillis();
-        LLMResponse response = new LLMResponse();
-
         try {
-            // 1. 构建 Ollama 请求参数（适配 Ollama 接口格式）
-            OllamaRequest ollamaRequest = new OllamaRequest();
-            ollamaRequest.setModel(model);
-            ollamaRequest.setMessages(convertToOllamaMessages(request.getMessages()));
-            ollamaRequest.setStream(false);
-            ollamaRequest.setTemperature(request.getTemperature());
-
-            // 2. 构建 HTTP POST 请求
-            String requestJson = GSON.toJson(ollamaRequest);
-            RequestBody requestBody = RequestBody.create(requestJson, JSON_MEDIA_TYPE);
-            Request httpRequest = new Request.Builder()
-                    .url(baseUrl + "/chat")
-                    .post(requestBody)
-                    .build();
-
-            // 3. 调用 Ollama 本地接口
-            okhttp3.Response httpResponse = okHttpClient.newCall(httpRequest).execute();
-            if (!httpResponse.isSuccessful()) {
-                throw new RuntimeException("Ollama 调用失败，响应码：" + httpResponse.code());
+            // 调用 Ollama 本地接口（响应体随 Response 关闭，连接归还连接池）
+            try (Response httpResponse = okHttpClient.newCall(buildRequest(request, false)).execute()) {
+                return toResponse(httpResponse, startTime);
             }
-
-            // 4. 解析 Ollama 响应结果
-            String responseJson = httpResponse.body().string();
-            OllamaResponse ollamaResponse = GSON.fromJson(responseJson, OllamaResponse.class);
-
-            // 5. 封装成功响应结果
-            response.setStatus("success");
-            response.setContent(ollamaResponse.getMessage().getContent());
-            log.info("Ollama 调用成功（项目：wool-coat），耗时：{}ms", System.currentTimeMillis() - startTime);
-
         } catch (Exception e) {
-            log.error("Ollama 调用异常（项目：wool-coat）：", e);
-            response.setStatus("fail");
-            response.setErrorMsg("Ollama 异常：" + e.getMessage());
+            return failResponse(e, startTime);
         }
+    }
 
-        // 填充响应耗时
-        response.setCostTime(System.currentTimeMillis() - startTime);
-        return response;
+    /**
+     * 异步调用：请求在共享调度器上发起，响应在 OkHttp 回调线程上解析，调用线程不阻塞
+     */
+    @Override
+    public CompletableFuture<LLMResponse> chatAsync(LLMRequest request) {
+        long startTime = System.currentTimeMillis();
+        CompletableFuture<LLMResponse> future = new CompletableFuture<>();
+        Call call = okHttpClient.newCall(buildRequest(request, false));
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call c, IOException e) {
+                future.complete(failResponse(e, startTime));
+            }
+
+            @Override
+            public void onResponse(Call c, Response httpResponse) {
+                try (httpResponse) {
+                    future.complete(toResponse(httpResponse, startTime));
+                } catch (Exception e) {
+                    future.complete(failResponse(e, startTime));
+                }
+            }
+        });
+        future.whenComplete((r, e) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
     }
 
     @Override
     public void chatStream(LLMRequest request, Consumer<String> onChunk) {
         try {
-            OllamaRequest ollamaRequest = new OllamaRequest();
-            ollamaRequest.setModel(model);
-            ollamaRequest.setMessages(convertToOllamaMessages(request.getMessages()));
-            ollamaRequest.setStream(true);
-            ollamaRequest.setTemperature(request.getTemperature());
-
-            String requestJson = GSON.toJson(ollamaRequest);
-            RequestBody requestBody = RequestBody.create(requestJson, JSON_MEDIA_TYPE);
-            Request httpRequest = new Request.Builder()
-                    .url(baseUrl + "/chat")
-                    .post(requestBody)
-                    .build();
-
-            try (Response httpResponse = okHttpClient.newCall(httpRequest).execute();
-                 ResponseBody body = httpResponse.body()) {
-                if (!httpResponse.isSuccessful() || body == null) {
-                    throw new RuntimeException("Ollama 流式调用失败，响应码：" + (httpResponse.code()));
+            try (Response httpResponse = okHttpClient.newCall(buildRequest(request, true)).execute()) {
+                readChunks(httpResponse, onChunk, () -> false);
+            }
+        } catch (Exception e) {
+            log.error("Ollama 流式调用异常：", e);
+            throw new RuntimeException("Ollama 流式异常：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 异步流式调用：订阅时发起 HTTP 异步调用，逐行解析并推送分片，取消订阅时取消 HTTP 调用
+     */
+    @Override
+    public Flow.Publisher<String> chatStreamAsync(LLMRequest request) {
+        return ChunkPublisher.create(sink -> {
+            Call call = okHttpClient.newCall(buildRequest(request, true));
+            sink.onCancel(call::cancel);
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call c, IOException e) {
+                    log.error("Ollama 流式调用异常：", e);
+                    sink.error(new RuntimeException("Ollama 流式异常：" + e.getMessage(), e));
                 }
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(body.byteStream(), StandardCharsets.UTF_8))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        if (line.isBlank()) continue;
-                        OllamaStreamChunk chunk = GSON.fromJson(line, OllamaStreamChunk.class);
-                        if (chunk != null && chunk.getMessage() != null && chunk.getMessage().getContent() != null) {
-                            onChunk.accept(chunk.getMessage().getContent());
+
+                @Override
+                public void onResponse(Call c, Response httpResponse) {
+                    try (httpResponse) {
+                        readChunks(httpResponse, sink::next, sink::isCancelled);
+                        sink.complete();
+                    } catch (Exception e) {
+                        if (!sink.isCancelled()) {
+                            log.error("Ollama 流式调用异常：", e);
                         }
-                        if (chunk != null && chunk.getDone()) break;
+                        sink.error(new RuntimeException("Ollama 流式异常：" + e.getMessage(), e));
                     }
                 }
+            });
+        });
+    }
+
+    // 构建 Ollama /chat 请求（适配 Ollama 接口格式）
+    private Request buildRequest(LLMRequest request, boolean stream) {
+        OllamaRequest ollamaRequest = new OllamaRequest();
+        ollamaRequest.setModel(model);
+        ollamaRequest.setMessages(convertToOllamaMessages(request.getMessages()));
+        ollamaRequest.setStream(stream);
+        ollamaRequest.setTemperature(request.getTemperature());
+        String requestJson = GSON.toJson(ollamaRequest);
+        return new Request.Builder()
+                .url(baseUrl + "/chat")
+                .post(RequestBody.create(requestJson, JSON_MEDIA_TYPE))
+                .build();
+    }
+
+    // 解析非流式响应（调用方负责关闭 Response）
+    private LLMResponse toResponse(Response httpResponse, long startTime) throws IOException {
+        ResponseBody body = httpResponse.body();
+        if (!httpResponse.isSuccessful() || body == null) {
+            throw new RuntimeException("Ollama 调用失败，响应码：" + httpResponse.code());
+        }
+        OllamaResponse ollamaResponse = GSON.fromJson(body.string(), OllamaResponse.class);
+        LLMResponse response = new LLMResponse();
+        response.setStatus("success");
+        response.setContent(ollamaResponse.getMessage().getContent());
+        response.setModel(modelId());
+        response.setCostTime(System.currentTimeMillis() - startTime);
+        log.info("Ollama 调用成功（项目：wool-coat），耗时：{}ms", response.getCostTime());
+        return response;
+    }
+
+    private LLMResponse failResponse(Exception e, long startTime) {
+        log.error("Ollama 调用异常（项目：wool-coat）：", e);
+        LLMResponse response = new LLMResponse();
+        response.setStatus("fail");
+        response.setErrorMsg("Ollama 异常：" + e.getMessage());
+        response.setCostTime(System.currentTimeMillis() - startTime);
+        return response;
+    }
+
+    // 逐行读取流式响应（每行一个 JSON），回调内容分片（调用方负责关闭 Response）
+    private void readChunks(Response httpResponse, Consumer<String> onChunk, BooleanSupplier cancelled) throws IOException {
+        ResponseBody body = httpResponse.body();
+        if (!httpResponse.isSuccessful() || body == null) {
+            throw new RuntimeException("Ollama 流式调用失败，响应码：" + httpResponse.code());
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(body.byteStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while (!cancelled.getAsBoolean() && (line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                OllamaStreamChunk chunk = GSON.fromJson(line, OllamaStreamChunk.class);
+                if (chunk != null && chunk.getMessage() != null && chunk.getMessage().getContent() != null) {
+                    onChunk.accept(chunk.getMessage().getContent());
+                }
+                if (chunk != null && Boolean.TRUE.equals(chunk.getDone())) break;
             }
-        } catch (Exception e) {
-            log.error("Ollama 流式调用异常：", e);
-            throw new RuntimeException("Ollama 流式异常：" + e.getMessage());
         }
     }
 
@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 import org.example.woolcoat.entity.KbDocumentChunk;
 
 import java.util.List;
@@ -15,7 +16,22 @@ import java.util.List;
 public interface KbDocumentChunkMapper extends BaseMapper<KbDocumentChunk> {
 
     /**
-     * 批量插入文档分片（对应 DocumentService 中的 insertBatch，变量名无变更）
+     * 批量插入文档分片（多行 INSERT，自增主键回填到每个分片的 id，变量名无变更）
      */
     void insertBatch(@Param("chunkList") List<KbDocumentChunk> chunkList);
+
+    /**
+     * 按分片ID升序流式读取 minId 之后的全部分片（MySQL流式结果集，需在事务内遍历，全量重建索引使用）
+     */
+    Cursor<KbDocumentChunk> scanAfterId(@Param("minId") long minId);
+
+    /**
+     * 流式读取全部分片的ID、用户ID、内容哈希、SimHash与规范分片ID（MySQL流式结果集，需在事务内遍历，加载分片去重索引使用）
+     */
+    Cursor<KbDocumentChunk> scanDedupSignatures();
+
+    /**
+     * 按分片序号升序流式读取一个文档的全部分片（MySQL流式结果集，需在事务内遍历，分片列表流式导出使用）
+     */
+    Cursor<KbDocumentChunk> streamByDocumentId(@Param("documentId") Long documentId);
 }
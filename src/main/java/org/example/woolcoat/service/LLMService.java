@@ -5,10 +5,15 @@ import io.github.resilience4j.retry.annotation.Retry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.example.woolcoat.llm.LLMClient;
+import org.example.woolcoat.service.cache.LLMResponseCache;
+import org.example.woolcoat.service.coalesce.LLMRequestCoalescer;
 import org.example.woolcoat.vo.request.LLMRequest;
 import org.example.woolcoat.vo.response.LLMResponse;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
 /**
  * LLM 服务层（封装调用，添加熔断重试，适配项目 wool-coat）
  */
@@ -20,24 +25,76 @@ public class LLMService {
     // 自动注入 LLMClient 实现类（通义千问/ Ollama，根据配置切换）
     private final LLMClient llmClient;
 
+    // 确定性调用（低温度/调用方指定）的响应缓存
+    private final LLMResponseCache responseCache;
+
+    // 相同在途请求合并（热点问题并发到达时只调用一次上游）
+    private final LLMRequestCoalescer coalescer;
+
     /**
-     * 调用 LLM 服务（添加熔断+重试）
+     * 调用 LLM 服务（添加熔断+重试；可缓存的请求先查响应缓存，相同的在途请求合并为一次调用）
      * @param request LLM 请求参数
      * @return LLM 响应结果
      */
     @Retry(name = "llmRetry") // 对应 application.yml 中的 llmRetry 配置
     @CircuitBreaker(name = "llmCircuitBreaker", fallbackMethod = "llmFallback") // 熔断+降级方法
     public LLMResponse callLLM(LLMRequest request) {
-        return llmClient.chat(request);
+        LLMResponse cached = responseCache.get(llmClient.modelId(), request);
+        if (cached != null) {
+            return cached;
+        }
+        return coalescer.execute(fingerprint(request), () -> {
+            LLMResponse response = llmClient.chat(request);
+            responseCache.put(llmClient.modelId(), request, response);
+            return response;
+        });
     }
 
     /**
-     * 流式调用 LLM（不经过熔断/重试，避免流式语义复杂）
+     * 流式调用 LLM（不经过熔断/重试，避免流式语义复杂；相同的在途流式请求共享一个上游流）
      * @param request LLM 请求参数
      * @param onChunk 每段内容的回调
      */
     public void callLLMStream(LLMRequest request, java.util.function.Consumer<String> onChunk) {
-        llmClient.chatStream(request, onChunk);
+        coalescer.stream(fingerprint(request), onChunk, sink -> llmClient.chatStream(request, sink));
+    }
+
+    /**
+     * 异步调用 LLM（非流式，不经过熔断/重试注解：注解只拦截同步返回值；失败时响应 status=fail）
+     * @param request LLM 请求参数
+     * @return 完成时携带 LLM 响应结果
+     */
+    public CompletableFuture<LLMResponse> callLLMAsync(LLMRequest request) {
+        LLMResponse cached = responseCache.get(llmClient.modelId(), request);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return coalescer.executeAsync(fingerprint(request), () -> llmClient.chatAsync(request)
+                .thenApply(response -> {
+                    responseCache.put(llmClient.modelId(), request, response);
+                    return response;
+                }));
+    }
+
+    /**
+     * 异步流式调用 LLM（订阅时发起调用或加入相同的在途流，所有订阅者都取消时中止调用）
+     * @param request LLM 请求参数
+     * @return 内容分片的 Publisher
+     */
+    public Flow.Publisher<String> callLLMStreamAsync(LLMRequest request) {
+        return coalescer.publish(fingerprint(request), () -> llmClient.chatStreamAsync(request));
+    }
+
+    /**
+     * 清除请求对应的响应缓存（调用方解析缓存的响应失败时调用，下次重新调用模型）
+     * @param request LLM 请求参数
+     */
+    public void evictCachedResponse(LLMRequest request) {
+        responseCache.evict(llmClient.modelId(), request);
+    }
+
+    private String fingerprint(LLMRequest request) {
+        return LLMResponseCache.fingerprint(llmClient.modelId(), request);
     }
 
     /**
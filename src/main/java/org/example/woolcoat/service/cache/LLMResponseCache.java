@@ -0,0 +1,151 @@
+package org.example.woolcoat.service.cache;
+
+import cn.hutool.crypto.SecureUtil;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.example.woolcoat.vo.request.LLMRequest;
+import org.example.woolcoat.vo.response.LLMResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LLM 响应精确匹配缓存（本地LRU + Redis）
+ * 缓存Key = 模型标识 + 温度 + 完整消息列表的摘要，只有逐字相同的请求才命中；
+ * 只缓存成功且由Key中模型应答的响应（主模型失败降级到备用模型时的应答不缓存，避免主模型恢复后仍返回备用模型的结果），
+ * 且只缓存确定性调用（LLMRequest.cacheable=true，或未指定时温度不高于 max-temperature），
+ * 工具路由、任务拆解等低温度调用重复出现时直接复用上次结果，不再调用模型。
+ */
+@Slf4j
+@Component
+public class LLMResponseCache {
+
+    private static final String RESPONSE_KEY_PREFIX = "agent:llm:response:";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final boolean enabled;
+    private final long ttlSeconds;
+    private final float maxTemperature;
+    private final Map<String, String> localCache;
+
+    public LLMResponseCache(RedisTemplate<String, Object> redisTemplate,
+                            @Value("${llm.cache.enabled:true}") boolean enabled,
+                            @Value("${llm.cache.local-size:1000}") int localSize,
+                            @Value("${llm.cache.ttl-seconds:3600}") long ttlSeconds,
+                            @Value("${llm.cache.max-temperature:0.2}") float maxTemperature) {
+        this.redisTemplate = redisTemplate;
+        this.enabled = enabled;
+        this.ttlSeconds = ttlSeconds;
+        this.maxTemperature = maxTemperature;
+        // accessOrder=true：按访问顺序淘汰最久未使用的条目
+        this.localCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > localSize;
+            }
+        };
+    }
+
+    /**
+     * 请求是否允许缓存（调用方显式指定优先，否则按温度阈值判断）
+     */
+    public boolean isCacheable(LLMRequest request) {
+        if (!enabled || request == null || request.getMessages() == null) {
+            return false;
+        }
+        if (request.getCacheable() != null) {
+            return request.getCacheable();
+        }
+        return request.getTemperature() != null && request.getTemperature() <= maxTemperature;
+    }
+
+    /**
+     * 查询缓存（先本地，再Redis；Redis命中时回填本地）
+     * @return 缓存的成功响应（costTime=0），未命中或不可缓存返回null
+     */
+    public LLMResponse get(String modelId, LLMRequest request) {
+        if (!isCacheable(request)) {
+            return null;
+        }
+        String key = buildKey(modelId, request);
+        String content;
+        synchronized (localCache) {
+            content = localCache.get(key);
+        }
+        if (content == null) {
+            try {
+                if (redisTemplate.opsForValue().get(key) instanceof String value) {
+                    content = value;
+                    synchronized (localCache) {
+                        localCache.put(key, content);
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("LLM响应缓存读取Redis失败：{}", e.getMessage());
+            }
+        }
+        if (content == null) {
+            return null;
+        }
+        LLMResponse response = new LLMResponse();
+        response.setStatus("success");
+        response.setContent(content);
+        response.setModel(modelId);
+        response.setCostTime(0);
+        return response;
+    }
+
+    /**
+     * 写入缓存（只缓存 modelId 对应模型应答的成功响应；本地 + Redis）
+     */
+    public void put(String modelId, LLMRequest request, LLMResponse response) {
+        if (!isCacheable(request) || response == null || !"success".equals(response.getStatus())
+                || response.getContent() == null || !modelId.equals(response.getModel())) {
+            return;
+        }
+        String key = buildKey(modelId, request);
+        synchronized (localCache) {
+            localCache.put(key, response.getContent());
+        }
+        try {
+            redisTemplate.opsForValue().set(key, response.getContent(), ttlSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("LLM响应缓存写入Redis失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 清除请求对应的缓存（调用方发现缓存的响应不可用时调用，如返回格式非法）
+     */
+    public void evict(String modelId, LLMRequest request) {
+        if (!isCacheable(request)) {
+            return;
+        }
+        String key = buildKey(modelId, request);
+        synchronized (localCache) {
+            localCache.remove(key);
+        }
+        try {
+            redisTemplate.delete(key);
+        } catch (Exception e) {
+            log.warn("LLM响应缓存删除Redis失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 请求指纹：模型标识 + 温度 + 完整消息列表的摘要（响应缓存、在途请求合并共用）
+     * 消息列表序列化为JSON后再摘要，角色/内容边界明确，不同消息拆分方式不会得到相同指纹。
+     */
+    public static String fingerprint(String modelId, LLMRequest request) {
+        String payload = modelId + "\n" + request.getTemperature() + "\n" + JSONUtil.toJsonStr(request.getMessages());
+        return SecureUtil.sha256(payload);
+    }
+
+    private static String buildKey(String modelId, LLMRequest request) {
+        return RESPONSE_KEY_PREFIX + fingerprint(modelId, request);
+    }
+}
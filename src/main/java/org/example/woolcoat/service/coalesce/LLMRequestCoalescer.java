@@ -0,0 +1,351 @@
+package org.example.woolcoat.service.coalesce;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.woolcoat.llm.ChunkPublisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 相同在途 LLM 请求合并（single-flight，按请求指纹合并）
+ * 非流式：同一指纹同时只发起一次上游调用，并发到达的相同请求等待并共享该次结果（同步/异步调用共用同一在途调用）；
+ * 流式：同一指纹同时只读取一个上游流，已到达的分片缓冲在内存中，后加入的订阅者先补发已有分片再接收后续分片，
+ * 每个订阅者在自己的线程上推送（慢客户端不拖慢上游和其他订阅者）。上游调用结束后立即移除，之后的请求重新发起。
+ */
+@Slf4j
+@Component
+public class LLMRequestCoalescer {
+
+    private final boolean enabled;
+    private final Map<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+    private final Map<String, StreamFlight> streams = new ConcurrentHashMap<>();
+    private final Map<String, StreamHub> hubs = new ConcurrentHashMap<>();
+
+    public LLMRequestCoalescer(@Value("${llm.coalesce.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 同步调用：相同指纹已有在途调用时等待并返回其结果（上游抛出的异常同样传给等待者）
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, flight);
+        if (existing != null) {
+            log.debug("LLM请求合并：复用在途调用，key={}", key);
+            return (T) await(existing);
+        }
+        try {
+            T result = call.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, flight);
+        }
+    }
+
+    /**
+     * 异步调用：相同指纹已有在途调用时返回共享结果的新 Future（取消返回的 Future 不影响上游调用）
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> executeAsync(String key, Supplier<CompletableFuture<T>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, flight);
+        if (existing != null) {
+            log.debug("LLM请求合并：复用在途调用，key={}", key);
+            return existing.thenApply(result -> (T) result);
+        }
+        try {
+            call.get().whenComplete((result, error) -> {
+                calls.remove(key, flight);
+                if (error != null) {
+                    flight.completeExceptionally(error);
+                } else {
+                    flight.complete(result);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            calls.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        return flight.thenApply(result -> (T) result);
+    }
+
+    /**
+     * 同步流式调用：首个请求读取上游流，相同指纹的并发请求在各自线程上跟随推送（先补发已有分片）
+     * @param upstream 发起上游流式调用，分片交给传入的回调（阻塞到流结束）
+     */
+    public void stream(String key, Consumer<String> onChunk, Consumer<Consumer<String>> upstream) {
+        if (!enabled) {
+            upstream.accept(onChunk);
+            return;
+        }
+        StreamFlight flight = new StreamFlight();
+        StreamFlight existing = streams.putIfAbsent(key, flight);
+        if (existing != null) {
+            log.debug("LLM流式请求合并：跟随在途流，key={}", key);
+            existing.follow(onChunk);
+            return;
+        }
+        // 本请求的客户端推送失败（如已断开）时：有跟随者则继续读取上游供跟随者使用，结束后再抛出
+        RuntimeException[] ownFailure = new RuntimeException[1];
+        Throwable upstreamFailure = null;
+        try {
+            upstream.accept(chunk -> {
+                flight.append(chunk);
+                if (ownFailure[0] != null) {
+                    return;
+                }
+                try {
+                    onChunk.accept(chunk);
+                } catch (RuntimeException e) {
+                    ownFailure[0] = e;
+                    if (!flight.hasFollowers()) {
+                        throw e;
+                    }
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            upstreamFailure = e;
+            throw e;
+        } finally {
+            streams.remove(key, flight);
+            flight.finish(upstreamFailure);
+        }
+        if (ownFailure[0] != null) {
+            throw ownFailure[0];
+        }
+    }
+
+    /**
+     * 异步流式调用：订阅时加入相同指纹的在途流（没有则订阅上游），所有订阅者都取消时取消上游
+     * @param upstream 创建上游分片 Publisher（只在没有在途流时调用）
+     */
+    public Flow.Publisher<String> publish(String key, Supplier<Flow.Publisher<String>> upstream) {
+        if (!enabled) {
+            return upstream.get();
+        }
+        return ChunkPublisher.create(sink -> {
+            while (true) {
+                StreamHub hub = new StreamHub(key);
+                StreamHub existing = hubs.putIfAbsent(key, hub);
+                if (existing == null) {
+                    hub.add(sink);
+                    upstream.get().subscribe(hub);
+                    return;
+                }
+                if (existing.add(sink)) {
+                    log.debug("LLM流式请求合并：订阅在途流，key={}", key);
+                    return;
+                }
+                // 在途流恰好因所有订阅者取消而关闭，移除后重试
+                hubs.remove(key, existing);
+            }
+        });
+    }
+
+    private static Object await(CompletableFuture<Object> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 同步流式的在途流：领头请求追加分片，跟随者按各自进度读取
+     */
+    private static final class StreamFlight {
+
+        private final List<String> chunks = new ArrayList<>();
+        private int followers;
+        private boolean done;
+        private Throwable failure;
+
+        synchronized void append(String chunk) {
+            chunks.add(chunk);
+            notifyAll();
+        }
+
+        synchronized void finish(Throwable error) {
+            if (done) {
+                return;
+            }
+            failure = error;
+            done = true;
+            notifyAll();
+        }
+
+        synchronized boolean hasFollowers() {
+            return followers > 0;
+        }
+
+        void follow(Consumer<String> onChunk) {
+            synchronized (this) {
+                followers++;
+            }
+            try {
+                int next = 0;
+                while (true) {
+                    List<String> batch;
+                    boolean finished;
+                    Throwable error;
+                    synchronized (this) {
+                        while (next == chunks.size() && !done) {
+                            wait();
+                        }
+                        batch = new ArrayList<>(chunks.subList(next, chunks.size()));
+                        next = chunks.size();
+                        finished = done;
+                        error = failure;
+                    }
+                    batch.forEach(onChunk);
+                    if (finished) {
+                        if (error != null) {
+                            throw new IllegalStateException("LLM流式调用失败：" + error.getMessage(), error);
+                        }
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待LLM流式输出被中断", e);
+            } finally {
+                synchronized (this) {
+                    followers--;
+                }
+            }
+        }
+    }
+
+    /**
+     * 异步流式的在途流：订阅上游一次，分片广播给所有订阅者（新订阅者先补发已有分片）
+     */
+    private final class StreamHub implements Flow.Subscriber<String> {
+
+        private final String key;
+        private final List<String> chunks = new ArrayList<>();
+        private final List<ChunkPublisher.Sink> sinks = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private boolean done;
+        private Throwable failure;
+        private boolean cancelled;
+
+        StreamHub(String key) {
+            this.key = key;
+        }
+
+        /**
+         * 加入订阅者（在途流已因无订阅者取消时返回false）
+         */
+        synchronized boolean add(ChunkPublisher.Sink sink) {
+            if (cancelled) {
+                return false;
+            }
+            chunks.forEach(sink::next);
+            if (done) {
+                terminate(sink);
+                return true;
+            }
+            sinks.add(sink);
+            sink.onCancel(() -> remove(sink));
+            return true;
+        }
+
+        private void remove(ChunkPublisher.Sink sink) {
+            Flow.Subscription toCancel = null;
+            synchronized (this) {
+                sinks.remove(sink);
+                if (sinks.isEmpty() && !done && !cancelled) {
+                    cancelled = true;
+                    toCancel = subscription;
+                    hubs.remove(key, this);
+                }
+            }
+            if (toCancel != null) {
+                toCancel.cancel();
+            }
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            boolean cancelNow;
+            synchronized (this) {
+                subscription = s;
+                cancelNow = cancelled;
+            }
+            if (cancelNow) {
+                s.cancel();
+            } else {
+                // 分片缓冲在各订阅者自己的队列中，按各自的 request 数量下发
+                s.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(String chunk) {
+            List<ChunkPublisher.Sink> targets;
+            synchronized (this) {
+                chunks.add(chunk);
+                targets = List.copyOf(sinks);
+            }
+            targets.forEach(sink -> sink.next(chunk));
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            finish(error);
+        }
+
+        @Override
+        public void onComplete() {
+            finish(null);
+        }
+
+        private void finish(Throwable error) {
+            List<ChunkPublisher.Sink> targets;
+            synchronized (this) {
+                done = true;
+                failure = error;
+                targets = List.copyOf(sinks);
+                sinks.clear();
+                hubs.remove(key, this);
+            }
+            targets.forEach(this::terminate);
+        }
+
+        private void terminate(ChunkPublisher.Sink sink) {
+            if (failure != null) {
+                sink.error(failure);
+            } else {
+                sink.complete();
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.example.woolcoat.service.document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 游标分页结果（键集分页：下一页从上一页最后一条记录之后开始，与翻页深度无关）
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPage<T> {
+
+    /**
+     * 当前页记录
+     */
+    private List<T> items;
+
+    /**
+     * 下一页游标（原样传回即可获取下一页；没有下一页时为null）
+     */
+    private String nextCursor;
+}
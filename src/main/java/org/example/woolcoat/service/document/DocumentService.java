@@ -5,6 +5,7 @@ import org.example.woolcoat.entity.KbDocumentChunk;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * 知识库文档服务接口（完整）
@@ -19,6 +20,31 @@ public interface DocumentService {
      */
     String uploadDocument(MultipartFile file, String userId);
 
+    /**
+     * 异步上传文档：文件落盘后立即返回入库任务，解析、分片、入库、索引由入库流水线异步执行
+     * @param file 上传的文件（支持txt/md/pdf）
+     * @param userId 用户ID（文档归属）
+     * @return 入库任务（含任务ID、文档ID）
+     */
+    IngestJob submitUploadDocument(MultipartFile file, String userId);
+
+    /**
+     * 异步替换文档内容：新版本按分片内容与当前版本比对，只入库/索引变化的分片，未变化的分片保持不动
+     * @param docId 文档ID
+     * @param file 新版本文件（支持txt/md/pdf）
+     * @param userId 用户ID（校验归属）
+     * @return 入库任务（内容未变化时直接返回已完成的任务）
+     */
+    IngestJob submitReplaceDocument(Long docId, MultipartFile file, String userId);
+
+    /**
+     * 查询入库任务进度
+     * @param jobId 任务ID
+     * @param userId 用户ID（校验归属）
+     * @return 入库任务（含当前阶段、各阶段进度）
+     */
+    IngestJob getIngestJob(String jobId, String userId);
+
     /**
      * 查询用户的所有文档
      * @param userId 用户ID
@@ -26,6 +52,15 @@ public interface DocumentService {
      */
     List<KbDocument> listDocuments(String userId);
 
+    /**
+     * 按创建时间倒序分页查询用户的文档（游标为上一页最后一条的 创建时间+ID）
+     * @param userId 用户ID
+     * @param cursor 上一页返回的游标（首页传null）
+     * @param limit 每页条数
+     * @return 当前页文档及下一页游标
+     */
+    CursorPage<KbDocument> pageDocuments(String userId, String cursor, Integer limit);
+
     /**
      * 删除文档（同时删除分片和RAG索引）
      * @param docId 文档ID
@@ -41,4 +76,30 @@ public interface DocumentService {
      * @return 分片列表
      */
     List<KbDocumentChunk> listDocumentChunks(Long docId, String userId);
+
+    /**
+     * 按分片序号分页查询文档的分片（游标为上一页最后一个分片的序号）
+     * @param docId 文档ID
+     * @param userId 用户ID（校验归属）
+     * @param cursor 上一页返回的游标（首页传null）
+     * @param limit 每页条数
+     * @return 当前页分片及下一页游标
+     */
+    CursorPage<KbDocumentChunk> pageDocumentChunks(Long docId, String userId, String cursor, Integer limit);
+
+    /**
+     * 校验文档归属并返回文档主记录
+     * @param docId 文档ID
+     * @param userId 用户ID（校验归属）
+     * @return 文档主记录
+     */
+    KbDocument getDocument(Long docId, String userId);
+
+    /**
+     * 按分片序号流式遍历文档的全部分片（数据库游标逐行读取，内存占用与文档大小无关）
+     * @param docId 文档ID
+     * @param userId 用户ID（校验归属）
+     * @param consumer 分片处理回调（在数据库游标读取线程上逐个调用）
+     */
+    void streamDocumentChunks(Long docId, String userId, Consumer<KbDocumentChunk> consumer);
 }
@@ -0,0 +1,92 @@
+package org.example.woolcoat.service.document;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * 文档入库任务（异步上传用，包含任务基本信息、当前阶段、各阶段进度）
+ * 解析→分片→入库→索引 四个阶段流水线并行，进度分别计数
+ */
+@Data
+@NoArgsConstructor
+public class IngestJob implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 任务唯一ID（自动生成，UUID）
+     */
+    private String jobId = UUID.randomUUID().toString();
+    /**
+     * 文档ID（文档主记录入库后填充）
+     */
+    private Long docId;
+    /**
+     * 用户ID（文档归属）
+     */
+    private String userId;
+    /**
+     * 原始文件名
+     */
+    private String fileName;
+    /**
+     * 文件存储路径
+     */
+    private String filePath;
+    /**
+     * 文件后缀（md/txt/pdf）
+     */
+    private String suffix;
+    /**
+     * 当前阶段（对应IngestStageEnum）
+     */
+    private IngestStageEnum stage = IngestStageEnum.PENDING;
+    /**
+     * 已解析字符数（解析阶段进度）
+     */
+    private long parsedChars;
+    /**
+     * 已产生的分片数（分片阶段进度）
+     */
+    private int chunkedCount;
+    /**
+     * 已保存到数据库的分片数（入库阶段进度）
+     */
+    private int persistedCount;
+    /**
+     * 已写入索引的分片数（索引阶段进度）
+     */
+    private int indexedCount;
+    /**
+     * 替换文档时内容未变化、原样保留的旧分片数
+     */
+    private int keptCount;
+    /**
+     * 替换文档时删除的旧分片数
+     */
+    private int removedCount;
+    /**
+     * 与该用户已有分片内容相同或相近、共用已有索引条目的分片数（别名分片）
+     */
+    private int dedupedCount;
+    /**
+     * 是否重复上传（与该用户已有文档内容相同，直接返回已有文档，不再解析入库）
+     */
+    private boolean duplicate;
+    /**
+     * 失败原因（阶段为FAIL时非空）
+     */
+    private String failReason;
+    /**
+     * 创建时间
+     */
+    private Date createTime = new Date();
+    /**
+     * 更新时间（每次阶段/进度变化时刷新）
+     */
+    private Date updateTime = new Date();
+}
@@ -0,0 +1,23 @@
+package org.example.woolcoat.service.document;
+
+import lombok.Getter;
+
+/**
+ * 文档入库任务阶段枚举（异步上传用，标准化入库进度）
+ */
+@Getter
+public enum IngestStageEnum {
+    PENDING("排队中", 0),
+    PARSING("解析分片中", 1),
+    INDEXING("等待入库/索引完成", 2),
+    SUCCESS("入库成功", 3),
+    FAIL("入库失败", 4);
+
+    private final String name;
+    private final Integer code;
+
+    IngestStageEnum(String name, Integer code) {
+        this.name = name;
+        this.code = code;
+    }
+}
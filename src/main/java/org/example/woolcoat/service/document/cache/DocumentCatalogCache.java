@@ -0,0 +1,176 @@
+package org.example.woolcoat.service.document.cache;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.woolcoat.entity.KbDocument;
+import org.example.woolcoat.mapper.KbDocumentMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用户文档目录缓存（本地LRU，按用户ID缓存该用户的全部文档主记录）
+ * 文档列表、删除/替换/查看分片前的归属校验、重复上传检查都从目录读取，不再逐次查询MySQL。
+ * 上传、替换、删除文档后写路径调用 evict：清除本地条目，并通过Redis发布/订阅通知其他副本清除；
+ * 发布/订阅不保证送达，条目另有过期时间兜底（ttl-seconds 内最终一致）。
+ */
+@Slf4j
+@Component
+public class DocumentCatalogCache {
+
+    private static final String INVALIDATE_CHANNEL = "agent:document:catalog:invalidate";
+
+    private final KbDocumentMapper documentMapper;
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final boolean enabled;
+    private final long ttlMs;
+    private final Map<String, Entry> localCache;
+    // 失效序号：加载期间发生过失效时不回填（避免并发写入后回填旧目录）
+    private final AtomicLong invalidations = new AtomicLong();
+    private RedisMessageListenerContainer listenerContainer;
+
+    private record Entry(List<KbDocument> documents, long loadedAt) {
+    }
+
+    public DocumentCatalogCache(KbDocumentMapper documentMapper,
+                                RedisTemplate<String, Object> redisTemplate,
+                                @Value("${rag.document.catalog-cache.enabled:true}") boolean enabled,
+                                @Value("${rag.document.catalog-cache.local-size:10000}") int localSize,
+                                @Value("${rag.document.catalog-cache.ttl-seconds:300}") long ttlSeconds) {
+        this.documentMapper = documentMapper;
+        this.redisTemplate = redisTemplate;
+        this.enabled = enabled;
+        this.ttlMs = ttlSeconds * 1000;
+        // accessOrder=true：按访问顺序淘汰最久未使用的用户
+        this.localCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > localSize;
+            }
+        };
+    }
+
+    /**
+     * 订阅其他副本的失效通知（Redis不可用时只使用本地失效 + 过期时间）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribe() {
+        RedisConnectionFactory connectionFactory = redisTemplate.getConnectionFactory();
+        if (!enabled || connectionFactory == null) {
+            return;
+        }
+        try {
+            RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+            container.setConnectionFactory(connectionFactory);
+            container.addMessageListener((message, pattern) -> {
+                Object userId = redisTemplate.getValueSerializer().deserialize(message.getBody());
+                if (userId != null) {
+                    evictLocal(userId.toString());
+                }
+            }, new ChannelTopic(INVALIDATE_CHANNEL));
+            container.afterPropertiesSet();
+            container.start();
+            listenerContainer = container;
+            log.info("文档目录缓存已订阅失效通知：channel={}", INVALIDATE_CHANNEL);
+        } catch (Exception e) {
+            log.warn("文档目录缓存订阅失效通知失败（仅本地失效，依赖过期时间同步其他副本）：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 用户的全部文档（按创建时间倒序，只读列表）
+     */
+    public List<KbDocument> getDocuments(String userId) {
+        if (!enabled) {
+            return loadDocuments(userId);
+        }
+        long now = System.currentTimeMillis();
+        synchronized (localCache) {
+            Entry entry = localCache.get(userId);
+            if (entry != null && now - entry.loadedAt() < ttlMs) {
+                return entry.documents();
+            }
+        }
+        long seq = invalidations.get();
+        List<KbDocument> documents = loadDocuments(userId);
+        synchronized (localCache) {
+            if (invalidations.get() == seq) {
+                localCache.put(userId, new Entry(documents, now));
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * 用户名下的指定文档（不存在或不属于该用户时返回null）
+     */
+    public KbDocument findOwned(String userId, Long docId) {
+        for (KbDocument document : getDocuments(userId)) {
+            if (document.getId().equals(docId)) {
+                return document;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 用户名下内容哈希相同的最早文档（无则返回null）
+     */
+    public KbDocument findByContentHash(String userId, String contentHash) {
+        KbDocument found = null;
+        for (KbDocument document : getDocuments(userId)) {
+            if (contentHash.equals(document.getContentHash()) && (found == null || document.getId() < found.getId())) {
+                found = document;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 用户文档变更后调用（写入MySQL之后）：清除本地条目并通知其他副本
+     */
+    public void evict(String userId) {
+        if (!enabled) {
+            return;
+        }
+        evictLocal(userId);
+        try {
+            redisTemplate.convertAndSend(INVALIDATE_CHANNEL, userId);
+        } catch (Exception e) {
+            log.warn("文档目录缓存失效通知发布失败：userId={}，{}", userId, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void close() throws Exception {
+        if (listenerContainer != null) {
+            listenerContainer.destroy();
+        }
+    }
+
+    private void evictLocal(String userId) {
+        synchronized (localCache) {
+            invalidations.incrementAndGet();
+            localCache.remove(userId);
+        }
+    }
+
+    private List<KbDocument> loadDocuments(String userId) {
+        LambdaQueryWrapper<KbDocument> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(KbDocument::getUserId, userId)
+                .orderByDesc(KbDocument::getCreateTime);
+        List<KbDocument> documents = documentMapper.selectList(wrapper);
+        return documents == null ? List.of() : List.copyOf(documents);
+    }
+}
@@ -0,0 +1,311 @@
+package org.example.woolcoat.service.document.dedup;
+
+import cn.hutool.crypto.SecureUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.example.woolcoat.entity.KbDocumentChunk;
+import org.example.woolcoat.mapper.KbDocumentChunkMapper;
+import org.example.woolcoat.service.rag.RagSearchService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分片去重：同一用户内容相同或相近的分片只索引一个规范分片，其余分片记录为别名（canonical_chunk_id 指向规范分片），共用其索引条目。
+ * 1. 完全相同（SHA-256相同）：存在同用户、同哈希且ID更小的分片时为重复分片，别名指向该分片的规范分片。
+ *    布隆过滤器作为快速路径：过滤器判定该用户从未出现过此哈希时跳过查库，只有可能重复时才查询数据库确认。
+ * 2. 近似重复（SimHash汉明距离不超过 near.max-distance）：在已索引分片的SimHash LSH索引中查找最近的分片作为规范分片。
+ * 布隆过滤器与LSH索引在启动后从数据库加载，加载完成前完全重复一律查库确认、不做近似去重（不会漏索引）。
+ * 文档删除后调用 reindexSurvivors，把指向被删分片的别名及相同内容的剩余分片重新去重并写入索引。
+ */
+@Slf4j
+@Component
+public class ChunkDeduplicator {
+
+    private static final int QUERY_BATCH_SIZE = 500;
+
+    private final KbDocumentChunkMapper documentChunkMapper;
+    private final RagSearchService ragSearchService;
+    private final TransactionTemplate readOnlyTransaction;
+    private final boolean enabled;
+    private final BloomFilter bloomFilter;
+    private final boolean nearEnabled;
+    private final int shingleSize;
+    private final int nearMinLength;
+    private final SimHashIndex simHashIndex;
+    private volatile boolean loaded;
+    private final boolean replica;
+
+    public ChunkDeduplicator(KbDocumentChunkMapper documentChunkMapper,
+                             RagSearchService ragSearchService,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${rag.dedup.enabled:true}") boolean enabled,
+                             @Value("${rag.dedup.bloom-expected-chunks:1000000}") long bloomExpectedChunks,
+                             @Value("${rag.dedup.bloom-fpp:0.01}") double bloomFpp,
+                             @Value("${rag.dedup.near.enabled:true}") boolean nearEnabled,
+                             @Value("${rag.dedup.near.max-distance:6}") int nearMaxDistance,
+                             @Value("${rag.dedup.near.shingle-size:3}") int shingleSize,
+                             @Value("${rag.dedup.near.min-length:100}") int nearMinLength,
+                             @Value("${rag.replication.role:standalone}") String replicationRole) {
+        this.documentChunkMapper = documentChunkMapper;
+        this.ragSearchService = ragSearchService;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.enabled = enabled;
+        this.bloomFilter = enabled ? new BloomFilter(bloomExpectedChunks, bloomFpp) : null;
+        this.nearEnabled = enabled && nearEnabled;
+        this.shingleSize = shingleSize;
+        this.nearMinLength = nearMinLength;
+        this.simHashIndex = this.nearEnabled ? new SimHashIndex(nearMaxDistance) : null;
+        this.replica = "follower".equalsIgnoreCase(replicationRole);
+    }
+
+    /**
+     * 内容哈希（SHA-256十六进制），文档与分片去重共用
+     */
+    public static String hash(String content) {
+        return SecureUtil.sha256(content);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 计算分片的内容哈希与SimHash签名（分片入库前调用；内容过短的分片不做近似去重）
+     */
+    public void sign(KbDocumentChunk chunk) {
+        if (!enabled) {
+            return;
+        }
+        chunk.setContentHash(hash(chunk.getChunkContent()));
+        if (nearEnabled && chunk.getChunkContent().length() >= nearMinLength) {
+            chunk.setSimHash(SimHash.compute(chunk.getChunkContent(), shingleSize));
+        }
+    }
+
+    /**
+     * 应用启动完成后在后台从数据库加载已有分片哈希（布隆过滤器）与规范分片签名（LSH索引）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled || replica) {
+            return; // 只读副本不入库
+        }
+        Thread thread = new Thread(this::load, "chunk-dedup-load");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 过滤出一批已入库分片（已回填ID）中需要写入索引的规范分片，重复/近似重复分片记录别名后跳过
+     */
+    public List<KbDocumentChunk> filterFirstOccurrences(List<KbDocumentChunk> batch) {
+        if (!enabled || batch.isEmpty()) {
+            return batch;
+        }
+        Map<Long, List<Long>> aliases = new LinkedHashMap<>(); // 规范分片ID → 别名分片ID
+        Set<Long> duplicateIds = findExactDuplicates(batch, aliases);
+        boolean ready = loaded;
+        List<KbDocumentChunk> result = new ArrayList<>(batch.size() - duplicateIds.size());
+        for (KbDocumentChunk chunk : batch) {
+            if (duplicateIds.contains(chunk.getId())) {
+                continue;
+            }
+            if (nearEnabled && chunk.getSimHash() != null && !simHashIndex.contains(chunk.getId())) {
+                Long canonical = ready ? simHashIndex.findNearest(chunk.getUserId(), chunk.getSimHash()) : null;
+                if (canonical != null) {
+                    aliases.computeIfAbsent(canonical, k -> new ArrayList<>()).add(chunk.getId());
+                    continue;
+                }
+                simHashIndex.add(chunk.getId(), chunk.getUserId(), chunk.getSimHash());
+            }
+            result.add(chunk);
+        }
+        aliases.forEach(this::recordAliases);
+        return result;
+    }
+
+    /**
+     * 文档下全部分片的ID与内容哈希（删除文档前读取，删除后用于补写共用索引条目的分片）
+     */
+    public List<KbDocumentChunk> collectChunks(Long docId) {
+        if (!enabled) {
+            return List.of();
+        }
+        LambdaQueryWrapper<KbDocumentChunk> wrapper = new LambdaQueryWrapper<>();
+        wrapper.select(KbDocumentChunk::getId, KbDocumentChunk::getContentHash)
+                .eq(KbDocumentChunk::getDocumentId, docId);
+        return documentChunkMapper.selectList(wrapper);
+    }
+
+    /**
+     * 文档删除后补写索引：指向被删分片的别名、以及与被删分片内容相同的剩余分片中ID最小的一个，
+     * 清除别名后重新去重，规范分片写入索引（按分片ID覆盖写入，已在索引中时无副作用）
+     * @return 补写的分片数
+     */
+    public int reindexSurvivors(String userId, List<KbDocumentChunk> removed) {
+        if (!enabled || removed.isEmpty()) {
+            return 0;
+        }
+        Set<Long> removedIds = new HashSet<>();
+        Set<String> hashes = new HashSet<>();
+        for (KbDocumentChunk chunk : removed) {
+            removedIds.add(chunk.getId());
+            if (chunk.getContentHash() != null) {
+                hashes.add(chunk.getContentHash());
+            }
+            if (nearEnabled) {
+                simHashIndex.remove(chunk.getId());
+            }
+        }
+
+        // 1. 别名指向被删分片的分片：清除别名
+        List<Long> aliasIds = new ArrayList<>();
+        List<Long> removedIdList = new ArrayList<>(removedIds);
+        for (int from = 0; from < removedIdList.size(); from += QUERY_BATCH_SIZE) {
+            LambdaQueryWrapper<KbDocumentChunk> wrapper = new LambdaQueryWrapper<>();
+            wrapper.select(KbDocumentChunk::getId)
+                    .in(KbDocumentChunk::getCanonicalChunkId, removedIdList.subList(from, Math.min(from + QUERY_BATCH_SIZE, removedIdList.size())));
+            documentChunkMapper.selectList(wrapper).forEach(chunk -> aliasIds.add(chunk.getId()));
+        }
+        recordAliases(null, aliasIds);
+
+        // 2. 加上与被删分片内容相同的剩余分片中ID最小的一个，按ID顺序重新去重
+        Set<Long> survivorIds = new HashSet<>(aliasIds);
+        findMinChunks(userId, hashes, Long.MAX_VALUE).values().forEach(chunk -> survivorIds.add(chunk.getId()));
+        if (survivorIds.isEmpty()) {
+            return 0;
+        }
+        List<Long> idList = new ArrayList<>(survivorIds);
+        List<KbDocumentChunk> survivors = new ArrayList<>(idList.size());
+        for (int from = 0; from < idList.size(); from += QUERY_BATCH_SIZE) {
+            survivors.addAll(documentChunkMapper.selectBatchIds(idList.subList(from, Math.min(from + QUERY_BATCH_SIZE, idList.size()))));
+        }
+        survivors.sort(Comparator.comparing(KbDocumentChunk::getId));
+        int indexed = 0;
+        for (int from = 0; from < survivors.size(); from += QUERY_BATCH_SIZE) {
+            List<KbDocumentChunk> toIndex = filterFirstOccurrences(survivors.subList(from, Math.min(from + QUERY_BATCH_SIZE, survivors.size())));
+            ragSearchService.addToIndex(toIndex);
+            indexed += toIndex.size();
+        }
+        ragSearchService.commitIndex();
+        log.info("删除文档后补写共用索引的分片：userId={}，待重新去重分片数={}，写入索引分片数={}", userId, survivors.size(), indexed);
+        return indexed;
+    }
+
+    // 完全重复检测：布隆过滤器快速路径 + 查库确认，别名写入 aliases
+    private Set<Long> findExactDuplicates(List<KbDocumentChunk> batch, Map<Long, List<Long>> aliases) {
+        boolean ready = loaded;
+        Map<String, List<KbDocumentChunk>> maybeDuplicates = new HashMap<>(); // 按用户分组
+        for (KbDocumentChunk chunk : batch) {
+            if (chunk.getContentHash() == null) {
+                continue;
+            }
+            String key = bloomKey(chunk.getUserId(), chunk.getContentHash());
+            if (!ready || bloomFilter.mightContain(key)) {
+                maybeDuplicates.computeIfAbsent(chunk.getUserId(), k -> new ArrayList<>()).add(chunk);
+            }
+            bloomFilter.put(key);
+        }
+        Set<Long> duplicateIds = new HashSet<>();
+        for (Map.Entry<String, List<KbDocumentChunk>> entry : maybeDuplicates.entrySet()) {
+            Set<String> hashes = new HashSet<>();
+            long maxId = 0;
+            for (KbDocumentChunk chunk : entry.getValue()) {
+                hashes.add(chunk.getContentHash());
+                maxId = Math.max(maxId, chunk.getId());
+            }
+            // 同用户同哈希的最小ID分片ID小于当前分片ID时为重复分片，别名指向最小ID分片的规范分片
+            Map<String, KbDocumentChunk> minChunks = findMinChunks(entry.getKey(), hashes, maxId);
+            for (KbDocumentChunk chunk : entry.getValue()) {
+                KbDocumentChunk min = minChunks.get(chunk.getContentHash());
+                if (min != null && min.getId() < chunk.getId()) {
+                    Long canonical = min.getCanonicalChunkId() != null ? min.getCanonicalChunkId() : min.getId();
+                    aliases.computeIfAbsent(canonical, k -> new ArrayList<>()).add(chunk.getId());
+                    duplicateIds.add(chunk.getId());
+                }
+            }
+        }
+        return duplicateIds;
+    }
+
+    // 同用户各哈希ID最小的分片（只看ID不超过 maxId 的分片）
+    private Map<String, KbDocumentChunk> findMinChunks(String userId, Collection<String> hashes, long maxId) {
+        Map<String, KbDocumentChunk> minChunks = new HashMap<>();
+        List<String> hashList = new ArrayList<>(hashes);
+        for (int from = 0; from < hashList.size(); from += QUERY_BATCH_SIZE) {
+            LambdaQueryWrapper<KbDocumentChunk> wrapper = new LambdaQueryWrapper<>();
+            wrapper.select(KbDocumentChunk::getId, KbDocumentChunk::getContentHash, KbDocumentChunk::getCanonicalChunkId)
+                    .eq(KbDocumentChunk::getUserId, userId)
+                    .in(KbDocumentChunk::getContentHash, hashList.subList(from, Math.min(from + QUERY_BATCH_SIZE, hashList.size())))
+                    .le(KbDocumentChunk::getId, maxId);
+            for (KbDocumentChunk chunk : documentChunkMapper.selectList(wrapper)) {
+                minChunks.merge(chunk.getContentHash(), chunk, (a, b) -> a.getId() <= b.getId() ? a : b);
+            }
+        }
+        return minChunks;
+    }
+
+    // 批量记录别名（canonicalId 为null时清除别名）
+    private void recordAliases(Long canonicalId, List<Long> aliasIds) {
+        for (int from = 0; from < aliasIds.size(); from += QUERY_BATCH_SIZE) {
+            LambdaUpdateWrapper<KbDocumentChunk> wrapper = new LambdaUpdateWrapper<>();
+            wrapper.set(KbDocumentChunk::getCanonicalChunkId, canonicalId)
+                    .in(KbDocumentChunk::getId, aliasIds.subList(from, Math.min(from + QUERY_BATCH_SIZE, aliasIds.size())));
+            documentChunkMapper.update(null, wrapper);
+        }
+    }
+
+    // 流式读取分片哈希加入布隆过滤器、规范分片签名加入LSH索引，完成后开启快速路径与近似去重
+    private void load() {
+        long start = System.currentTimeMillis();
+        AtomicLong count = new AtomicLong();
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Cursor<KbDocumentChunk> cursor = documentChunkMapper.scanDedupSignatures()) {
+                    for (KbDocumentChunk chunk : cursor) {
+                        if (chunk.getContentHash() != null) {
+                            bloomFilter.put(bloomKey(chunk.getUserId(), chunk.getContentHash()));
+                        }
+                        if (nearEnabled && chunk.getSimHash() != null && chunk.getCanonicalChunkId() == null) {
+                            simHashIndex.add(chunk.getId(), chunk.getUserId(), chunk.getSimHash());
+                        }
+                        count.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            loaded = true;
+            log.info("分片去重索引加载完成：分片数={}，LSH规范分片数={}，布隆过滤器位数={}，哈希函数数={}，耗时={}ms",
+                    count.get(), nearEnabled ? simHashIndex.size() : 0, bloomFilter.getBitCount(), bloomFilter.getHashCount(),
+                    System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            // 加载失败时完全重复一律查库确认、不做近似去重，不影响索引完整性
+            log.warn("分片去重索引加载失败，完全重复改为全部查库确认、近似去重关闭：{}", e.getMessage());
+        }
+    }
+
+    private static String bloomKey(String userId, String contentHash) {
+        return userId + ":" + contentHash;
+    }
+}
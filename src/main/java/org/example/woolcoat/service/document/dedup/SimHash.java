@@ -0,0 +1,65 @@
+package org.example.woolcoat.service.document.dedup;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 64位SimHash（按字符n-gram取特征，适用于中英文混排文本）
+ * 内容相近的文本签名的汉明距离小，可用于近似重复检测。
+ */
+public final class SimHash {
+
+    private SimHash() {
+    }
+
+    /**
+     * 计算文本签名（忽略空白、英文统一小写）
+     * @param text 文本
+     * @param shingleSize 字符n-gram长度
+     */
+    public static long compute(String text, int shingleSize) {
+        String normalized = normalize(text);
+        int n = Math.max(1, shingleSize);
+        int[] weights = new int[64];
+        if (normalized.length() <= n) {
+            addFeature(weights, normalized);
+        } else {
+            for (int i = 0; i + n <= normalized.length(); i++) {
+                addFeature(weights, normalized.substring(i, i + n));
+            }
+        }
+        long signature = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                signature |= 1L << bit;
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * 两个签名的汉明距离
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static void addFeature(int[] weights, String feature) {
+        long hash = MurmurHash.hash64(feature.getBytes(StandardCharsets.UTF_8));
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += ((hash >>> bit) & 1L) == 1L ? 1 : -1;
+        }
+    }
+
+    private static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+}
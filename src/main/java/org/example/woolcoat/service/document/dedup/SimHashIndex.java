@@ -0,0 +1,108 @@
+package org.example.woolcoat.service.document.dedup;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SimHash的LSH索引（按用户隔离）：64位签名切成 maxDistance+1 段，
+ * 汉明距离不超过 maxDistance 的两个签名至少有一段完全相同（抽屉原理），
+ * 只需在各段的桶里取候选，再按完整汉明距离确认，不用和全部签名比较。
+ */
+public class SimHashIndex {
+
+    private final int maxDistance;
+    private final int bands;
+    private final int bandBits;
+    // 桶：userId|段序号|段值 → 分片ID集合
+    private final Map<String, Set<Long>> buckets = new ConcurrentHashMap<>();
+    // 分片ID → 签名（删除、确认距离时使用）
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    private record Entry(String userId, long signature) {
+    }
+
+    /**
+     * @param maxDistance 视为近似重复的最大汉明距离（0~63）
+     */
+    public SimHashIndex(int maxDistance) {
+        this.maxDistance = Math.min(Math.max(maxDistance, 0), 63);
+        this.bands = this.maxDistance + 1;
+        this.bandBits = (64 + bands - 1) / bands;
+    }
+
+    /**
+     * 加入分片签名
+     */
+    public void add(long chunkId, String userId, long signature) {
+        entries.put(chunkId, new Entry(userId, signature));
+        for (int band = 0; band < bands; band++) {
+            buckets.compute(bucketKey(userId, band, signature), (k, bucket) -> {
+                Set<Long> ids = bucket != null ? bucket : ConcurrentHashMap.newKeySet();
+                ids.add(chunkId);
+                return ids;
+            });
+        }
+    }
+
+    /**
+     * 查找同一用户下汉明距离不超过 maxDistance 的分片（取距离最小者，相同距离取ID最小者）
+     * @return 分片ID，不存在时返回null
+     */
+    public Long findNearest(String userId, long signature) {
+        Long best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int band = 0; band < bands; band++) {
+            Set<Long> bucket = buckets.get(bucketKey(userId, band, signature));
+            if (bucket == null) {
+                continue;
+            }
+            for (Long candidate : bucket) {
+                Entry entry = entries.get(candidate);
+                if (entry == null) {
+                    continue;
+                }
+                int distance = SimHash.distance(signature, entry.signature());
+                if (distance <= maxDistance && (distance < bestDistance || distance == bestDistance && candidate < best)) {
+                    best = candidate;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 移除分片签名
+     */
+    public void remove(long chunkId) {
+        Entry entry = entries.remove(chunkId);
+        if (entry == null) {
+            return;
+        }
+        for (int band = 0; band < bands; band++) {
+            buckets.computeIfPresent(bucketKey(entry.userId(), band, entry.signature()), (k, bucket) -> {
+                bucket.remove(chunkId);
+                return bucket.isEmpty() ? null : bucket; // 空桶移除（与 add 在同一个Key上互斥）
+            });
+        }
+    }
+
+    /**
+     * 分片是否已在索引中（作为规范分片）
+     */
+    public boolean contains(long chunkId) {
+        return entries.containsKey(chunkId);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private String bucketKey(String userId, int band, long signature) {
+        int shift = band * bandBits;
+        int width = Math.min(bandBits, 64 - shift);
+        long value = (signature >>> shift) & (width == 64 ? -1L : (1L << width) - 1);
+        return userId + "|" + band + "|" + value;
+    }
+}
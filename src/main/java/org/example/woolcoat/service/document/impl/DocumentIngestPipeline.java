@@ -0,0 +1,523 @@
+package org.example.woolcoat.service.document.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.example.woolcoat.entity.KbDocument;
+import org.example.woolcoat.entity.KbDocumentChunk;
+import org.example.woolcoat.exceptions.BusinessException;
+import org.example.woolcoat.mapper.KbDocumentChunkMapper;
+import org.example.woolcoat.mapper.KbDocumentMapper;
+import org.example.woolcoat.service.document.IngestJob;
+import org.example.woolcoat.service.document.cache.DocumentCatalogCache;
+import org.example.woolcoat.service.document.IngestStageEnum;
+import org.example.woolcoat.service.document.dedup.ChunkDeduplicator;
+import org.example.woolcoat.service.rag.RagSearchService;
+import org.example.woolcoat.utils.ChunkUtils;
+import org.example.woolcoat.utils.FileUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 文档入库流水线（解析→分片→入库→索引，各阶段运行在独立的有界线程池上）
+ * 解析/分片线程每凑满一批分片就交给入库线程池，入库完成后再交给索引线程池；
+ * 每个任务同时在途的批次数受信号量限制，下游变慢时上游分片自动阻塞（背压），内存有界。
+ * 替换文档时按分片内容哈希与旧版本比对，只入库/索引新增的分片、删除已不存在的分片，未变化的分片保持不动。
+ */
+@Slf4j
+@Component
+public class DocumentIngestPipeline {
+
+    private final KbDocumentMapper documentMapper;
+    private final KbDocumentChunkMapper documentChunkMapper;
+    private final RagSearchService ragSearchService;
+    private final ChunkDeduplicator chunkDeduplicator;
+    private final DocumentCatalogCache documentCatalogCache;
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final Executor ingestParseExecutor;
+    private final Executor ingestPersistExecutor;
+    private final Executor ingestIndexExecutor;
+    private final Executor pdfExtractExecutor;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${rag.document.chunk-size:500}")
+    private Integer chunkSize;
+    @Value("${rag.document.chunk-overlap:50}")
+    private Integer chunkOverlap;
+    @Value("${rag.document.batch-size:100}")
+    private Integer batchSize;
+    @Value("${rag.document.insert-batch-size:100}")
+    private Integer insertBatchSize;
+    @Value("${rag.ingest.max-inflight-batches:4}")
+    private Integer maxInflightBatches;
+    @Value("${rag.document.pdf.pages-per-range:8}")
+    private Integer pdfPagesPerRange;
+    @Value("${rag.document.pdf.parallelism:4}")
+    private Integer pdfParallelism;
+    @Value("${rag.document.chunking:content-defined}")
+    private String chunking;
+
+    // 本节点在途任务（进度实时更新），同时写入Redis供其他副本查询
+    private final Map<String, IngestJob> runningJobs = new ConcurrentHashMap<>();
+    // 本节点正在替换的文档ID（同一文档同时只允许一个替换任务）
+    private final Set<Long> replacingDocs = ConcurrentHashMap.newKeySet();
+    // 任务状态过期时间（24 小时）
+    private static final long JOB_EXPIRE_TIME = 24 * 60 * 60;
+
+    public DocumentIngestPipeline(KbDocumentMapper documentMapper,
+                                  KbDocumentChunkMapper documentChunkMapper,
+                                  RagSearchService ragSearchService,
+                                  ChunkDeduplicator chunkDeduplicator,
+                                  DocumentCatalogCache documentCatalogCache,
+                                  RedisTemplate<String, Object> redisTemplate,
+                                  @Qualifier("ingestParseExecutor") Executor ingestParseExecutor,
+                                  @Qualifier("ingestPersistExecutor") Executor ingestPersistExecutor,
+                                  @Qualifier("ingestIndexExecutor") Executor ingestIndexExecutor,
+                                  @Qualifier("pdfExtractExecutor") Executor pdfExtractExecutor,
+                                  PlatformTransactionManager transactionManager) {
+        this.documentMapper = documentMapper;
+        this.documentChunkMapper = documentChunkMapper;
+        this.ragSearchService = ragSearchService;
+        this.chunkDeduplicator = chunkDeduplicator;
+        this.documentCatalogCache = documentCatalogCache;
+        this.redisTemplate = redisTemplate;
+        this.ingestParseExecutor = ingestParseExecutor;
+        this.ingestPersistExecutor = ingestPersistExecutor;
+        this.ingestIndexExecutor = ingestIndexExecutor;
+        this.pdfExtractExecutor = pdfExtractExecutor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 提交入库任务（文件已保存到磁盘、文档主记录已入库）
+     * @param job 入库任务（需已填充docId、userId）
+     * @param filePath 文件存储路径
+     * @param suffix 文件后缀
+     * @return 任务完成时结束的Future（同步上传可直接等待）
+     */
+    public CompletableFuture<IngestJob> submit(IngestJob job, String filePath, String suffix) {
+        runningJobs.put(job.getJobId(), job);
+        saveJob(job);
+        try {
+            return CompletableFuture.supplyAsync(() -> runJob(job, filePath, suffix), ingestParseExecutor);
+        } catch (RejectedExecutionException e) {
+            // 文档主记录、文件、PENDING任务已写入，全部撤销
+            cleanupDocument(job.getDocId(), job.getUserId());
+            rejectJob(job, filePath);
+            throw new BusinessException("当前上传任务过多，请稍后再试");
+        }
+    }
+
+    /**
+     * 提交替换文档任务（新版本文件已保存到磁盘，job.filePath/suffix 指向新文件）
+     * @param job 入库任务（需已填充docId、userId、filePath、suffix）
+     * @param updated 替换成功后写回的文档主记录（文件名、大小、内容哈希等）
+     * @return 任务完成时结束的Future
+     */
+    public CompletableFuture<IngestJob> submitReplace(IngestJob job, KbDocument updated) {
+        if (!replacingDocs.add(job.getDocId())) {
+            deleteFile(job.getFilePath());
+            throw new BusinessException("该文档正在替换中，请稍后再试：" + job.getDocId());
+        }
+        runningJobs.put(job.getJobId(), job);
+        saveJob(job);
+        try {
+            return CompletableFuture.supplyAsync(() -> runReplaceJob(job, updated), ingestParseExecutor);
+        } catch (RejectedExecutionException e) {
+            // 旧版本不受影响，只撤销新版本文件和PENDING任务
+            replacingDocs.remove(job.getDocId());
+            rejectJob(job, job.getFilePath());
+            throw new BusinessException("当前上传任务过多，请稍后再试");
+        }
+    }
+
+    /**
+     * 记录重复上传的任务（内容与已有文档相同，不解析入库，直接以成功状态写入Redis供查询）
+     */
+    public IngestJob completeDuplicate(IngestJob job) {
+        job.setDuplicate(true);
+        updateStage(job, IngestStageEnum.SUCCESS);
+        return job;
+    }
+
+    /**
+     * 查询入库任务（优先本节点在途任务，其次Redis）
+     */
+    public IngestJob getJob(String jobId) {
+        IngestJob job = runningJobs.get(jobId);
+        if (job != null) {
+            return job;
+        }
+        Object cached = redisTemplate.opsForValue().get(buildJobRedisKey(jobId));
+        return cached instanceof IngestJob ? (IngestJob) cached : null;
+    }
+
+    /**
+     * 私有方法：执行入库任务（运行在解析线程池，本线程负责解析+分片，入库/索引交给下游线程池）
+     */
+    private IngestJob runJob(IngestJob job, String filePath, String suffix) {
+        Long docId = job.getDocId();
+        Semaphore inflight = new Semaphore(maxInflightBatches);
+        List<CompletableFuture<Void>> batchFutures = new ArrayList<>();
+        try {
+            updateStage(job, IngestStageEnum.PARSING);
+
+            // 1. 解析+分片：每凑满 batchSize 个分片提交一次下游
+            List<KbDocumentChunk> chunkBuffer = new ArrayList<>(batchSize);
+            AtomicInteger chunkIndex = new AtomicInteger(1); // 分片序号从1开始
+            AtomicBoolean firstChunk = new AtomicBoolean(true);
+            try (Reader reader = openReader(filePath, suffix)) {
+                split(reader, chunkContent -> {
+                    // 解析进度：首个分片全部计入，之后每个分片扣除与上一分片重叠的部分
+                    int newChars = firstChunk.getAndSet(false) ? chunkContent.length() : chunkContent.length() - chunkOverlap;
+                    synchronized (job) {
+                        job.setParsedChars(job.getParsedChars() + newChars);
+                    }
+                    if (!StringUtils.hasText(chunkContent)) {
+                        return; // 跳过空白分片
+                    }
+                    KbDocumentChunk chunk = new KbDocumentChunk();
+                    chunk.setDocumentId(docId);
+                    chunk.setChunkContent(chunkContent);
+                    chunk.setChunkIndex(chunkIndex.getAndIncrement());
+                    chunkDeduplicator.sign(chunk); // 内容哈希 + SimHash签名
+                    chunk.setUserId(job.getUserId()); // 关键：关联用户ID
+                    chunk.setCreateTime(Date.from(Instant.now()));
+                    chunkBuffer.add(chunk);
+                    if (chunkBuffer.size() >= batchSize) {
+                        // 下游已有批次失败时提前终止，不再继续分片
+                        batchFutures.stream().filter(CompletableFuture::isCompletedExceptionally).findFirst().ifPresent(CompletableFuture::join);
+                        batchFutures.add(submitBatch(job, new ArrayList<>(chunkBuffer), inflight));
+                        chunkBuffer.clear();
+                    }
+                });
+            }
+            if (!chunkBuffer.isEmpty()) {
+                batchFutures.add(submitBatch(job, new ArrayList<>(chunkBuffer), inflight));
+            }
+
+            // 2. 等待所有批次入库、索引完成
+            updateStage(job, IngestStageEnum.INDEXING);
+            CompletableFuture.allOf(batchFutures.toArray(new CompletableFuture[0])).join();
+            if (job.getChunkedCount() == 0) {
+                throw new BusinessException("文件内容为空，无法分片");
+            }
+
+            // 3. 所有分片写入完成后统一提交RAG索引（一个文档只提交一次）
+            ragSearchService.commitIndex();
+            updateStage(job, IngestStageEnum.SUCCESS);
+            log.info("文档入库完成：jobId={}，文档ID={}，分片数={}，重复分片数={}，分片大小={}，重叠={}",
+                    job.getJobId(), docId, job.getChunkedCount(), job.getDedupedCount(), chunkSize, chunkOverlap);
+            return job;
+        } catch (Exception e) {
+            // 等待已提交的批次结束，再清理半成品数据，避免残留半个文档
+            batchFutures.forEach(f -> f.exceptionally(ex -> null).join());
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            log.error("文档入库失败：jobId={}，文档ID={}", job.getJobId(), docId, cause);
+            cleanupDocument(docId, job.getUserId());
+            synchronized (job) {
+                job.setFailReason(cause.getMessage());
+            }
+            updateStage(job, IngestStageEnum.FAIL);
+            throw new BusinessException("文档入库失败：" + cause.getMessage());
+        } finally {
+            runningJobs.remove(job.getJobId());
+        }
+    }
+
+    /**
+     * 私有方法：执行替换文档任务（运行在解析线程池）
+     * 1. 旧分片按内容哈希分组，新版本解析分片后逐个匹配：匹配到的旧分片保留（只在序号变化时更新序号），其余为新增分片；
+     * 2. 一个事务内写入新增分片、更新变化的序号、删除未匹配的旧分片、更新文档主记录；
+     * 3. 索引只删除被删分片、写入新增分片（去重后）和序号变化的规范分片（已有向量不重新计算）。
+     */
+    private IngestJob runReplaceJob(IngestJob job, KbDocument updated) {
+        Long docId = job.getDocId();
+        try {
+            updateStage(job, IngestStageEnum.PARSING);
+
+            // 1. 旧分片按内容哈希分组（同一内容可能出现多次，按序号顺序匹配）
+            LambdaQueryWrapper<KbDocumentChunk> wrapper = new LambdaQueryWrapper<>();
+            wrapper.eq(KbDocumentChunk::getDocumentId, docId)
+                    .orderByAsc(KbDocumentChunk::getChunkIndex);
+            Map<String, Deque<KbDocumentChunk>> oldByHash = new HashMap<>();
+            for (KbDocumentChunk old : documentChunkMapper.selectList(wrapper)) {
+                String hash = old.getContentHash() != null ? old.getContentHash() : ChunkDeduplicator.hash(old.getChunkContent());
+                oldByHash.computeIfAbsent(hash, k -> new ArrayDeque<>()).add(old);
+            }
+
+            // 2. 解析+分片新版本，与旧分片比对
+            List<KbDocumentChunk> addedChunks = new ArrayList<>();
+            List<KbDocumentChunk> movedChunks = new ArrayList<>();
+            AtomicInteger chunkIndex = new AtomicInteger(1);
+            AtomicBoolean firstChunk = new AtomicBoolean(true);
+            try (Reader reader = openReader(job.getFilePath(), job.getSuffix())) {
+                split(reader, chunkContent -> {
+                    int newChars = firstChunk.getAndSet(false) ? chunkContent.length() : chunkContent.length() - chunkOverlap;
+                    synchronized (job) {
+                        job.setParsedChars(job.getParsedChars() + newChars);
+                    }
+                    if (!StringUtils.hasText(chunkContent)) {
+                        return;
+                    }
+                    int index = chunkIndex.getAndIncrement();
+                    Deque<KbDocumentChunk> same = oldByHash.get(ChunkDeduplicator.hash(chunkContent));
+                    KbDocumentChunk kept = same == null ? null : same.pollFirst();
+                    if (kept != null) {
+                        if (!Objects.equals(kept.getChunkIndex(), index)) {
+                            kept.setChunkIndex(index);
+                            movedChunks.add(kept);
+                        }
+                        synchronized (job) {
+                            job.setKeptCount(job.getKeptCount() + 1);
+                        }
+                        return;
+                    }
+                    KbDocumentChunk chunk = new KbDocumentChunk();
+                    chunk.setDocumentId(docId);
+                    chunk.setChunkContent(chunkContent);
+                    chunk.setChunkIndex(index);
+                    chunk.setUserId(job.getUserId());
+                    chunk.setCreateTime(Date.from(Instant.now()));
+                    chunkDeduplicator.sign(chunk);
+                    addedChunks.add(chunk);
+                });
+            }
+            List<KbDocumentChunk> removedChunks = new ArrayList<>();
+            oldByHash.values().forEach(removedChunks::addAll);
+            List<Long> removedIds = removedChunks.stream().map(KbDocumentChunk::getId).toList();
+            synchronized (job) {
+                job.setChunkedCount(job.getKeptCount() + addedChunks.size());
+                job.setRemovedCount(removedChunks.size());
+            }
+            if (job.getChunkedCount() == 0) {
+                throw new BusinessException("文件内容为空，无法分片");
+            }
+
+            // 3. 数据库：新增分片入库、更新变化的序号、删除未匹配的旧分片、更新文档主记录（一个事务）
+            updateStage(job, IngestStageEnum.INDEXING);
+            transactionTemplate.executeWithoutResult(status -> {
+                for (int from = 0; from < addedChunks.size(); from += batchSize) {
+                    persistChunks(addedChunks.subList(from, Math.min(from + batchSize, addedChunks.size())));
+                }
+                for (KbDocumentChunk moved : movedChunks) {
+                    LambdaUpdateWrapper<KbDocumentChunk> update = new LambdaUpdateWrapper<>();
+                    update.set(KbDocumentChunk::getChunkIndex, moved.getChunkIndex())
+                            .eq(KbDocumentChunk::getId, moved.getId());
+                    documentChunkMapper.update(null, update);
+                }
+                if (!removedIds.isEmpty()) {
+                    documentChunkMapper.deleteBatchIds(removedIds);
+                }
+                // 替换期间文档已被删除时回滚，避免留下无主分片；更新时间取提交时刻，索引对账按更新时间找出替换过的文档
+                updated.setUpdateTime(new Date());
+                if (documentMapper.updateById(updated) == 0) {
+                    throw new BusinessException("文档不存在或已被删除：" + docId);
+                }
+            });
+            documentCatalogCache.evict(job.getUserId());
+            synchronized (job) {
+                job.setPersistedCount(addedChunks.size());
+            }
+            saveJob(job);
+
+            // 4. 索引：删除被删分片（并补写与其共用索引条目的别名），写入新增分片与序号变化的规范分片
+            ragSearchService.deleteChunks(job.getUserId(), removedIds);
+            chunkDeduplicator.reindexSurvivors(job.getUserId(), removedChunks);
+            for (int from = 0; from < addedChunks.size(); from += batchSize) {
+                List<KbDocumentChunk> batch = addedChunks.subList(from, Math.min(from + batchSize, addedChunks.size()));
+                List<KbDocumentChunk> toIndex = chunkDeduplicator.filterFirstOccurrences(batch);
+                ragSearchService.addToIndex(toIndex);
+                synchronized (job) {
+                    job.setIndexedCount(job.getIndexedCount() + batch.size());
+                    job.setDedupedCount(job.getDedupedCount() + batch.size() - toIndex.size());
+                }
+            }
+            ragSearchService.addToIndex(movedChunks.stream().filter(chunk -> chunk.getCanonicalChunkId() == null).toList());
+            ragSearchService.commitIndex();
+            updateStage(job, IngestStageEnum.SUCCESS);
+            log.info("文档替换完成：jobId={}，文档ID={}，分片数={}，未变化={}，新增={}，删除={}，序号变化={}",
+                    job.getJobId(), docId, job.getChunkedCount(), job.getKeptCount(), addedChunks.size(),
+                    removedChunks.size(), movedChunks.size());
+            return job;
+        } catch (Exception e) {
+            // 数据库事务失败时旧版本保持不变；索引更新失败时以数据库为准，可通过重建索引修复
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            log.error("文档替换失败：jobId={}，文档ID={}", job.getJobId(), docId, cause);
+            synchronized (job) {
+                job.setFailReason(cause.getMessage());
+            }
+            updateStage(job, IngestStageEnum.FAIL);
+            throw new BusinessException("文档替换失败：" + cause.getMessage());
+        } finally {
+            runningJobs.remove(job.getJobId());
+            replacingDocs.remove(docId);
+        }
+    }
+
+    /**
+     * 私有方法：按配置的分片方式流式分片（content-defined：内容定义分片；fixed：固定窗口分片）
+     */
+    private void split(Reader reader, Consumer<String> onChunk) throws IOException {
+        if ("fixed".equalsIgnoreCase(chunking)) {
+            ChunkUtils.splitStream(reader, chunkSize, chunkOverlap, onChunk);
+        } else {
+            ChunkUtils.splitContentDefined(reader, chunkSize, chunkOverlap, onChunk);
+        }
+    }
+
+    /**
+     * 私有方法：打开文件字符流（PDF按页范围并行提取、按页序流式输出，其余格式按行流式读取）
+     */
+    private Reader openReader(String filePath, String suffix) {
+        if ("pdf".equalsIgnoreCase(suffix)) {
+            return FileUtils.openPdfReader(filePath, pdfPagesPerRange, pdfParallelism, pdfExtractExecutor);
+        }
+        return FileUtils.openContentReader(filePath, suffix);
+    }
+
+    /**
+     * 私有方法：提交一批分片到下游（入库线程池 → 索引线程池），在途批次数达到上限时阻塞
+     */
+    private CompletableFuture<Void> submitBatch(IngestJob job, List<KbDocumentChunk> batch, Semaphore inflight) {
+        try {
+            if (!inflight.tryAcquire(10, TimeUnit.MINUTES)) {
+                throw new BusinessException("等待入库/索引超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException("入库任务被中断");
+        }
+        synchronized (job) {
+            job.setChunkedCount(job.getChunkedCount() + batch.size());
+        }
+        return CompletableFuture
+                .runAsync(() -> {
+                    persistChunks(batch);
+                    synchronized (job) {
+                        job.setPersistedCount(job.getPersistedCount() + batch.size());
+                    }
+                    saveJob(job);
+                }, ingestPersistExecutor)
+                .thenRunAsync(() -> {
+                    // 同一用户已有相同/相近内容的分片时记录为别名、共用已有索引条目，只索引规范分片
+                    List<KbDocumentChunk> toIndex = chunkDeduplicator.filterFirstOccurrences(batch);
+                    ragSearchService.addToIndex(toIndex);
+                    synchronized (job) {
+                        job.setIndexedCount(job.getIndexedCount() + batch.size());
+                        job.setDedupedCount(job.getDedupedCount() + batch.size() - toIndex.size());
+                    }
+                    saveJob(job);
+                }, ingestIndexExecutor)
+                .whenComplete((v, ex) -> inflight.release());
+    }
+
+    /**
+     * 私有方法：按 insertBatchSize 分组多行批量插入分片，回填分片ID（构建索引需要）
+     */
+    private void persistChunks(List<KbDocumentChunk> batch) {
+        for (int from = 0; from < batch.size(); from += insertBatchSize) {
+            List<KbDocumentChunk> group = batch.subList(from, Math.min(from + insertBatchSize, batch.size()));
+            documentChunkMapper.insertBatch(group);
+        }
+        for (KbDocumentChunk chunk : batch) {
+            if (chunk.getId() == null) {
+                throw new BusinessException("分片批量入库失败：未回填分片ID，文档ID=" + chunk.getDocumentId());
+            }
+        }
+    }
+
+    /**
+     * 私有方法：入库失败时清理该文档已写入的索引、分片和主记录（并补写与其共用索引条目的其他分片）
+     */
+    private void cleanupDocument(Long docId, String userId) {
+        try {
+            List<KbDocumentChunk> removedChunks = chunkDeduplicator.collectChunks(docId);
+            ragSearchService.deleteIndex(docId);
+            LambdaQueryWrapper<KbDocumentChunk> chunkWrapper = new LambdaQueryWrapper<>();
+            chunkWrapper.eq(KbDocumentChunk::getDocumentId, docId);
+            documentChunkMapper.delete(chunkWrapper);
+            documentMapper.deleteById(docId);
+            documentCatalogCache.evict(userId);
+            chunkDeduplicator.reindexSurvivors(userId, removedChunks);
+        } catch (Exception e) {
+            log.warn("清理入库失败的文档数据异常：文档ID={}", docId, e);
+        }
+    }
+
+    /**
+     * 私有方法：线程池拒绝提交时撤销任务（删除已保存的文件，任务标记为失败）
+     */
+    private void rejectJob(IngestJob job, String filePath) {
+        runningJobs.remove(job.getJobId());
+        deleteFile(filePath);
+        synchronized (job) {
+            job.setFailReason("当前上传任务过多，请稍后再试");
+        }
+        updateStage(job, IngestStageEnum.FAIL);
+    }
+
+    private void deleteFile(String filePath) {
+        if (filePath == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(Path.of(filePath));
+        } catch (Exception e) {
+            log.warn("删除文档文件失败：path={}，原因={}", filePath, e.getMessage());
+        }
+    }
+
+    private void updateStage(IngestJob job, IngestStageEnum stage) {
+        synchronized (job) {
+            job.setStage(stage);
+        }
+        saveJob(job);
+    }
+
+    // 任务状态写入Redis（跨副本可查），失败不影响入库
+    private void saveJob(IngestJob job) {
+        try {
+            synchronized (job) {
+                job.setUpdateTime(new Date());
+                redisTemplate.opsForValue().set(buildJobRedisKey(job.getJobId()), job, JOB_EXPIRE_TIME, TimeUnit.SECONDS);
+            }
+        } catch (Exception e) {
+            log.warn("入库任务状态写入Redis失败：jobId={}，原因={}", job.getJobId(), e.getMessage());
+        }
+    }
+
+    private String buildJobRedisKey(String jobId) {
+        return "agent:ingest:job:" + jobId;
+    }
+}
@@ -1,6 +1,7 @@
 package org.example.woolcoat.service.document.impl;
 
 
+import cn.hutool.crypto.SecureUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -9,21 +10,31 @@ import org.example.woolcoat.entity.KbDocumentChunk;
 import org.example.woolcoat.exceptions.BusinessException;
 import org.example.woolcoat.mapper.KbDocumentChunkMapper;
 import org.example.woolcoat.mapper.KbDocumentMapper;
+import org.apache.ibatis.cursor.Cursor;
+import org.example.woolcoat.service.document.CursorPage;
 import org.example.woolcoat.service.document.DocumentService;
+import org.example.woolcoat.service.document.IngestJob;
+import org.example.woolcoat.service.document.cache.DocumentCatalogCache;
+import org.example.woolcoat.service.document.dedup.ChunkDeduplicator;
 import org.example.woolcoat.service.rag.RagSearchService;
 import org.example.woolcoat.utils.FileUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 /**
  * 知识库文档服务实现（完整，包含分片、RAG索引构建、用户隔离）
@@ -37,95 +48,261 @@ public class DocumentServiceImpl implements DocumentService {
     private final KbDocumentMapper documentMapper;
     private final KbDocumentChunkMapper documentChunkMapper;
     private final RagSearchService ragSearchService; // RAG索引服务
+    private final DocumentIngestPipeline documentIngestPipeline; // 文档入库流水线
+    private final ChunkDeduplicator chunkDeduplicator; // 内容去重（文档/分片哈希）
+    private final DocumentCatalogCache documentCatalogCache; // 用户文档目录缓存（列表、归属校验）
+    private final PlatformTransactionManager transactionManager; // 流式读取分片时持有连接
 
     // 配置项（从application.yml读取）
     @Value("${rag.document.allowed-suffix:md,txt,pdf}")
     private String allowedSuffix;
-    @Value("${rag.document.chunk-size:500}")
-    private Integer chunkSize;
-    @Value("${rag.document.chunk-overlap:50}")
-    private Integer chunkOverlap;
     @Value("${rag.document.storage-path:./rag-documents/}")
     private String storagePath;
+    @Value("${rag.replication.role:standalone}")
+    private String replicationRole;
+    @Value("${rag.document.page-size:20}")
+    private Integer defaultPageSize;
+    @Value("${rag.document.max-page-size:200}")
+    private Integer maxPageSize;
 
     @Override
     public String uploadDocument(MultipartFile file, String userId) {
-        // 1. 校验参数
-        if (file == null || file.isEmpty()) {
-            throw new BusinessException("上传的文件不能为空");
+        IngestJob job = prepareIngestJob(file, userId);
+        if (job.isDuplicate()) {
+            return String.format("文档已存在（内容与已上传文档相同），未重复入库！文档ID：%d", job.getDocId());
         }
-        if (!StringUtils.hasText(userId)) {
-            throw new BusinessException("用户ID不能为空（文档归属）");
+        try {
+            // 同步上传：提交到入库流水线后等待完成
+            IngestJob finished = documentIngestPipeline.submit(job, job.getFilePath(), job.getSuffix()).join();
+            return String.format("文档上传成功！文档ID：%d，分片数：%d，存储路径：%s",
+                    finished.getDocId(), finished.getChunkedCount(), finished.getFilePath());
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            log.error("文档上传失败", cause);
+            throw cause instanceof BusinessException ? (BusinessException) cause : new BusinessException("文档上传失败：" + cause.getMessage());
         }
+    }
 
-        // 2. 校验文件格式
-        String originalFilename = file.getOriginalFilename();
-        String suffix = originalFilename.substring(originalFilename.lastIndexOf(".") + 1).toLowerCase();
-        List<String> allowedSuffixList = List.of(allowedSuffix.split(","));
-        if (!allowedSuffixList.contains(suffix)) {
-            throw new BusinessException("不支持的文件格式：" + suffix + "，仅支持" + allowedSuffix);
+    @Override
+    public IngestJob submitUploadDocument(MultipartFile file, String userId) {
+        IngestJob job = prepareIngestJob(file, userId);
+        if (job.isDuplicate()) {
+            return documentIngestPipeline.completeDuplicate(job);
+        }
+        // 异步上传：解析/分片/入库/索引交给入库流水线，立即返回任务
+        documentIngestPipeline.submit(job, job.getFilePath(), job.getSuffix());
+        return job;
+    }
+
+    @Override
+    public IngestJob submitReplaceDocument(Long docId, MultipartFile file, String userId) {
+        checkWritable();
+        if (docId == null) {
+            throw new BusinessException("文档ID不能为空");
+        }
+        String suffix = validateFile(file, userId);
+
+        // 1. 校验文档归属（只能替换自己的文档）
+        KbDocument document = documentCatalogCache.findOwned(userId, docId);
+        if (document == null) {
+            throw new BusinessException(documentMapper.selectById(docId) == null
+                    ? "文档不存在：" + docId : "无权限替换该文档（非本人上传）");
+        }
+
+        try {
+            IngestJob job = new IngestJob();
+            job.setDocId(docId);
+            job.setUserId(userId);
+            job.setFileName(file.getOriginalFilename());
+            job.setSuffix(suffix);
+
+            // 2. 内容与当前版本相同时无需替换
+            String contentHash;
+            try (InputStream in = file.getInputStream()) {
+                contentHash = SecureUtil.sha256(in);
+            }
+            if (contentHash.equals(document.getContentHash())) {
+                log.info("替换文档内容未变化，跳过：userId={}，文档ID={}", userId, docId);
+                return documentIngestPipeline.completeDuplicate(job);
+            }
+
+            // 3. 新版本落盘，交给入库流水线比对分片后增量更新
+            job.setFilePath(saveFile(file, userId, suffix));
+            KbDocument updated = new KbDocument();
+            updated.setId(docId);
+            updated.setDocumentName(file.getOriginalFilename());
+            updated.setDocumentSuffix(suffix);
+            updated.setDocumentSize(file.getSize());
+            updated.setContentHash(contentHash);
+            updated.setUpdateTime(Date.from(Instant.now()));
+            documentIngestPipeline.submitReplace(job, updated);
+            return job;
+        } catch (BusinessException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("文档替换失败", e);
+            throw new BusinessException("文档替换失败：" + e.getMessage());
+        }
+    }
+
+    @Override
+    public IngestJob getIngestJob(String jobId, String userId) {
+        if (!StringUtils.hasText(jobId)) {
+            throw new BusinessException("任务ID不能为空");
         }
+        IngestJob job = documentIngestPipeline.getJob(jobId);
+        if (job == null || !userId.equals(job.getUserId())) {
+            throw new BusinessException("入库任务不存在或已过期：" + jobId);
+        }
+        return job;
+    }
+
+    /**
+     * 只读索引副本不接受文档写入（上传/删除需路由到主节点）
+     */
+    private void checkWritable() {
+        if ("follower".equalsIgnoreCase(replicationRole)) {
+            throw new BusinessException("当前节点为只读索引副本，请将文档上传/删除请求发送到主节点");
+        }
+    }
+
+    /**
+     * 私有方法：校验上传文件、保存到磁盘、保存文档主记录，构建入库任务
+     * MultipartFile 只在请求线程内有效，因此落盘必须在请求线程完成
+     * 该用户已有内容哈希相同的文档时不落盘、不入库，返回指向已有文档的重复任务
+     */
+    private IngestJob prepareIngestJob(MultipartFile file, String userId) {
+        checkWritable();
+        // 1. 校验参数和文件格式
+        String suffix = validateFile(file, userId);
+        String originalFilename = file.getOriginalFilename();
 
         try {
-            // 3. 创建文件存储目录（按用户ID隔离）
-            String userStoragePath = storagePath + userId + "/";
-            FileUtils.createDirIfNotExist(userStoragePath);
-            String fileSaveName = UUID.randomUUID() + "." + suffix;
-            String filePath = userStoragePath + fileSaveName;
-            file.transferTo(new File(filePath));
-            log.info("文件保存成功：{}", filePath);
-
-            // 4. 读取文件内容
-            String fileContent = FileUtils.readFileContent(filePath, suffix);
-            if (!StringUtils.hasText(fileContent)) {
-                throw new BusinessException("文件内容为空，无法分片");
+            // 3. 计算内容哈希，同一用户已上传过相同内容的文件时直接返回已有文档
+            String contentHash = null;
+            if (chunkDeduplicator.isEnabled()) {
+                try (InputStream in = file.getInputStream()) {
+                    contentHash = SecureUtil.sha256(in);
+                }
+                KbDocument existing = documentCatalogCache.findByContentHash(userId, contentHash);
+                if (existing != null) {
+                    log.info("重复上传，跳过入库：userId={}，文件名={}，已有文档ID={}", userId, originalFilename, existing.getId());
+                    IngestJob job = new IngestJob();
+                    job.setDocId(existing.getId());
+                    job.setUserId(userId);
+                    job.setFileName(originalFilename);
+                    job.setSuffix(suffix);
+                    job.setDuplicate(true);
+                    return job;
+                }
             }
 
+            // 4. 保存文件（按用户ID隔离目录）
+            String filePath = saveFile(file, userId, suffix);
+
             // 5. 保存文档主记录
             KbDocument document = new KbDocument();
             document.setDocumentName(originalFilename);
             document.setDocumentSuffix(suffix);
             document.setDocumentSize(file.getSize());
             document.setUserId(userId);
+            document.setContentHash(contentHash);
             document.setCreateTime(Date.from(Instant.now()));
             documentMapper.insert(document);
-            Long docId = document.getId(); // 获取新增文档ID
-
-            // 6. 文档分片（固定长度+重叠）
-            List<KbDocumentChunk> chunkList = splitDocument(fileContent, docId, userId);
+            documentCatalogCache.evict(userId);
 
-            // 7. 保存分片记录到数据库
-            for (KbDocumentChunk chunk : chunkList) {
-                documentChunkMapper.insert(chunk);
-            }
-
-            // 8. 为每个分片构建RAG索引（核心：关联Lucene）
-            for (KbDocumentChunk chunk : chunkList) {
-                ragSearchService.buildIndex(chunk.getId(), chunk.getChunkContent(), docId);
-            }
-
-            return String.format("文档上传成功！文档ID：%d，分片数：%d，存储路径：%s",
-                    docId, chunkList.size(), filePath);
+            // 6. 构建入库任务
+            IngestJob job = new IngestJob();
+            job.setDocId(document.getId());
+            job.setUserId(userId);
+            job.setFileName(originalFilename);
+            job.setFilePath(filePath);
+            job.setSuffix(suffix);
+            return job;
         } catch (Exception e) {
             log.error("文档上传失败", e);
             throw new BusinessException("文档上传失败：" + e.getMessage());
         }
     }
 
+    /**
+     * 私有方法：校验上传文件和用户ID，返回小写文件后缀
+     */
+    private String validateFile(MultipartFile file, String userId) {
+        if (file == null || file.isEmpty()) {
+            throw new BusinessException("上传的文件不能为空");
+        }
+        if (!StringUtils.hasText(userId)) {
+            throw new BusinessException("用户ID不能为空（文档归属）");
+        }
+        String originalFilename = file.getOriginalFilename();
+        String suffix = originalFilename.substring(originalFilename.lastIndexOf(".") + 1).toLowerCase();
+        List<String> allowedSuffixList = List.of(allowedSuffix.split(","));
+        if (!allowedSuffixList.contains(suffix)) {
+            throw new BusinessException("不支持的文件格式：" + suffix + "，仅支持" + allowedSuffix);
+        }
+        return suffix;
+    }
+
+    /**
+     * 私有方法：保存上传文件到用户存储目录（按用户ID隔离），返回文件路径
+     */
+    private String saveFile(MultipartFile file, String userId, String suffix) throws IOException {
+        String userStoragePath = storagePath + userId + "/";
+        FileUtils.createDirIfNotExist(userStoragePath);
+        String fileSaveName = UUID.randomUUID() + "." + suffix;
+        String filePath = userStoragePath + fileSaveName;
+        file.transferTo(new File(filePath));
+        log.info("文件保存成功：{}", filePath);
+        return filePath;
+    }
+
     @Override
     public List<KbDocument> listDocuments(String userId) {
         if (!StringUtils.hasText(userId)) {
             throw new BusinessException("用户ID不能为空");
         }
-        // 只查询当前用户的文档
+        // 只查询当前用户的文档（文档目录缓存）
+        return documentCatalogCache.getDocuments(userId);
+    }
+
+    @Override
+    public CursorPage<KbDocument> pageDocuments(String userId, String cursor, Integer limit) {
+        if (!StringUtils.hasText(userId)) {
+            throw new BusinessException("用户ID不能为空");
+        }
+        int pageSize = resolvePageSize(limit);
+        // 键集分页：(create_time, id) 倒序，下一页从游标之后开始
         LambdaQueryWrapper<KbDocument> wrapper = new LambdaQueryWrapper<>();
-        wrapper.eq(KbDocument::getUserId, userId)
-                .orderByDesc(KbDocument::getCreateTime);
-        return documentMapper.selectList(wrapper);
+        wrapper.eq(KbDocument::getUserId, userId);
+        if (StringUtils.hasText(cursor)) {
+            String[] parts = cursor.split(":");
+            Date createTime;
+            long id;
+            try {
+                createTime = new Date(Long.parseLong(parts[0]));
+                id = Long.parseLong(parts[1]);
+            } catch (RuntimeException e) {
+                throw new BusinessException("分页游标格式错误：" + cursor);
+            }
+            wrapper.and(w -> w.lt(KbDocument::getCreateTime, createTime)
+                    .or(o -> o.eq(KbDocument::getCreateTime, createTime).lt(KbDocument::getId, id)));
+        }
+        wrapper.orderByDesc(KbDocument::getCreateTime)
+                .orderByDesc(KbDocument::getId)
+                .last("LIMIT " + (pageSize + 1));
+        List<KbDocument> documents = documentMapper.selectList(wrapper);
+        if (documents.size() <= pageSize) {
+            return new CursorPage<>(documents, null);
+        }
+        List<KbDocument> items = documents.subList(0, pageSize);
+        KbDocument last = items.get(pageSize - 1);
+        return new CursorPage<>(items, last.getCreateTime().getTime() + ":" + last.getId());
     }
 
     @Override
     public String deleteDocument(Long docId, String userId) {
+        checkWritable();
         if (docId == null) {
             throw new BusinessException("文档ID不能为空");
         }
@@ -133,17 +310,16 @@ public class DocumentServiceImpl implements DocumentService {
             throw new BusinessException("用户ID不能为空");
         }
 
-        // 1. 校验文档归属（只能删除自己的文档）
-        KbDocument document = documentMapper.selectById(docId);
+        // 1. 校验文档归属（只能删除自己的文档；目录中没有时再查库区分不存在/无权限）
+        KbDocument document = documentCatalogCache.findOwned(userId, docId);
         if (document == null) {
-            throw new BusinessException("文档不存在：" + docId);
-        }
-        if (!userId.equals(document.getUserId())) {
-            throw new BusinessException("无权限删除该文档（非本人上传）");
+            throw new BusinessException(documentMapper.selectById(docId) == null
+                    ? "文档不存在：" + docId : "无权限删除该文档（非本人上传）");
         }
 
         try {
-            // 2. 删除RAG索引
+            // 2. 删除RAG索引（先记录分片，删除后补写与其共用索引条目的其他文档分片）
+            List<KbDocumentChunk> removedChunks = chunkDeduplicator.collectChunks(docId);
             ragSearchService.deleteIndex(docId);
 
             // 3. 删除文档分片
@@ -153,6 +329,8 @@ public class DocumentServiceImpl implements DocumentService {
 
             // 4. 删除文档主记录
             documentMapper.deleteById(docId);
+            documentCatalogCache.evict(userId);
+            chunkDeduplicator.reindexSurvivors(userId, removedChunks);
 
             return "文档删除成功！文档ID：" + docId;
         } catch (Exception e) {
@@ -170,9 +348,9 @@ public class DocumentServiceImpl implements DocumentService {
             throw new BusinessException("用户ID不能为空");
         }
 
-        // 1. 先校验文档归属
-        KbDocument document = documentMapper.selectById(docId);
-        if (document == null || !userId.equals(document.getUserId())) {
+        // 1. 先校验文档归属（文档目录缓存）
+        KbDocument document = documentCatalogCache.findOwned(userId, docId);
+        if (document == null) {
             throw new BusinessException("无权限查看该文档的分片（非本人上传）");
         }
 
@@ -183,41 +361,69 @@ public class DocumentServiceImpl implements DocumentService {
         return documentChunkMapper.selectList(wrapper);
     }
 
+    @Override
+    public CursorPage<KbDocumentChunk> pageDocumentChunks(Long docId, String userId, String cursor, Integer limit) {
+        getDocument(docId, userId);
+        int pageSize = resolvePageSize(limit);
+        // 键集分页：chunk_index 升序，下一页从游标序号之后开始
+        LambdaQueryWrapper<KbDocumentChunk> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(KbDocumentChunk::getDocumentId, docId);
+        if (StringUtils.hasText(cursor)) {
+            int afterIndex;
+            try {
+                afterIndex = Integer.parseInt(cursor);
+            } catch (NumberFormatException e) {
+                throw new BusinessException("分页游标格式错误：" + cursor);
+            }
+            wrapper.gt(KbDocumentChunk::getChunkIndex, afterIndex);
+        }
+        wrapper.orderByAsc(KbDocumentChunk::getChunkIndex)
+                .last("LIMIT " + (pageSize + 1));
+        List<KbDocumentChunk> chunks = documentChunkMapper.selectList(wrapper);
+        if (chunks.size() <= pageSize) {
+            return new CursorPage<>(chunks, null);
+        }
+        List<KbDocumentChunk> items = chunks.subList(0, pageSize);
+        return new CursorPage<>(items, String.valueOf(items.get(pageSize - 1).getChunkIndex()));
+    }
+
+    @Override
+    public KbDocument getDocument(Long docId, String userId) {
+        if (docId == null) {
+            throw new BusinessException("文档ID不能为空");
+        }
+        if (!StringUtils.hasText(userId)) {
+            throw new BusinessException("用户ID不能为空");
+        }
+        KbDocument document = documentCatalogCache.findOwned(userId, docId);
+        if (document == null) {
+            throw new BusinessException("文档不存在或无权限查看（非本人上传）：" + docId);
+        }
+        return document;
+    }
+
+    @Override
+    public void streamDocumentChunks(Long docId, String userId, Consumer<KbDocumentChunk> consumer) {
+        getDocument(docId, userId);
+        // MySQL流式结果集只能在持有连接的事务内遍历
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Cursor<KbDocumentChunk> cursor = documentChunkMapper.streamByDocumentId(docId)) {
+                cursor.forEach(consumer);
+            } catch (IOException e) {
+                throw new BusinessException("关闭分片游标失败：" + e.getMessage());
+            }
+        });
+    }
+
     /**
-     * 私有方法：文档分片（核心逻辑）
-     * @param content 文档内容
-     * @param docId 文档ID
-     * @param userId 用户ID
-     * @return 分片列表
+     * 私有方法：每页条数（未传时使用默认值，超过上限时截断）
      */
-    private List<KbDocumentChunk> splitDocument(String content, Long docId, String userId) {
-        List<KbDocumentChunk> chunkList = new ArrayList<>();
-        int contentLength = content.length();
-        int start = 0;
-        int chunkIndex = 1; // 分片序号从1开始
-
-        while (start < contentLength) {
-            // 计算分片结束位置（最后一个分片取到末尾）
-            int end = Math.min(start + chunkSize, contentLength);
-            // 截取分片内容
-            String chunkContent = content.substring(start, end);
-            // 下一个分片的起始位置（重叠部分）
-            start = end - chunkOverlap;
-
-            // 构建分片实体
-            KbDocumentChunk chunk = new KbDocumentChunk();
-            chunk.setDocumentId(docId);
-            chunk.setChunkContent(chunkContent);
-            chunk.setChunkIndex(chunkIndex);
-            chunk.setUserId(userId); // 关键：关联用户ID
-            chunk.setCreateTime(Date.from(Instant.now()));
-
-            chunkList.add(chunk);
-            chunkIndex++;
-        }
-
-        log.info("文档分片完成：文档ID={}，分片数={}，分片大小={}，重叠={}",
-                docId, chunkList.size(), chunkSize, chunkOverlap);
-        return chunkList;
-    }
-}
\ No newline at end of file
+    private int resolvePageSize(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return defaultPageSize;
+        }
+        return Math.min(limit, maxPageSize);
+    }
+}
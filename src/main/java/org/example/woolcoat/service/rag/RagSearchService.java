@@ -1,7 +1,10 @@
 package org.example.woolcoat.service.rag;
 
+import org.example.woolcoat.entity.KbDocumentChunk;
+
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * RAG知识库检索服务（基于Lucene）
@@ -10,11 +13,26 @@ public interface RagSearchService {
 
     /**
      * 构建文档分片的Lucene索引（文档上传后调用）
-     * @param docChunkId 文档分片ID
-     * @param chunkContent 分片内容
-     * @param docId 所属文档ID
+     * @param chunk 文档分片（需已入库，含分片ID、文档ID、用户ID、分片序号）
+     */
+    void buildIndex(KbDocumentChunk chunk);
+
+    /**
+     * 批量构建文档分片的Lucene索引（同一文档的所有分片一次写入，随下一次组提交持久化）
+     * @param chunkList 文档分片列表（需已入库，含分片ID、文档ID、用户ID、分片序号）
+     */
+    void buildIndexBatch(List<KbDocumentChunk> chunkList);
+
+    /**
+     * 追加一批分片到索引（流式写入场景使用，全部写完后调用 commitIndex 使其可检索；持久化由组提交完成）
+     * @param chunkList 文档分片列表（需已入库，含分片ID、文档ID、用户ID、分片序号）
+     */
+    void addToIndex(List<KbDocumentChunk> chunkList);
+
+    /**
+     * 刷新索引（此前 addToIndex 写入的分片立即可检索；持久化由组提交调度器按间隔/累计分片数合并完成）
      */
-    void buildIndex(Long docChunkId, String chunkContent, Long docId);
+    void commitIndex();
 
     /**
      * 检索知识库（根据问题匹配分片内容）
@@ -30,4 +48,24 @@ public interface RagSearchService {
      * @param docId 文档ID
      */
     void deleteIndex(Long docId);
+
+    /**
+     * 删除指定分片的索引（替换文档时删除已变化的分片，调用 commitIndex 后不再可检索）
+     * @param userId 分片所属用户ID（路由到索引分片）
+     * @param chunkIds 分片ID列表
+     */
+    void deleteChunks(String userId, List<Long> chunkIds);
+
+    /**
+     * 列出索引中的全部文档ID（从快照恢复后与数据库对账时使用）
+     * @return 文档ID集合
+     */
+    Set<Long> listIndexedDocIds();
+
+    /**
+     * 列出索引中属于该文档的全部分片ID（与数据库对账、清理已删除分片时使用）
+     * @param docId 文档ID
+     * @return 分片ID集合
+     */
+    Set<Long> listIndexedChunkIds(Long docId);
 }
@@ -0,0 +1,229 @@
+package org.example.woolcoat.service.rag.cache;
+
+import cn.hutool.crypto.SecureUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RAG检索结果两级缓存（本地LRU + Redis）
+ * 缓存Key = 索引代数 + 用户ID + topK + 归一化问题摘要；索引每次提交/删除都会递增代数（Redis全局计数），
+ * 旧代数的缓存不再命中，由LRU淘汰/Redis过期自动清理，无需逐条删除。
+ * 本地代数最多每 generation-check-ms 从Redis同步一次，其他副本的索引变更在该间隔内生效。
+ * 只读索引副本（rag.replication.role=follower）不读取Redis代数，而是使用已应用的主节点索引清单中的代数，
+ * 保证副本按某代数缓存的结果不会旧于该代数对应的索引。
+ */
+@Slf4j
+@Component
+public class RagResultCache {
+
+    private static final String GENERATION_KEY = "agent:rag:index:generation";
+    private static final String RESULT_KEY_PREFIX = "agent:rag:result:";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final boolean enabled;
+    private final long ttlSeconds;
+    private final long generationCheckMs;
+    private final boolean replica;
+    private final Map<String, List<Map<String, Object>>> localCache;
+
+    // 当前索引代数（本地缓存，定期与Redis同步）
+    private volatile long generation = 0;
+    private volatile long generationCheckedAt = 0;
+
+    public RagResultCache(RedisTemplate<String, Object> redisTemplate,
+                          @Value("${rag.cache.enabled:true}") boolean enabled,
+                          @Value("${rag.cache.local-size:1000}") int localSize,
+                          @Value("${rag.cache.ttl-seconds:600}") long ttlSeconds,
+                          @Value("${rag.cache.generation-check-ms:1000}") long generationCheckMs,
+                          @Value("${rag.replication.role:standalone}") String replicationRole) {
+        this.redisTemplate = redisTemplate;
+        this.enabled = enabled;
+        this.ttlSeconds = ttlSeconds;
+        this.generationCheckMs = generationCheckMs;
+        this.replica = "follower".equalsIgnoreCase(replicationRole);
+        // accessOrder=true：按访问顺序淘汰最久未使用的条目
+        this.localCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Map<String, Object>>> eldest) {
+                return size() > localSize;
+            }
+        };
+    }
+
+    /**
+     * 查询缓存（先本地，再Redis；Redis命中时回填本地）
+     * @param generation 检索前通过 getGeneration() 取得的索引代数（未命中时原样传给 put）
+     * @return 检索结果副本，未命中返回null
+     */
+    public List<Map<String, Object>> get(long generation, String userId, String question, int topK) {
+        if (!enabled) {
+            return null;
+        }
+        String key = buildKey(generation, userId, question, topK);
+        List<Map<String, Object>> cached;
+        synchronized (localCache) {
+            cached = localCache.get(key);
+        }
+        if (cached != null) {
+            return copyOf(cached);
+        }
+        try {
+            Object value = redisTemplate.opsForValue().get(key);
+            if (value instanceof List<?> list) {
+                cached = restoreTypes(list);
+                synchronized (localCache) {
+                    localCache.put(key, cached);
+                }
+                return copyOf(cached);
+            }
+        } catch (Exception e) {
+            log.warn("RAG检索缓存读取Redis失败：{}", e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 写入缓存（本地 + Redis）
+     * 检索期间索引代数已变化时不写入：结果可能来自变更前的Searcher，写到新代数下会被当作最新结果返回
+     * @param generation 检索前取得的索引代数（与 get 使用的相同）
+     */
+    public void put(long generation, String userId, String question, int topK, List<Map<String, Object>> results) {
+        if (!enabled || results == null || currentGeneration() != generation) {
+            return;
+        }
+        String key = buildKey(generation, userId, question, topK);
+        List<Map<String, Object>> snapshot = copyOf(results);
+        synchronized (localCache) {
+            localCache.put(key, snapshot);
+        }
+        try {
+            redisTemplate.opsForValue().set(key, snapshot, ttlSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("RAG检索缓存写入Redis失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 索引变更已刷新可见（尚未提交）时调用：只清空本地缓存，不递增索引代数
+     * 代数只随已提交的索引递增（见 invalidate），主节点发布给副本的代数始终对应已持久化、可复制的提交点
+     */
+    public void clearLocal() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (localCache) {
+            localCache.clear();
+        }
+    }
+
+    /**
+     * 索引提交后调用：递增索引代数，所有旧缓存失效
+     */
+    public void invalidate() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (localCache) {
+            localCache.clear();
+        }
+        try {
+            Long next = redisTemplate.opsForValue().increment(GENERATION_KEY);
+            generation = next != null ? next : generation + 1;
+        } catch (Exception e) {
+            log.warn("RAG索引代数递增失败（仅本地失效）：{}", e.getMessage());
+            generation = generation + 1;
+        }
+        generationCheckedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 当前索引代数（检索前取得并传给 get/put；主节点发布索引清单时使用）
+     */
+    public long getGeneration() {
+        return currentGeneration();
+    }
+
+    /**
+     * 只读副本应用主节点索引清单后切换代数（代数变化时清空本地缓存）
+     */
+    public void applyGeneration(long appliedGeneration) {
+        if (appliedGeneration == generation) {
+            return;
+        }
+        generation = appliedGeneration;
+        synchronized (localCache) {
+            localCache.clear();
+        }
+    }
+
+    private static String buildKey(long generation, String userId, String question, int topK) {
+        return RESULT_KEY_PREFIX + generation + ":" + userId + ":" + topK + ":" + SecureUtil.md5(normalize(question));
+    }
+
+    // 从Redis同步索引代数（间隔内直接使用本地值，Redis不可用时沿用本地值）
+    private long currentGeneration() {
+        if (replica) {
+            return generation;
+        }
+        long now = System.currentTimeMillis();
+        if (now - generationCheckedAt >= generationCheckMs) {
+            generationCheckedAt = now;
+            try {
+                Object value = redisTemplate.opsForValue().get(GENERATION_KEY);
+                if (value instanceof Number number && number.longValue() != generation) {
+                    generation = number.longValue();
+                    synchronized (localCache) {
+                        localCache.clear();
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("RAG索引代数读取Redis失败：{}", e.getMessage());
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * 问题归一化：去首尾空白、合并连续空白、转小写、去掉末尾标点
+     */
+    static String normalize(String question) {
+        String normalized = question.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return normalized.replaceAll("[\\p{Punct}？。！，；：、]+$", "");
+    }
+
+    private static List<Map<String, Object>> copyOf(List<Map<String, Object>> results) {
+        List<Map<String, Object>> copy = new ArrayList<>(results.size());
+        for (Map<String, Object> result : results) {
+            copy.add(new HashMap<>(result));
+        }
+        return copy;
+    }
+
+    // Redis JSON反序列化后数字类型会变化（Long→Integer、Float→Double），按检索结果约定还原
+    private static List<Map<String, Object>> restoreTypes(List<?> list) {
+        List<Map<String, Object>> results = new ArrayList<>(list.size());
+        for (Object item : list) {
+            if (!(item instanceof Map<?, ?> map)) {
+                continue;
+            }
+            Map<String, Object> result = new HashMap<>();
+            map.forEach((k, v) -> result.put(String.valueOf(k), v));
+            result.computeIfPresent("chunkId", (k, v) -> ((Number) v).longValue());
+            result.computeIfPresent("docId", (k, v) -> ((Number) v).longValue());
+            result.computeIfPresent("similarity", (k, v) -> ((Number) v).floatValue());
+            result.computeIfPresent("chunkIndex", (k, v) -> ((Number) v).intValue());
+            results.add(result);
+        }
+        return results;
+    }
+}
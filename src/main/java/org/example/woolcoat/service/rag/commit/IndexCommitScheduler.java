@@ -0,0 +1,269 @@
+package org.example.woolcoat.service.rag.commit;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.woolcoat.service.rag.cache.RagResultCache;
+import org.example.woolcoat.service.rag.index.HnswVectorIndex;
+import org.example.woolcoat.service.rag.index.LuceneIndexManager;
+import org.example.woolcoat.service.rag.index.ShardedIndexManager;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 索引组提交调度器：写入/删除只进入IndexWriter缓冲（近实时刷新后即可检索），
+ * 每 interval-ms 或累计 max-docs 个分片时合并提交一次（一次fsync覆盖多次写入）。
+ * 每次提交在所有分片写入相同的提交用户数据：已写入索引的最大分片ID与提交时间，
+ * 崩溃重启后由 IndexRecoveryService 据此从数据库重放未持久化的分片。
+ * 提交成功后递增检索缓存代数：主节点发布的代数只对应已提交（可复制）的数据，
+ * 副本不会在持有旧提交点时以新代数写入共享缓存。
+ * 向量索引整体重写单个文件，不随每次组提交保存，而是每 rag.vector.save-interval-ms 或累计 save-max-docs 个分片保存一次；
+ * 保存点（已持久化向量的最大分片ID与保存时间）随下一次组提交写入提交用户数据，崩溃恢复从两个恢复点中较早的一个开始重放。
+ */
+@Slf4j
+@Component
+public class IndexCommitScheduler {
+
+    /**
+     * 提交用户数据：已写入索引的最大分片ID
+     */
+    public static final String MAX_CHUNK_ID = "maxChunkId";
+    /**
+     * 提交用户数据：提交时间（毫秒时间戳）
+     */
+    public static final String COMMIT_TIME = "commitTime";
+    /**
+     * 提交用户数据：向量索引已持久化的最大分片ID
+     */
+    public static final String VECTOR_MAX_CHUNK_ID = "vectorMaxChunkId";
+    /**
+     * 提交用户数据：向量索引保存时间（毫秒时间戳）
+     */
+    public static final String VECTOR_SAVE_TIME = "vectorSaveTime";
+
+    private final ShardedIndexManager shardedIndexManager;
+    private final ObjectProvider<HnswVectorIndex> vectorIndexProvider;
+    private final RagResultCache ragResultCache;
+    private final long intervalMs;
+    private final int maxDocs;
+    private final long vectorSaveIntervalMs;
+    private final int vectorSaveMaxDocs;
+    private final boolean replica;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong pendingDocs = new AtomicLong();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicLong maxChunkId = new AtomicLong();
+    private final AtomicBoolean commitRequested = new AtomicBoolean();
+    private final AtomicLong vectorPendingDocs = new AtomicLong();
+    private final AtomicLong vectorSavedMaxChunkId = new AtomicLong();
+    private final AtomicLong vectorSavedTime = new AtomicLong();
+    private final AtomicBoolean vectorSaveRequested = new AtomicBoolean();
+    private final Object vectorSaveLock = new Object();
+
+    public IndexCommitScheduler(ShardedIndexManager shardedIndexManager,
+                                ObjectProvider<HnswVectorIndex> vectorIndexProvider,
+                                RagResultCache ragResultCache,
+                                @Value("${rag.lucene.commit.interval-ms:1000}") long intervalMs,
+                                @Value("${rag.lucene.commit.max-docs:5000}") int maxDocs,
+                                @Value("${rag.vector.save-interval-ms:60000}") long vectorSaveIntervalMs,
+                                @Value("${rag.vector.save-max-docs:20000}") int vectorSaveMaxDocs,
+                                @Value("${rag.replication.role:standalone}") String replicationRole) {
+        this.shardedIndexManager = shardedIndexManager;
+        this.vectorIndexProvider = vectorIndexProvider;
+        this.ragResultCache = ragResultCache;
+        this.intervalMs = Math.max(intervalMs, 1L);
+        this.maxDocs = Math.max(maxDocs, 1);
+        this.vectorSaveIntervalMs = Math.max(vectorSaveIntervalMs, 1L);
+        this.vectorSaveMaxDocs = Math.max(vectorSaveMaxDocs, 1);
+        this.replica = "follower".equalsIgnoreCase(replicationRole);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "index-group-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        if (replica) {
+            return; // 只读副本没有IndexWriter
+        }
+        Long committed = readCommittedMaxChunkId();
+        maxChunkId.set(committed == null ? 0L : committed);
+        scheduler.scheduleWithFixedDelay(this::commitQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        log.info("索引组提交已开启：间隔={}ms，累计分片数上限={}", intervalMs, maxDocs);
+        if (vectorIndexProvider.getIfAvailable() != null) {
+            // 沿用上次记录的保存点（没有记录时视为与分片提交点一致），直到下一次保存成功
+            Long vectorCommitted = readCommittedVectorMaxChunkId();
+            Long vectorTime = readCommittedVectorSaveTime();
+            Long commitTime = readCommittedTime();
+            vectorSavedMaxChunkId.set(vectorCommitted != null ? vectorCommitted : maxChunkId.get());
+            vectorSavedTime.set(vectorTime != null ? vectorTime : commitTime != null ? commitTime : System.currentTimeMillis());
+            scheduler.scheduleWithFixedDelay(this::saveVectorsQuietly, vectorSaveIntervalMs, vectorSaveIntervalMs, TimeUnit.MILLISECONDS);
+            log.info("向量索引定时保存已开启：间隔={}ms，累计分片数上限={}", vectorSaveIntervalMs, vectorSaveMaxDocs);
+        }
+    }
+
+    /**
+     * 容器关闭前提交尚未持久化的写入（先于分片索引管理器关闭）
+     */
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        if (!replica) {
+            saveVectorsQuietly();
+            commitQuietly();
+        }
+    }
+
+    /**
+     * 记录一批已写入IndexWriter的分片（累计达到 max-docs 时立即触发提交）
+     * @param docs 分片数
+     * @param batchMaxChunkId 本批最大分片ID
+     */
+    public void onIndexed(int docs, long batchMaxChunkId) {
+        maxChunkId.accumulateAndGet(batchMaxChunkId, Math::max);
+        dirty.set(true);
+        if (pendingDocs.addAndGet(docs) >= maxDocs && commitRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::commitQuietly);
+        }
+        if (vectorPendingDocs.addAndGet(docs) >= vectorSaveMaxDocs && vectorSaveRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::saveVectorsQuietly);
+        }
+    }
+
+    /**
+     * 记录一次删除（随下一次组提交持久化）
+     */
+    public void onDeleted() {
+        dirty.set(true);
+    }
+
+    /**
+     * 立即提交（生成快照等需要最新提交点的场景使用）
+     */
+    public synchronized void commitNow() throws IOException {
+        commitRequested.set(false);
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        long docs = pendingDocs.getAndSet(0);
+        long start = System.currentTimeMillis();
+        try {
+            Map<String, String> userData = new HashMap<>();
+            userData.put(MAX_CHUNK_ID, String.valueOf(maxChunkId.get()));
+            userData.put(COMMIT_TIME, String.valueOf(start));
+            if (vectorIndexProvider.getIfAvailable() != null) {
+                userData.put(VECTOR_MAX_CHUNK_ID, String.valueOf(vectorSavedMaxChunkId.get()));
+                userData.put(VECTOR_SAVE_TIME, String.valueOf(vectorSavedTime.get()));
+            }
+            shardedIndexManager.commit(userData);
+            ragResultCache.invalidate();
+        } catch (IOException | RuntimeException e) {
+            dirty.set(true); // 下次重试
+            pendingDocs.addAndGet(docs);
+            throw e;
+        }
+        log.debug("索引组提交完成：分片数={}，maxChunkId={}，耗时={}ms", docs, maxChunkId.get(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 立即保存向量索引（生成快照等需要最新向量文件的场景使用；未开启向量检索或无变更时跳过）
+     * 保存前记下的最大分片ID之前的分片向量都已写入（向量先于分片计入组提交写入），保存成功后作为新的保存点
+     */
+    public void saveVectorsNow() throws IOException {
+        HnswVectorIndex vectorIndex = vectorIndexProvider.getIfAvailable();
+        if (vectorIndex == null) {
+            return;
+        }
+        synchronized (vectorSaveLock) {
+            vectorSaveRequested.set(false);
+            long savedMaxChunkId = maxChunkId.get();
+            long savedTime = System.currentTimeMillis();
+            long docs = vectorPendingDocs.getAndSet(0);
+            try {
+                vectorIndex.save();
+            } catch (IOException | RuntimeException e) {
+                vectorPendingDocs.addAndGet(docs);
+                throw e;
+            }
+            if (vectorSavedMaxChunkId.getAndSet(savedMaxChunkId) != savedMaxChunkId) {
+                vectorSavedTime.set(savedTime);
+                dirty.set(true); // 新的保存点随下一次组提交写入提交用户数据
+            }
+            log.debug("向量索引保存完成：maxChunkId={}，耗时={}ms", savedMaxChunkId, System.currentTimeMillis() - savedTime);
+        }
+    }
+
+    /**
+     * 最近一次提交记录的最大分片ID（各分片取最小值；任一分片没有该记录时返回null）
+     */
+    public Long readCommittedMaxChunkId() {
+        return readCommitted(MAX_CHUNK_ID);
+    }
+
+    /**
+     * 最近一次提交的时间（各分片取最小值；任一分片没有该记录时返回null）
+     */
+    public Long readCommittedTime() {
+        return readCommitted(COMMIT_TIME);
+    }
+
+    /**
+     * 最近一次提交记录的向量索引保存点最大分片ID（没有该记录时返回null，即向量索引与分片提交点一致）
+     */
+    public Long readCommittedVectorMaxChunkId() {
+        return readCommitted(VECTOR_MAX_CHUNK_ID);
+    }
+
+    /**
+     * 最近一次提交记录的向量索引保存时间（没有该记录时返回null）
+     */
+    public Long readCommittedVectorSaveTime() {
+        return readCommitted(VECTOR_SAVE_TIME);
+    }
+
+    private Long readCommitted(String key) {
+        Long min = null;
+        try {
+            for (LuceneIndexManager shard : shardedIndexManager.getShards()) {
+                String value = shard.getCommitUserData().get(key);
+                if (value == null) {
+                    return null;
+                }
+                min = min == null ? Long.parseLong(value) : Math.min(min, Long.parseLong(value));
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.warn("读取索引提交用户数据失败：{}", e.getMessage());
+            return null;
+        }
+        return min;
+    }
+
+    private void commitQuietly() {
+        try {
+            commitNow();
+        } catch (Exception e) {
+            log.error("索引组提交失败（下次重试）", e);
+        }
+    }
+
+    private void saveVectorsQuietly() {
+        try {
+            saveVectorsNow();
+        } catch (Exception e) {
+            log.error("向量索引保存失败（下次重试）", e);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.example.woolcoat.service.rag.commit;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.example.woolcoat.entity.KbDocument;
+import org.example.woolcoat.entity.KbDocumentChunk;
+import org.example.woolcoat.mapper.KbDocumentChunkMapper;
+import org.example.woolcoat.mapper.KbDocumentMapper;
+import org.example.woolcoat.service.rag.RagSearchService;
+import org.example.woolcoat.service.rag.index.ChunkDocuments;
+import org.example.woolcoat.service.rag.snapshot.IndexSnapshotStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 索引崩溃恢复：组提交之间写入IndexWriter但尚未提交的分片在进程崩溃后丢失，
+ * 启动后读取最近一次提交记录的最大分片ID与提交时间，从数据库重放之后的分片（按分片ID覆盖写入），
+ * 并删除数据库中已不存在的文档，以及提交时间之后替换过的文档中已删除的分片。多个入库任务并发时分片ID不保证按提交顺序写入索引，
+ * 因此同时从提交时间前 recovery-margin-ms 起创建的第一个分片开始重放。
+ * 从快照恢复的索引由快照服务补齐；只读副本的索引来自主节点复制，均不在此恢复。
+ */
+@Slf4j
+@Service
+public class IndexRecoveryService {
+
+    private static final int DOC_ID_BATCH_SIZE = 500;
+
+    private final IndexCommitScheduler indexCommitScheduler;
+    private final RagSearchService ragSearchService;
+    private final KbDocumentMapper documentMapper;
+    private final KbDocumentChunkMapper documentChunkMapper;
+    private final IndexSnapshotStore indexSnapshotStore;
+    private final TransactionTemplate readOnlyTransaction;
+    private final long recoveryMarginMs;
+    private final int batchSize;
+    private final boolean replica;
+
+    public IndexRecoveryService(IndexCommitScheduler indexCommitScheduler,
+                                RagSearchService ragSearchService,
+                                KbDocumentMapper documentMapper,
+                                KbDocumentChunkMapper documentChunkMapper,
+                                IndexSnapshotStore indexSnapshotStore,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${rag.lucene.commit.recovery-margin-ms:600000}") long recoveryMarginMs,
+                                @Value("${rag.document.batch-size:100}") int batchSize,
+                                @Value("${rag.replication.role:standalone}") String replicationRole) {
+        this.indexCommitScheduler = indexCommitScheduler;
+        this.ragSearchService = ragSearchService;
+        this.documentMapper = documentMapper;
+        this.documentChunkMapper = documentChunkMapper;
+        this.indexSnapshotStore = indexSnapshotStore;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.recoveryMarginMs = recoveryMarginMs;
+        this.batchSize = Math.max(1, batchSize);
+        this.replica = "follower".equalsIgnoreCase(replicationRole);
+    }
+
+    /**
+     * 应用启动完成后在后台重放最近一次提交之后的分片
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (replica) {
+            return;
+        }
+        if (indexSnapshotStore.getRestored() != null) {
+            return; // 快照服务负责补齐
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                recover();
+            } catch (Exception e) {
+                log.error("索引崩溃恢复失败", e);
+            }
+        }, "index-recovery");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 从数据库重放最近一次提交之后的分片，并删除数据库中已不存在的文档
+     */
+    public void recover() throws IOException {
+        Long committedMaxChunkId = indexCommitScheduler.readCommittedMaxChunkId();
+        Long committedTime = indexCommitScheduler.readCommittedTime();
+        if (committedMaxChunkId == null || committedTime == null) {
+            log.info("索引提交点没有恢复标记（新索引或旧版本创建的索引），跳过崩溃恢复");
+            return;
+        }
+        // 向量索引按自己的间隔保存，保存点早于分片提交点时从保存点起重放（已存在的分片向量不会重复计算）
+        Long vectorMaxChunkId = indexCommitScheduler.readCommittedVectorMaxChunkId();
+        Long vectorSaveTime = indexCommitScheduler.readCommittedVectorSaveTime();
+        if (vectorMaxChunkId != null && vectorSaveTime != null) {
+            committedMaxChunkId = Math.min(committedMaxChunkId, vectorMaxChunkId);
+            committedTime = Math.min(committedTime, vectorSaveTime);
+        }
+        long start = System.currentTimeMillis();
+        long fromId = committedMaxChunkId;
+        LambdaQueryWrapper<KbDocumentChunk> wrapper = new LambdaQueryWrapper<>();
+        wrapper.select(KbDocumentChunk::getId)
+                .ge(KbDocumentChunk::getCreateTime, new Date(committedTime - recoveryMarginMs))
+                .orderByAsc(KbDocumentChunk::getId)
+                .last("LIMIT 1");
+        KbDocumentChunk firstInMargin = documentChunkMapper.selectOne(wrapper);
+        if (firstInMargin != null) {
+            fromId = Math.min(fromId, firstInMargin.getId() - 1);
+        }
+
+        long replayed = replayAfter(fromId);
+        int deleted = removeDeletedDocuments();
+        int deletedChunks = removeDeletedChunks(new Date(committedTime - recoveryMarginMs));
+        ragSearchService.commitIndex();
+        indexCommitScheduler.commitNow();
+        log.info("索引崩溃恢复完成：提交点maxChunkId={}，重放起点={}，重放分片数={}，删除文档数={}，删除分片数={}，耗时={}ms",
+                committedMaxChunkId, fromId, replayed, deleted, deletedChunks, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 删除索引中存在、数据库中已删除的文档
+     * @return 删除的文档数
+     */
+    public int removeDeletedDocuments() {
+        List<Long> indexedDocIds = new ArrayList<>(ragSearchService.listIndexedDocIds());
+        int deleted = 0;
+        for (int from = 0; from < indexedDocIds.size(); from += DOC_ID_BATCH_SIZE) {
+            List<Long> batch = indexedDocIds.subList(from, Math.min(from + DOC_ID_BATCH_SIZE, indexedDocIds.size()));
+            Set<Long> existing = new HashSet<>();
+            for (KbDocument document : documentMapper.selectBatchIds(batch)) {
+                existing.add(document.getId());
+            }
+            for (Long docId : batch) {
+                if (!existing.contains(docId)) {
+                    ragSearchService.deleteIndex(docId);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 删除 since 之后更新过（如替换）的文档在索引中残留、数据库中已删除的分片
+     * @param since 对账起点（文档更新时间不早于该时间）
+     * @return 删除的分片数
+     */
+    public int removeDeletedChunks(Date since) {
+        LambdaQueryWrapper<KbDocument> wrapper = new LambdaQueryWrapper<>();
+        wrapper.select(KbDocument::getId, KbDocument::getUserId)
+                .ge(KbDocument::getUpdateTime, since);
+        int deleted = 0;
+        for (KbDocument document : documentMapper.selectList(wrapper)) {
+            Set<Long> stale = ragSearchService.listIndexedChunkIds(document.getId());
+            if (stale.isEmpty()) {
+                continue;
+            }
+            stale.removeAll(listChunkIds(documentChunkMapper, document.getId()));
+            if (!stale.isEmpty()) {
+                ragSearchService.deleteChunks(document.getUserId(), new ArrayList<>(stale));
+                deleted += stale.size();
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 数据库中该文档的全部分片ID
+     */
+    public static Set<Long> listChunkIds(KbDocumentChunkMapper documentChunkMapper, Long docId) {
+        LambdaQueryWrapper<KbDocumentChunk> wrapper = new LambdaQueryWrapper<>();
+        wrapper.select(KbDocumentChunk::getId)
+                .eq(KbDocumentChunk::getDocumentId, docId);
+        Set<Long> chunkIds = new HashSet<>();
+        for (KbDocumentChunk chunk : documentChunkMapper.selectList(wrapper)) {
+            chunkIds.add(chunk.getId());
+        }
+        return chunkIds;
+    }
+
+    // 在只读事务内用游标流式读取 afterId 之后的分片，按批写入索引
+    private long replayAfter(long afterId) {
+        AtomicLong replayed = new AtomicLong();
+        readOnlyTransaction.executeWithoutResult(status -> {
+            try (Cursor<KbDocumentChunk> cursor = documentChunkMapper.scanAfterId(afterId)) {
+                List<KbDocumentChunk> batch = new ArrayList<>(batchSize);
+                for (KbDocumentChunk chunk : cursor) {
+                    if (!ChunkDocuments.isIndexable(chunk)) {
+                        continue;
+                    }
+                    batch.add(chunk);
+                    if (batch.size() >= batchSize) {
+                        ragSearchService.addToIndex(batch);
+                        replayed.addAndGet(batch.size());
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    ragSearchService.addToIndex(batch);
+                    replayed.addAndGet(batch.size());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return replayed.get();
+    }
+}
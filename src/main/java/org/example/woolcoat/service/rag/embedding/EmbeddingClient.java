@@ -0,0 +1,30 @@
+package org.example.woolcoat.service.rag.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 文本向量化客户端（可插拔，向量检索入库/查询时使用）
+ */
+public interface EmbeddingClient {
+
+    /**
+     * 计算单条文本的向量
+     * @param text 文本内容
+     * @return 向量（维度由模型决定）
+     */
+    float[] embed(String text);
+
+    /**
+     * 批量计算文本向量（默认逐条调用，实现类可按接口能力批量请求）
+     * @param texts 文本列表
+     * @return 与 texts 顺序一致的向量列表
+     */
+    default List<float[]> embedBatch(List<String> texts) {
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            vectors.add(embed(text));
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.woolcoat.service.rag.embedding.impl;
+
+import com.google.gson.Gson;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.example.woolcoat.service.rag.embedding.EmbeddingClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ollama 兼容的向量化客户端（POST {base-url}/embeddings，请求 {model, prompt}，响应 {embedding}）
+ * 当 rag.vector.enabled=true 时生效；base-url 可指向本地 Ollama 或任意兼容该接口的服务
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "rag.vector.enabled", havingValue = "true")
+public class OllamaEmbeddingClient implements EmbeddingClient {
+
+    private static final Gson GSON = new Gson();
+    private static final MediaType JSON_MEDIA_TYPE = MediaType.get("application/json; charset=utf-8");
+    private final OkHttpClient okHttpClient;
+    private final String baseUrl;
+    private final String model;
+
+    public OllamaEmbeddingClient(@Value("${rag.embedding.base-url:http://localhost:11434/api}") String baseUrl,
+                                 @Value("${rag.embedding.model:nomic-embed-text}") String model,
+                                 @Value("${rag.embedding.timeout:30000}") long timeoutMs) {
+        this.baseUrl = baseUrl;
+        this.model = model;
+        this.okHttpClient = new OkHttpClient.Builder()
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @Override
+    public float[] embed(String text) {
+        EmbeddingRequest embeddingRequest = new EmbeddingRequest();
+        embeddingRequest.setModel(model);
+        embeddingRequest.setPrompt(text);
+        Request httpRequest = new Request.Builder()
+                .url(baseUrl + "/embeddings")
+                .post(RequestBody.create(GSON.toJson(embeddingRequest), JSON_MEDIA_TYPE))
+                .build();
+        try (Response httpResponse = okHttpClient.newCall(httpRequest).execute();
+             ResponseBody body = httpResponse.body()) {
+            if (!httpResponse.isSuccessful() || body == null) {
+                throw new RuntimeException("向量化调用失败，响应码：" + httpResponse.code());
+            }
+            EmbeddingResponse embeddingResponse = GSON.fromJson(body.string(), EmbeddingResponse.class);
+            if (embeddingResponse == null || embeddingResponse.getEmbedding() == null || embeddingResponse.getEmbedding().isEmpty()) {
+                throw new RuntimeException("向量化调用失败：返回向量为空");
+            }
+            List<Float> embedding = embeddingResponse.getEmbedding();
+            float[] vector = new float[embedding.size()];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = embedding.get(i);
+            }
+            return vector;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("向量化调用异常：model={}", model, e);
+            throw new RuntimeException("向量化调用异常：" + e.getMessage());
+        }
+    }
+
+    // ========== 内部封装：Ollama embeddings 请求/响应 格式 ==========
+    @Data
+    static class EmbeddingRequest {
+        private String model;
+        private String prompt;
+    }
+
+    @Data
+    static class EmbeddingResponse {
+        private List<Float> embedding;
+    }
+}
@@ -1,151 +1,437 @@
 package org.example.woolcoat.service.rag.impl;
 
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
 import org.apache.lucene.document.LongPoint;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.MultiTerms;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
 import org.example.woolcoat.entity.KbDocumentChunk;
-import org.example.woolcoat.mapper.KbDocumentChunkMapper;
 import org.example.woolcoat.service.rag.RagSearchService;
+import org.example.woolcoat.service.rag.cache.RagResultCache;
+import org.example.woolcoat.service.rag.commit.IndexCommitScheduler;
+import org.example.woolcoat.service.rag.embedding.EmbeddingClient;
+import org.example.woolcoat.service.rag.index.ChunkDocuments;
+import org.example.woolcoat.service.rag.index.HnswVectorIndex;
+import org.example.woolcoat.service.rag.index.LuceneIndexManager;
+import org.example.woolcoat.service.rag.index.ShardedIndexManager;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * 基于Lucene的RAG检索服务实现（真实中文检索）
+ * 用户ID、分片序号随分片写入索引，检索时以用户ID作为过滤子句（Lucene查询缓存自动缓存），
+ * 一次Lucene检索即可完成归属校验，无需回查数据库。
+ * 索引按用户ID哈希分片（rag.lucene.shards），写入/检索只访问用户所在分片，删除与提交扇出到所有分片。
+ * 开启向量检索（rag.vector.enabled=true）后，入库时同时计算分片向量写入HNSW索引，
+ * rag.search.mode=vector 时按问题向量检索，再按分片ID从Lucene取回分片内容；
+ * rag.search.mode=hybrid 时关键词检索与向量检索并行执行，按倒数排名融合（RRF）后截取前topK条。
+ * 检索结果经两级缓存（RagResultCache），索引每次写入/删除后刷新Searcher并清空本地缓存，
+ * 组提交成功后递增索引代数使全部缓存失效（代数只随已提交的数据前进，副本按代数缓存的结果不会旧于对应提交点）。
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class LuceneRagSearchServiceImpl implements RagSearchService {
 
-    private final Directory luceneDirectory; // Lucene索引目录
+    private final ShardedIndexManager shardedIndexManager; // 分片索引管理器（每个分片共享IndexWriter + NRT Searcher）
     private final Analyzer ikAnalyzer; // IK分词器
-    private final KbDocumentChunkMapper chunkMapper; // 文档分片Mapper
+    private final ObjectProvider<HnswVectorIndex> vectorIndexProvider; // 向量索引（未开启向量检索时不存在）
+    private final ObjectProvider<EmbeddingClient> embeddingClientProvider; // 向量化客户端（未开启向量检索时不存在）
+    @Qualifier("ragSearchExecutor")
+    private final Executor ragSearchExecutor; // 混合检索并行线程池
+    private final RagResultCache ragResultCache; // 检索结果两级缓存
+    private final IndexCommitScheduler indexCommitScheduler; // 索引组提交调度器
 
-    // Lucene字段名定义
-    private static final String FIELD_CHUNK_ID = "chunkId"; // 分片ID
-    private static final String FIELD_DOC_ID = "docId"; // 文档ID
-    private static final String FIELD_CONTENT = "content"; // 分片内容
+    @Value("${rag.search.mode:bm25}")
+    private String searchMode;
+    @Value("${rag.search.bm25-candidates:50}")
+    private int bm25Candidates;
+    @Value("${rag.search.vector-candidates:50}")
+    private int vectorCandidates;
+    @Value("${rag.search.rrf-k:60}")
+    private int rrfK;
+    @Value("${rag.search.bm25-weight:1.0}")
+    private double bm25Weight;
+    @Value("${rag.search.vector-weight:1.0}")
+    private double vectorWeight;
 
     @Override
-    public void buildIndex(Long docChunkId, String chunkContent, Long docId) {
-        if (docChunkId == null || docId == null || chunkContent.isBlank()) {
-            throw new RuntimeException("构建索引参数不能为空");
+    public void buildIndex(KbDocumentChunk chunk) {
+        checkChunk(chunk);
+        if (chunk.getChunkContent() == null || chunk.getChunkContent().isBlank()) {
+            throw new RuntimeException("构建索引参数不能为空：分片内容为空");
         }
         try {
-            // 1. 创建IndexWriter（写入索引）
-            IndexWriterConfig config = new IndexWriterConfig(ikAnalyzer);
-            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND); // 追加模式
-            IndexWriter indexWriter = new IndexWriter(luceneDirectory, config);
-
-            // 2. 创建Lucene Document
-            Document doc = new Document();
-            doc.add(new LongPoint(FIELD_CHUNK_ID, docChunkId)); // 分片ID（可检索）
-            doc.add(new StringField(FIELD_CHUNK_ID, docChunkId.toString(), Field.Store.YES)); // 存储分片ID
-            doc.add(new LongPoint(FIELD_DOC_ID, docId)); // 文档ID（可检索）
-            doc.add(new StringField(FIELD_DOC_ID, docId.toString(), Field.Store.YES)); // 存储文档ID
-            doc.add(new TextField(FIELD_CONTENT, chunkContent, Field.Store.YES)); // 分片内容（分词+存储）
-
-            // 3. 写入索引
-            indexWriter.addDocument(doc);
-            indexWriter.commit();
-            indexWriter.close();
-
-            log.info("RAG索引构建成功：docChunkId={}，docId={}", docChunkId, docId);
+            // 1. 创建Lucene Document
+            Document doc = ChunkDocuments.build(chunk);
+
+            // 2. 通过用户所在分片的共享IndexWriter写入索引（按分片ID覆盖写入，近实时刷新后可检索）
+            LuceneIndexManager shard = shardedIndexManager.shardFor(chunk.getUserId());
+            shard.getIndexWriter().updateDocument(ChunkDocuments.chunkIdTerm(chunk.getId()), doc);
+            addVectors(List.of(chunk));
+            indexCommitScheduler.onIndexed(1, chunk.getId());
+            onIndexChanged();
+
+            log.info("RAG索引构建成功：docChunkId={}，docId={}", chunk.getId(), chunk.getDocumentId());
         } catch (Exception e) {
             throw new RuntimeException("构建RAG索引失败：" + e.getMessage());
         }
     }
 
+    @Override
+    public void buildIndexBatch(List<KbDocumentChunk> chunkList) {
+        if (chunkList == null || chunkList.isEmpty()) {
+            return;
+        }
+        // 一次写入所有分片，持久化由组提交调度器合并完成（避免每个分片一次fsync）
+        addToIndex(chunkList);
+        commitIndex();
+        log.info("RAG索引批量构建成功：docId={}，分片数={}", chunkList.get(0).getDocumentId(), chunkList.size());
+    }
+
+    @Override
+    public void addToIndex(List<KbDocumentChunk> chunkList) {
+        if (chunkList == null || chunkList.isEmpty()) {
+            return;
+        }
+        try {
+            // 批量创建Lucene Document（跳过空内容分片），按用户所在分片写入
+            // 按分片ID覆盖写入：全量重建/恢复补齐与在线入库重复写入同一分片时不会产生重复文档
+            List<KbDocumentChunk> indexedChunks = new ArrayList<>(chunkList.size());
+            long maxChunkId = 0;
+            for (KbDocumentChunk chunk : chunkList) {
+                checkChunk(chunk);
+                if (chunk.getChunkContent() == null || chunk.getChunkContent().isBlank()) {
+                    continue;
+                }
+                shardedIndexManager.shardFor(chunk.getUserId()).getIndexWriter()
+                        .updateDocument(ChunkDocuments.chunkIdTerm(chunk.getId()), ChunkDocuments.build(chunk));
+                indexedChunks.add(chunk);
+                maxChunkId = Math.max(maxChunkId, chunk.getId());
+            }
+            addVectors(indexedChunks);
+            indexCommitScheduler.onIndexed(indexedChunks.size(), maxChunkId);
+        } catch (Exception e) {
+            throw new RuntimeException("批量构建RAG索引失败：" + e.getMessage());
+        }
+    }
+
+    @Override
+    public void commitIndex() {
+        try {
+            // 只刷新可见性，持久化由组提交调度器按间隔/累计分片数合并完成
+            onIndexChanged();
+        } catch (Exception e) {
+            throw new RuntimeException("提交RAG索引失败：" + e.getMessage());
+        }
+    }
+
     @Override
     public List<Map<String, Object>> search(String question, int topK, String userId) {
-        if (question.isBlank() || topK <= 0) {
+        if (question.isBlank() || topK <= 0 || userId == null || userId.isBlank()) {
             return new ArrayList<>();
         }
-        List<Map<String, Object>> searchResults = new ArrayList<>();
+        // 检索前取得索引代数：检索期间索引变更（代数递增）时，本次结果不写入缓存
+        long cacheGeneration = ragResultCache.getGeneration();
+        List<Map<String, Object>> cached = ragResultCache.get(cacheGeneration, userId, question, topK);
+        if (cached != null) {
+            log.info("RAG检索命中缓存：question={}，返回{}条结果", question, cached.size());
+            return cached;
+        }
         try {
-            // 1. 创建IndexSearcher（检索索引）
-            DirectoryReader reader = DirectoryReader.open(luceneDirectory);
-            IndexSearcher searcher = new IndexSearcher(reader);
-
-            // 2. 构建查询（IK分词+内容检索）
-            QueryParser parser = new QueryParser(FIELD_CONTENT, ikAnalyzer);
-            Query query = parser.parse(QueryParser.escape(question)); // 转义特殊字符
+            // 未开启向量检索时，vector/hybrid 模式均退化为关键词检索
+            boolean vectorEnabled = vectorIndexProvider.getIfAvailable() != null;
+            List<Map<String, Object>> searchResults;
+            if ("hybrid".equalsIgnoreCase(searchMode) && vectorEnabled) {
+                searchResults = searchHybrid(question, topK, userId);
+            } else if ("vector".equalsIgnoreCase(searchMode) && vectorEnabled) {
+                searchResults = searchVector(question, topK, userId);
+            } else {
+                searchResults = searchBm25(question, topK, userId);
+            }
+            ragResultCache.put(cacheGeneration, userId, question, topK, searchResults);
+            log.info("RAG检索完成：mode={}，question={}，返回{}条结果", searchMode, question, searchResults.size());
+            return searchResults;
+        } catch (Exception e) {
+            throw new RuntimeException("RAG检索失败：" + e.getMessage());
+        }
+    }
 
-            // 3. 执行检索（返回前topK条）
-            TopDocs topDocs = searcher.search(query, topK);
-            ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+    /**
+     * 私有方法：混合检索（关键词检索与向量检索并行执行，倒数排名融合后截取前topK条）
+     * 某一路检索失败时仅使用另一路结果，两路都失败才抛出异常
+     */
+    private List<Map<String, Object>> searchHybrid(String question, int topK, String userId) {
+        CompletableFuture<List<Map<String, Object>>> bm25Future = submitRetriever("bm25",
+                () -> searchBm25(question, Math.max(bm25Candidates, topK), userId));
+        CompletableFuture<List<Map<String, Object>>> vectorFuture = submitRetriever("vector",
+                () -> searchVector(question, Math.max(vectorCandidates, topK), userId));
+        List<Map<String, Object>> bm25Results = bm25Future.join();
+        List<Map<String, Object>> vectorResults = vectorFuture.join();
+        if (bm25Results == null && vectorResults == null) {
+            throw new RuntimeException("关键词检索与向量检索均失败");
+        }
 
-            // 4. 解析检索结果
-            for (ScoreDoc scoreDoc : scoreDocs) {
-                Document doc = searcher.doc(scoreDoc.doc);
-                Long chunkId = Long.parseLong(doc.get(FIELD_CHUNK_ID));
-                Long docId = Long.parseLong(doc.get(FIELD_DOC_ID));
-                String content = doc.get(FIELD_CONTENT);
-                float score = scoreDoc.score; // 相似度得分（越高越相关）
-
-                // 校验文档归属（仅返回当前用户的文档）
-                LambdaQueryWrapper<KbDocumentChunk> wrapper = new LambdaQueryWrapper<>();
-                wrapper.eq(KbDocumentChunk::getId, chunkId)
-                        .eq(KbDocumentChunk::getDocumentId, docId);
-                KbDocumentChunk chunk = chunkMapper.selectOne(wrapper);
-                if (chunk == null || !userId.equals(chunk.getUserId())) {
-                    continue; // 跳过非当前用户的文档
-                }
+        // RRF：score = Σ weight / (k + rank)，rank 从1开始；同一分片合并两路得分
+        Map<Long, Map<String, Object>> fused = new LinkedHashMap<>();
+        Map<Long, Double> fusedScores = new HashMap<>();
+        accumulateRrf(bm25Results, bm25Weight, fused, fusedScores);
+        accumulateRrf(vectorResults, vectorWeight, fused, fusedScores);
+        return new ArrayList<>(fusedScores.entrySet().stream()
+                .sorted(Map.Entry.<Long, Double>comparingByValue().reversed())
+                .limit(topK)
+                .map(entry -> {
+                    Map<String, Object> result = fused.get(entry.getKey());
+                    result.put("similarity", entry.getValue().floatValue()); // 融合得分（越高越相关）
+                    return result;
+                })
+                .toList());
+    }
 
-                // 构建结果Map
-                Map<String, Object> result = new HashMap<>();
-                result.put("chunkId", chunkId);
-                result.put("docId", docId);
-                result.put("content", content);
-                result.put("similarity", score); // 相似度
-                result.put("chunkIndex", chunk.getChunkIndex());
-                searchResults.add(result);
+    private CompletableFuture<List<Map<String, Object>>> submitRetriever(String name, Callable<List<Map<String, Object>>> retriever) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return retriever.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
             }
+        }, ragSearchExecutor).exceptionally(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            log.warn("混合检索中{}检索失败，仅使用另一路结果：{}", name, cause.getMessage());
+            return null;
+        });
+    }
 
-            reader.close();
-            log.info("RAG检索完成：question={}，返回{}条结果", question, searchResults.size());
-        } catch (Exception e) {
-            throw new RuntimeException("RAG检索失败：" + e.getMessage());
+    private void accumulateRrf(List<Map<String, Object>> results, double weight,
+                               Map<Long, Map<String, Object>> fused, Map<Long, Double> fusedScores) {
+        if (results == null) {
+            return;
         }
+        for (int rank = 1; rank <= results.size(); rank++) {
+            Map<String, Object> result = results.get(rank - 1);
+            Long chunkId = (Long) result.get("chunkId");
+            fused.putIfAbsent(chunkId, result);
+            fusedScores.merge(chunkId, weight / (rrfK + rank), Double::sum);
+        }
+    }
+
+    /**
+     * 私有方法：关键词检索（IK分词 + BM25打分）
+     */
+    private List<Map<String, Object>> searchBm25(String question, int topK, String userId) throws Exception {
+        // 1. 构建查询：IK分词内容检索（参与打分）+ 用户ID过滤（不参与打分，可被查询缓存复用）
+        QueryParser parser = new QueryParser(ChunkDocuments.FIELD_CONTENT, ikAnalyzer);
+        Query contentQuery = parser.parse(QueryParser.escape(question)); // 转义特殊字符
+        Query query = new BooleanQuery.Builder()
+                .add(contentQuery, BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term(ChunkDocuments.FIELD_USER_ID, userId)), BooleanClause.Occur.FILTER)
+                .build();
+
+        // 2. 从SearcherManager获取已预热的IndexSearcher执行检索（返回当前用户的前topK条）
+        List<Map<String, Object>> searchResults = shardedIndexManager.search(userId, searcher -> {
+            TopDocs topDocs = searcher.search(query, topK);
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                results.add(buildResult(searcher.doc(scoreDoc.doc), scoreDoc.score));
+            }
+            return results;
+        });
         return searchResults;
     }
 
+    /**
+     * 私有方法：向量检索（问题向量化 → HNSW检索当前用户的分片 → 按分片ID从Lucene取回内容）
+     */
+    private List<Map<String, Object>> searchVector(String question, int topK, String userId) throws Exception {
+        // 1. 问题向量化并检索HNSW索引（索引内按用户ID过滤）
+        float[] queryVector = embeddingClientProvider.getObject().embed(question);
+        List<HnswVectorIndex.VectorHit> hits = vectorIndexProvider.getObject().search(queryVector, topK, userId);
+        if (hits.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // 2. 按分片ID批量取回分片内容（再次按用户ID过滤）
+        BooleanQuery.Builder chunkIdQuery = new BooleanQuery.Builder();
+        for (HnswVectorIndex.VectorHit hit : hits) {
+            chunkIdQuery.add(new TermQuery(new Term(ChunkDocuments.FIELD_CHUNK_ID, String.valueOf(hit.getChunkId()))), BooleanClause.Occur.SHOULD);
+        }
+        Query query = new BooleanQuery.Builder()
+                .add(chunkIdQuery.build(), BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term(ChunkDocuments.FIELD_USER_ID, userId)), BooleanClause.Occur.FILTER)
+                .build();
+        return shardedIndexManager.search(userId, searcher -> {
+            TopDocs topDocs = searcher.search(query, hits.size());
+            Map<Long, Document> docsByChunkId = new HashMap<>();
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                Document doc = searcher.doc(scoreDoc.doc);
+                docsByChunkId.put(Long.parseLong(doc.get(ChunkDocuments.FIELD_CHUNK_ID)), doc);
+            }
+            // 按向量相似度顺序输出（尚未刷新可见的分片跳过）
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (HnswVectorIndex.VectorHit hit : hits) {
+                Document doc = docsByChunkId.get(hit.getChunkId());
+                if (doc != null) {
+                    results.add(buildResult(doc, hit.getScore()));
+                }
+            }
+            return results;
+        });
+    }
+
     @Override
     public void deleteIndex(Long docId) {
         if (docId == null) {
             return;
         }
         try {
-            IndexWriterConfig config = new IndexWriterConfig(ikAnalyzer);
-            IndexWriter indexWriter = new IndexWriter(luceneDirectory, config);
-            // 删除指定文档ID的所有索引
-            Query query = LongPoint.newExactQuery(FIELD_DOC_ID, docId);
-            indexWriter.deleteDocuments(query);
-            indexWriter.commit();
-            indexWriter.close();
+            // 删除指定文档ID的所有索引（文档所属用户未知，扇出到所有分片）
+            Query query = LongPoint.newExactQuery(ChunkDocuments.FIELD_DOC_ID, docId);
+            shardedIndexManager.forEachWriter(indexWriter -> indexWriter.deleteDocuments(query));
+            HnswVectorIndex vectorIndex = vectorIndexProvider.getIfAvailable();
+            if (vectorIndex != null) {
+                vectorIndex.deleteByDocId(docId);
+            }
+            indexCommitScheduler.onDeleted();
+            onIndexChanged();
             log.info("RAG索引删除成功：docId={}", docId);
         } catch (Exception e) {
             throw new RuntimeException("删除RAG索引失败：" + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void deleteChunks(String userId, List<Long> chunkIds) {
+        if (userId == null || chunkIds == null || chunkIds.isEmpty()) {
+            return;
+        }
+        try {
+            Term[] terms = chunkIds.stream().map(ChunkDocuments::chunkIdTerm).toArray(Term[]::new);
+            shardedIndexManager.shardFor(userId).getIndexWriter().deleteDocuments(terms);
+            HnswVectorIndex vectorIndex = vectorIndexProvider.getIfAvailable();
+            if (vectorIndex != null) {
+                vectorIndex.deleteByChunkIds(chunkIds);
+            }
+            indexCommitScheduler.onDeleted();
+            log.info("RAG分片索引删除成功：userId={}，分片数={}", userId, chunkIds.size());
+        } catch (Exception e) {
+            throw new RuntimeException("删除RAG分片索引失败：" + e.getMessage());
+        }
+    }
+
+    @Override
+    public Set<Long> listIndexedDocIds() {
+        Set<Long> docIds = new HashSet<>();
+        try {
+            for (LuceneIndexManager shard : shardedIndexManager.getShards()) {
+                shard.search(searcher -> {
+                    Terms terms = MultiTerms.getTerms(searcher.getIndexReader(), ChunkDocuments.FIELD_DOC_ID);
+                    if (terms != null) {
+                        TermsEnum termsEnum = terms.iterator();
+                        BytesRef term;
+                        while ((term = termsEnum.next()) != null) {
+                            docIds.add(Long.parseLong(term.utf8ToString()));
+                        }
+                    }
+                    return null;
+                });
+            }
+            return docIds;
+        } catch (Exception e) {
+            throw new RuntimeException("读取索引文档ID失败：" + e.getMessage());
+        }
+    }
+
+    @Override
+    public Set<Long> listIndexedChunkIds(Long docId) {
+        Set<Long> chunkIds = new HashSet<>();
+        try {
+            for (LuceneIndexManager shard : shardedIndexManager.getShards()) {
+                chunkIds.addAll(shard.search(searcher -> ChunkDocuments.collectChunkIds(searcher, docId)));
+            }
+            return chunkIds;
+        } catch (Exception e) {
+            throw new RuntimeException("读取索引分片ID失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 私有方法：校验分片索引必填字段（分片ID、文档ID、用户ID）
+     */
+    private void checkChunk(KbDocumentChunk chunk) {
+        if (chunk == null || chunk.getId() == null || chunk.getDocumentId() == null
+                || chunk.getUserId() == null || chunk.getUserId().isBlank()) {
+            throw new RuntimeException("构建索引参数不能为空：分片ID/文档ID/用户ID缺失");
+        }
+    }
+
+    /**
+     * 私有方法：检索结果转换（分片ID、文档ID、内容、相似度、分片序号）
+     */
+    private Map<String, Object> buildResult(Document doc, float score) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("chunkId", Long.parseLong(doc.get(ChunkDocuments.FIELD_CHUNK_ID)));
+        result.put("docId", Long.parseLong(doc.get(ChunkDocuments.FIELD_DOC_ID)));
+        result.put("content", doc.get(ChunkDocuments.FIELD_CONTENT));
+        result.put("similarity", score); // 相似度得分（越高越相关）
+        IndexableField chunkIndexField = doc.getField(ChunkDocuments.FIELD_CHUNK_INDEX);
+        result.put("chunkIndex", chunkIndexField == null ? null : chunkIndexField.numericValue().intValue());
+        return result;
+    }
+
+    /**
+     * 私有方法：计算分片向量并写入向量索引（未开启向量检索时跳过；分片内容不可变，已有向量的分片不重新向量化）
+     */
+    private void addVectors(List<KbDocumentChunk> chunkList) {
+        HnswVectorIndex vectorIndex = vectorIndexProvider.getIfAvailable();
+        EmbeddingClient embeddingClient = embeddingClientProvider.getIfAvailable();
+        if (vectorIndex == null || embeddingClient == null || chunkList.isEmpty()) {
+            return;
+        }
+        chunkList = chunkList.stream().filter(chunk -> !vectorIndex.contains(chunk.getId())).toList();
+        if (chunkList.isEmpty()) {
+            return;
+        }
+        List<float[]> vectors = embeddingClient.embedBatch(chunkList.stream().map(KbDocumentChunk::getChunkContent).toList());
+        for (int i = 0; i < chunkList.size(); i++) {
+            KbDocumentChunk chunk = chunkList.get(i);
+            vectorIndex.add(chunk.getId(), chunk.getDocumentId(), chunk.getUserId(), vectors.get(i));
+        }
+    }
+
+    /**
+     * 私有方法：索引变更后立即刷新Searcher（读己之写），再清空本地检索缓存（索引代数由组提交成功后递增）
+     */
+    private void onIndexChanged() throws IOException {
+        shardedIndexManager.refresh();
+        ragResultCache.clearLocal();
+    }
+
+}
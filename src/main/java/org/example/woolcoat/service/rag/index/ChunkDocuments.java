@@ -0,0 +1,78 @@
+package org.example.woolcoat.service.rag.index;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.example.woolcoat.entity.KbDocumentChunk;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 文档分片与Lucene Document的映射（字段定义，在线写入与全量重建共用）
+ */
+public final class ChunkDocuments {
+
+    // Lucene字段名定义
+    public static final String FIELD_CHUNK_ID = "chunkId"; // 分片ID
+    public static final String FIELD_DOC_ID = "docId"; // 文档ID
+    public static final String FIELD_USER_ID = "userId"; // 用户ID（归属过滤）
+    public static final String FIELD_CHUNK_INDEX = "chunkIndex"; // 分片序号
+    public static final String FIELD_CONTENT = "content"; // 分片内容
+
+    private ChunkDocuments() {
+    }
+
+    /**
+     * 分片是否需要写入索引（内容为空、没有归属用户的分片不写入；别名分片共用规范分片的索引条目）
+     */
+    public static boolean isIndexable(KbDocumentChunk chunk) {
+        return chunk.getChunkContent() != null && !chunk.getChunkContent().isBlank() && chunk.getUserId() != null
+                && chunk.getCanonicalChunkId() == null;
+    }
+
+    /**
+     * 构建分片对应的Lucene Document
+     */
+    public static Document build(KbDocumentChunk chunk) {
+        Document doc = new Document();
+        doc.add(new LongPoint(FIELD_CHUNK_ID, chunk.getId())); // 分片ID（可检索）
+        doc.add(new StringField(FIELD_CHUNK_ID, chunk.getId().toString(), Field.Store.YES)); // 存储分片ID
+        doc.add(new LongPoint(FIELD_DOC_ID, chunk.getDocumentId())); // 文档ID（可检索）
+        doc.add(new StringField(FIELD_DOC_ID, chunk.getDocumentId().toString(), Field.Store.YES)); // 存储文档ID
+        doc.add(new StringField(FIELD_USER_ID, chunk.getUserId(), Field.Store.NO)); // 用户ID（仅用于过滤）
+        if (chunk.getChunkIndex() != null) {
+            doc.add(new StoredField(FIELD_CHUNK_INDEX, chunk.getChunkIndex())); // 分片序号（仅存储）
+        }
+        doc.add(new TextField(FIELD_CONTENT, chunk.getChunkContent(), Field.Store.YES)); // 分片内容（分词+存储）
+        return doc;
+    }
+
+    /**
+     * 分片ID对应的唯一词项（按分片ID覆盖写入，重复写入同一分片不会产生重复文档）
+     */
+    public static Term chunkIdTerm(Long chunkId) {
+        return new Term(FIELD_CHUNK_ID, chunkId.toString());
+    }
+
+    /**
+     * 索引中属于该文档的全部分片ID（与数据库对账时使用）
+     */
+    public static Set<Long> collectChunkIds(IndexSearcher searcher, Long docId) throws IOException {
+        Set<Long> chunkIds = new HashSet<>();
+        TermQuery query = new TermQuery(new Term(FIELD_DOC_ID, docId.toString()));
+        int limit = Math.max(1, searcher.count(query));
+        for (ScoreDoc scoreDoc : searcher.search(query, limit).scoreDocs) {
+            chunkIds.add(Long.parseLong(searcher.doc(scoreDoc.doc, Set.of(FIELD_CHUNK_ID)).get(FIELD_CHUNK_ID)));
+        }
+        return chunkIds;
+    }
+}
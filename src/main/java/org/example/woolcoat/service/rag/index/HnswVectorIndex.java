@@ -0,0 +1,618 @@
+package org.example.woolcoat.service.rag.index;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 进程内HNSW向量索引（余弦相似度，向量写入时归一化）
+ * 每个节点对应一个分片，记录分片ID、文档ID、用户ID；检索时在第0层按用户ID过滤，只返回当前用户的分片。
+ * 过滤检索访问的节点数以当前用户的有效向量数为上限：用户向量不超过候选集大小，或图搜索访问超过该上限时
+ * （小租户的节点稀疏分布在其他租户的图中），改为直接计算该用户全部向量的相似度，代价不超过用户自身的向量数。
+ * 删除采用标记删除（节点仍参与图导航），标记删除占比超过 1/3 时在保存前重建图。
+ * 索引通过 save() 持久化到单个文件（先写临时文件再原子替换），启动时由 open() 加载。
+ */
+@Slf4j
+public class HnswVectorIndex implements Closeable {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    private static final int VERSION = 1;
+
+    /**
+     * 向量检索命中
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class VectorHit {
+        private final long chunkId;
+        private final long docId;
+        private final float score; // 余弦相似度（越高越相关）
+    }
+
+    private static class Node {
+        final long chunkId;
+        final long docId;
+        final String userId;
+        final float[] vector;
+        final int level;
+        final int[][] links;
+        final int[] linkCounts;
+        boolean deleted;
+
+        Node(long chunkId, long docId, String userId, float[] vector, int level) {
+            this.chunkId = chunkId;
+            this.docId = docId;
+            this.userId = userId;
+            this.vector = vector;
+            this.level = level;
+            this.links = new int[level + 1][];
+            this.linkCounts = new int[level + 1];
+            Arrays.fill(links, new int[0]);
+        }
+    }
+
+    private record Scored(int ord, float score) {
+    }
+
+    private final Path indexFile;
+    private final int m; // 第1层及以上每个节点的最大邻居数
+    private final int maxM0; // 第0层每个节点的最大邻居数
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final Map<Long, Integer> chunkOrdinals = new HashMap<>();
+    private final Map<String, List<Integer>> userOrdinals = new HashMap<>(); // 用户ID -> 节点序号（含已删除节点）
+    private final Map<String, Integer> userLiveCounts = new HashMap<>(); // 用户ID -> 有效向量数
+    private int dimension = 0;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int deletedCount = 0;
+    private boolean dirty = false;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object saveLock = new Object();
+
+    private HnswVectorIndex(Path indexFile, int m, int efConstruction, int efSearch) {
+        this.indexFile = indexFile;
+        this.m = Math.max(2, m);
+        this.maxM0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.efSearch = Math.max(1, efSearch);
+        this.levelMultiplier = 1 / Math.log(this.m);
+    }
+
+    /**
+     * 打开向量索引（索引文件存在则加载，否则创建空索引）
+     * @param indexFile 索引文件路径
+     * @param m 每个节点的最大邻居数（第0层为 2m）
+     * @param efConstruction 构建时的候选集大小
+     * @param efSearch 检索时的候选集大小
+     */
+    public static HnswVectorIndex open(Path indexFile, int m, int efConstruction, int efSearch) throws IOException {
+        HnswVectorIndex index = new HnswVectorIndex(indexFile, m, efConstruction, efSearch);
+        if (Files.exists(indexFile)) {
+            index.load();
+        }
+        log.info("向量索引加载完成：file={}，节点数={}，已删除={}，维度={}",
+                indexFile, index.nodes.size(), index.deletedCount, index.dimension);
+        return index;
+    }
+
+    /**
+     * 写入分片向量（同一分片ID重复写入时覆盖旧向量）
+     */
+    public void add(long chunkId, long docId, String userId, float[] vector) {
+        float[] normalized = normalize(vector);
+        lock.writeLock().lock();
+        try {
+            if (dimension == 0) {
+                dimension = normalized.length;
+            } else if (dimension != normalized.length) {
+                throw new IllegalArgumentException("向量维度不一致：期望" + dimension + "，实际" + normalized.length);
+            }
+            Integer old = chunkOrdinals.get(chunkId);
+            if (old != null) {
+                markDeleted(old);
+            }
+            int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+            int ord = nodes.size();
+            nodes.add(new Node(chunkId, docId, userId, normalized, level));
+            chunkOrdinals.put(chunkId, ord);
+            trackUser(userId, ord);
+            insertNode(ord);
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 检索与查询向量最相似的分片（仅返回指定用户的分片）
+     */
+    public List<VectorHit> search(float[] query, int topK, String userId) {
+        float[] normalized = normalize(query);
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || topK <= 0) {
+                return new ArrayList<>();
+            }
+            if (normalized.length != dimension) {
+                throw new IllegalArgumentException("查询向量维度不一致：期望" + dimension + "，实际" + normalized.length);
+            }
+            int live = userLiveCounts.getOrDefault(userId, 0);
+            if (live == 0) {
+                return new ArrayList<>();
+            }
+            int ef = Math.max(efSearch, topK);
+            List<Scored> scored = null;
+            if (live > ef) {
+                int ep = entryPoint;
+                for (int level = maxLevel; level > 0; level--) {
+                    ep = greedySearch(normalized, ep, level);
+                }
+                IntPredicate accept = ord -> {
+                    Node node = nodes.get(ord);
+                    return !node.deleted && node.userId.equals(userId);
+                };
+                scored = searchLayer(normalized, ep, ef, 0, accept, live);
+            }
+            if (scored == null) {
+                scored = exactSearch(normalized, userId, topK);
+            }
+            List<VectorHit> hits = new ArrayList<>(Math.min(topK, scored.size()));
+            for (Scored s : scored) {
+                if (hits.size() >= topK) {
+                    break;
+                }
+                Node node = nodes.get(s.ord());
+                hits.add(new VectorHit(node.chunkId, node.docId, s.score()));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 标记删除指定文档的所有分片向量
+     * @return 删除的分片数
+     */
+    public int deleteByDocId(long docId) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (int ord = 0; ord < nodes.size(); ord++) {
+                Node node = nodes.get(ord);
+                if (!node.deleted && node.docId == docId) {
+                    markDeleted(ord);
+                    chunkOrdinals.remove(node.chunkId, ord);
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                dirty = true;
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 标记删除指定分片的向量
+     * @return 删除的分片数
+     */
+    public int deleteByChunkIds(Collection<Long> chunkIds) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (Long chunkId : chunkIds) {
+                Integer ord = chunkOrdinals.remove(chunkId);
+                if (ord != null) {
+                    markDeleted(ord);
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                dirty = true;
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 分片向量是否已在索引中（分片内容不可变，已存在时无需重新向量化）
+     */
+    public boolean contains(long chunkId) {
+        lock.readLock().lock();
+        try {
+            return chunkOrdinals.containsKey(chunkId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从索引文件重新加载（只读副本拉取到新的索引文件后调用；文件损坏时保留当前数据并抛出异常）
+     */
+    public void reload() throws IOException {
+        HnswVectorIndex loaded = new HnswVectorIndex(indexFile, m, efConstruction, efSearch);
+        loaded.load();
+        lock.writeLock().lock();
+        try {
+            nodes.clear();
+            nodes.addAll(loaded.nodes);
+            chunkOrdinals.clear();
+            chunkOrdinals.putAll(loaded.chunkOrdinals);
+            userOrdinals.clear();
+            userOrdinals.putAll(loaded.userOrdinals);
+            userLiveCounts.clear();
+            userLiveCounts.putAll(loaded.userLiveCounts);
+            dimension = loaded.dimension;
+            entryPoint = loaded.entryPoint;
+            maxLevel = loaded.maxLevel;
+            deletedCount = loaded.deletedCount;
+            dirty = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("向量索引重新加载完成：file={}，节点数={}", indexFile, nodes.size());
+    }
+
+    /**
+     * 有效（未删除）分片向量数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodes.size() - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 持久化索引（无变更时跳过；标记删除过多时先重建图）
+     */
+    public void save() throws IOException {
+        synchronized (saveLock) {
+            lock.writeLock().lock();
+            try {
+                if (deletedCount > 0 && deletedCount * 3 > nodes.size()) {
+                    compact();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            lock.readLock().lock();
+            try {
+                if (!dirty) {
+                    return;
+                }
+                Files.createDirectories(indexFile.toAbsolutePath().getParent());
+                Path tmpFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                    writeTo(out);
+                }
+                Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                dirty = false;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        save();
+        log.info("向量索引已关闭：file={}", indexFile);
+    }
+
+    // ========== HNSW 构建/检索 ==========
+
+    private void insertNode(int ord) {
+        Node node = nodes.get(ord);
+        if (entryPoint < 0) {
+            entryPoint = ord;
+            maxLevel = node.level;
+            return;
+        }
+        int ep = entryPoint;
+        for (int level = maxLevel; level > node.level; level--) {
+            ep = greedySearch(node.vector, ep, level);
+        }
+        for (int level = Math.min(node.level, maxLevel); level >= 0; level--) {
+            List<Scored> candidates = searchLayer(node.vector, ep, efConstruction, level, o -> o != ord, Integer.MAX_VALUE);
+            int maxLinks = level == 0 ? maxM0 : m;
+            for (int i = 0; i < candidates.size() && i < maxLinks; i++) {
+                int neighbor = candidates.get(i).ord();
+                addLink(ord, neighbor, level);
+                addLink(neighbor, ord, level);
+            }
+            if (!candidates.isEmpty()) {
+                ep = candidates.get(0).ord();
+            }
+        }
+        if (node.level > maxLevel) {
+            maxLevel = node.level;
+            entryPoint = ord;
+        }
+    }
+
+    // 追加邻居，超过上限时只保留与该节点最相似的邻居
+    private void addLink(int from, int to, int level) {
+        Node node = nodes.get(from);
+        int count = node.linkCounts[level];
+        int[] links = node.links[level];
+        if (count == links.length) {
+            links = Arrays.copyOf(links, Math.max(4, count * 2));
+            node.links[level] = links;
+        }
+        links[count++] = to;
+        int maxLinks = level == 0 ? maxM0 : m;
+        if (count > maxLinks) {
+            Integer[] sorted = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                sorted[i] = links[i];
+            }
+            Arrays.sort(sorted, Comparator.comparingDouble(o -> -similarity(node.vector, nodes.get(o).vector)));
+            for (int i = 0; i < maxLinks; i++) {
+                links[i] = sorted[i];
+            }
+            count = maxLinks;
+        }
+        node.linkCounts[level] = count;
+    }
+
+    private int greedySearch(float[] query, int ep, int level) {
+        int current = ep;
+        float best = similarity(query, nodes.get(current).vector);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Node node = nodes.get(current);
+            for (int i = 0; i < node.linkCounts[level]; i++) {
+                int neighbor = node.links[level][i];
+                float score = similarity(query, nodes.get(neighbor).vector);
+                if (score > best) {
+                    best = score;
+                    current = neighbor;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在指定层做束搜索，返回满足 accept 的前 ef 个节点（按相似度降序）
+     * 不满足 accept 的节点仍用于导航，保证过滤检索的召回；访问节点数超过 visitLimit 时放弃并返回null
+     */
+    private List<Scored> searchLayer(float[] query, int ep, int ef, int level, IntPredicate accept, int visitLimit) {
+        BitSet visited = new BitSet(nodes.size());
+        int visitedCount = 1;
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(Comparator.comparingDouble(s -> -s.score()));
+        PriorityQueue<Scored> results = new PriorityQueue<>(Comparator.comparingDouble(Scored::score));
+        Scored start = new Scored(ep, similarity(query, nodes.get(ep).vector));
+        visited.set(ep);
+        candidates.add(start);
+        if (accept.test(ep)) {
+            results.add(start);
+        }
+        while (!candidates.isEmpty()) {
+            Scored current = candidates.poll();
+            if (results.size() >= ef && current.score() < results.peek().score()) {
+                break;
+            }
+            Node node = nodes.get(current.ord());
+            for (int i = 0; i < node.linkCounts[level]; i++) {
+                int neighbor = node.links[level][i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                if (++visitedCount > visitLimit) {
+                    return null;
+                }
+                float score = similarity(query, nodes.get(neighbor).vector);
+                if (results.size() < ef || score > results.peek().score()) {
+                    Scored scored = new Scored(neighbor, score);
+                    candidates.add(scored);
+                    if (accept.test(neighbor)) {
+                        results.add(scored);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+        List<Scored> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble(s -> -s.score()));
+        return sorted;
+    }
+
+    /**
+     * 直接计算指定用户全部有效向量的相似度，返回前 topK 个节点（按相似度降序）
+     */
+    private List<Scored> exactSearch(float[] query, String userId, int topK) {
+        PriorityQueue<Scored> results = new PriorityQueue<>(Comparator.comparingDouble(Scored::score));
+        for (int ord : userOrdinals.getOrDefault(userId, List.of())) {
+            Node node = nodes.get(ord);
+            if (node.deleted) {
+                continue;
+            }
+            results.add(new Scored(ord, similarity(query, node.vector)));
+            if (results.size() > topK) {
+                results.poll();
+            }
+        }
+        List<Scored> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble(s -> -s.score()));
+        return sorted;
+    }
+
+    private void trackUser(String userId, int ord) {
+        userOrdinals.computeIfAbsent(userId, k -> new ArrayList<>()).add(ord);
+        if (!nodes.get(ord).deleted) {
+            userLiveCounts.merge(userId, 1, Integer::sum);
+        }
+    }
+
+    private void markDeleted(int ord) {
+        Node node = nodes.get(ord);
+        if (!node.deleted) {
+            node.deleted = true;
+            deletedCount++;
+            userLiveCounts.computeIfPresent(node.userId, (k, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    // 丢弃已删除节点，用剩余节点重建图
+    private void compact() {
+        List<Node> live = new ArrayList<>(nodes.size() - deletedCount);
+        for (Node node : nodes) {
+            if (!node.deleted) {
+                live.add(node);
+            }
+        }
+        nodes.clear();
+        chunkOrdinals.clear();
+        userOrdinals.clear();
+        userLiveCounts.clear();
+        entryPoint = -1;
+        maxLevel = -1;
+        deletedCount = 0;
+        for (Node old : live) {
+            int ord = nodes.size();
+            nodes.add(new Node(old.chunkId, old.docId, old.userId, old.vector, old.level));
+            chunkOrdinals.put(old.chunkId, ord);
+            trackUser(old.userId, ord);
+            insertNode(ord);
+        }
+        dirty = true;
+        log.info("向量索引重建完成：file={}，节点数={}", indexFile, nodes.size());
+    }
+
+    private static float similarity(float[] a, float[] b) {
+        float dot = 0f;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+
+    private static float[] normalize(float[] vector) {
+        if (vector == null || vector.length == 0) {
+            throw new IllegalArgumentException("向量不能为空");
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    // ========== 持久化 ==========
+
+    private void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(dimension);
+        out.writeInt(nodes.size());
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        for (Node node : nodes) {
+            out.writeLong(node.chunkId);
+            out.writeLong(node.docId);
+            out.writeUTF(node.userId);
+            out.writeBoolean(node.deleted);
+            out.writeInt(node.level);
+            for (float v : node.vector) {
+                out.writeFloat(v);
+            }
+            for (int level = 0; level <= node.level; level++) {
+                out.writeInt(node.linkCounts[level]);
+                for (int i = 0; i < node.linkCounts[level]; i++) {
+                    out.writeInt(node.links[level][i]);
+                }
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("向量索引文件格式不正确：" + indexFile);
+            }
+            dimension = in.readInt();
+            int size = in.readInt();
+            entryPoint = in.readInt();
+            maxLevel = in.readInt();
+            for (int ord = 0; ord < size; ord++) {
+                long chunkId = in.readLong();
+                long docId = in.readLong();
+                String userId = in.readUTF();
+                boolean deleted = in.readBoolean();
+                int level = in.readInt();
+                float[] vector = new float[dimension];
+                for (int i = 0; i < dimension; i++) {
+                    vector[i] = in.readFloat();
+                }
+                Node node = new Node(chunkId, docId, userId, vector, level);
+                for (int l = 0; l <= level; l++) {
+                    int count = in.readInt();
+                    int[] links = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        links[i] = in.readInt();
+                    }
+                    node.links[l] = links;
+                    node.linkCounts[l] = count;
+                }
+                node.deleted = deleted;
+                nodes.add(node);
+                trackUser(userId, ord);
+                if (deleted) {
+                    deletedCount++;
+                } else {
+                    chunkOrdinals.put(chunkId, ord);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.example.woolcoat.service.rag.index;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Lucene索引目录布局：索引根目录下的 index.current 记录当前生效的索引目录（全量重建生成的 gen-{时间} 子目录），
+ * 不存在时直接使用索引根目录（兼容已有索引）。分片数为1时索引文件直接放在生效目录下，否则按 shard-{序号} 建子目录。
+ */
+@Slf4j
+public class IndexLayout {
+
+    private static final String CURRENT_FILE = "index.current";
+    private static final String GENERATION_PREFIX = "gen-";
+    private static final String SHARD_PREFIX = "shard-";
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final Path root;
+    private final int shardCount;
+
+    public IndexLayout(Path root, int shardCount) {
+        this.root = root;
+        this.shardCount = Math.max(shardCount, 1);
+    }
+
+    /**
+     * 当前生效的索引目录
+     */
+    public Path currentBase() throws IOException {
+        Path currentFile = root.resolve(CURRENT_FILE);
+        if (Files.exists(currentFile)) {
+            String name = Files.readString(currentFile, StandardCharsets.UTF_8).trim();
+            if (!name.isEmpty() && Files.isDirectory(root.resolve(name))) {
+                return root.resolve(name);
+            }
+            log.warn("索引目录指针指向的目录不存在，使用索引根目录：{}", name);
+        }
+        return root;
+    }
+
+    /**
+     * 指定索引目录下各分片的目录（按序号排列）
+     */
+    public List<Path> shardDirs(Path base) {
+        List<Path> dirs = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            dirs.add(shardCount == 1 ? base : base.resolve(SHARD_PREFIX + i));
+        }
+        return dirs;
+    }
+
+    /**
+     * 为全量重建创建新的空索引目录（切换前不影响当前索引）
+     */
+    public Path newBase() throws IOException {
+        Path base = root.resolve(GENERATION_PREFIX + LocalDateTime.now().format(NAME_FORMAT));
+        for (Path dir : shardDirs(base)) {
+            Files.createDirectories(dir);
+        }
+        return base;
+    }
+
+    /**
+     * 把生效目录切换为指定目录（先写临时文件再原子替换，重启后打开新目录）
+     */
+    public void switchTo(Path base) throws IOException {
+        Path tmp = root.resolve(CURRENT_FILE + ".tmp");
+        Files.writeString(tmp, root.relativize(base).toString(), StandardCharsets.UTF_8);
+        Files.move(tmp, root.resolve(CURRENT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 删除不再生效的索引目录（根目录只删除索引文件与分片子目录，保留指针文件和其他索引目录）
+     */
+    public void deleteBase(Path base) throws IOException {
+        if (!base.equals(root)) {
+            deleteRecursively(base);
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (Files.isRegularFile(path) && !name.startsWith(CURRENT_FILE)) {
+                    Files.deleteIfExists(path);
+                } else if (Files.isDirectory(path) && name.startsWith(SHARD_PREFIX)) {
+                    deleteRecursively(path);
+                }
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package org.example.woolcoat.service.rag.index;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * Lucene索引管理器（一个Directory对应唯一的IndexWriter + 近实时SearcherManager）
+ * 写入共享同一个IndexWriter，避免并发上传抢写锁；检索从SearcherManager获取已预热的IndexSearcher，
+ * 后台刷新线程按 refreshIntervalMs 周期刷新，新写入的分片在刷新间隔内可见。
+ * 传入 searchExecutor 时，IndexSearcher 按段切片并行检索（单次查询可利用多核）。
+ * 只读副本模式（openReplica）下没有IndexWriter，索引文件由复制任务写入目录后调用 refresh 打开新提交。
+ */
+@Slf4j
+public class LuceneIndexManager implements Closeable {
+
+    /**
+     * 检索回调（在已获取的IndexSearcher上执行，执行完自动归还）
+     */
+    @FunctionalInterface
+    public interface SearcherCallback<T> {
+        T apply(IndexSearcher searcher) throws IOException;
+    }
+
+    @Getter
+    private final String name;
+    // 索引实例标识（每次打开/全量重建生成新值；只读副本据此判断主节点是否换了一个索引，不能只比较提交代数）
+    @Getter
+    private final String instanceId = UUID.randomUUID().toString();
+    @Getter
+    private final Directory directory;
+    private final IndexWriter indexWriter; // 只读副本为null
+    @Getter
+    private final SnapshotDeletionPolicy snapshotPolicy; // 提交快照（复制期间保留提交文件不被删除），只读副本为null
+    private final SearcherFactory searcherFactory;
+    private volatile SearcherManager searcherManager; // 只读副本在首次复制完成前为null
+    private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+    // 只读副本尚无索引时使用的空Searcher
+    private final IndexSearcher emptySearcher = new IndexSearcher(new MultiReader());
+
+    public LuceneIndexManager(String name, Directory directory, Analyzer analyzer, long refreshIntervalMs) throws IOException {
+        this(name, directory, analyzer, refreshIntervalMs, null);
+    }
+
+    public LuceneIndexManager(String name, Directory directory, Analyzer analyzer, long refreshIntervalMs,
+                              Executor searchExecutor) throws IOException {
+        this.name = name;
+        this.directory = directory;
+        this.searcherFactory = buildSearcherFactory(searchExecutor);
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND); // 追加模式
+        this.snapshotPolicy = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+        config.setIndexDeletionPolicy(snapshotPolicy);
+        this.indexWriter = new IndexWriter(directory, config);
+        if (!DirectoryReader.indexExists(directory)) {
+            indexWriter.commit(); // 空索引先提交一次，保证始终存在可快照/复制的提交点
+        }
+        // 基于IndexWriter的近实时Searcher（无需commit即可看到新写入）
+        this.searcherManager = new SearcherManager(indexWriter, true, false, searcherFactory);
+        double maxStaleSec = Math.max(refreshIntervalMs, 1L) / 1000.0;
+        this.reopenThread = new ControlledRealTimeReopenThread<>(indexWriter, searcherManager, maxStaleSec, 0.0);
+        this.reopenThread.setName("lucene-nrt-refresh-" + name);
+        this.reopenThread.setDaemon(true);
+        this.reopenThread.start();
+        log.info("Lucene索引管理器初始化完成：name={}，refreshIntervalMs={}", name, refreshIntervalMs);
+    }
+
+    // 只读副本构造
+    private LuceneIndexManager(String name, Directory directory, Executor searchExecutor) throws IOException {
+        this.name = name;
+        this.directory = directory;
+        this.searcherFactory = buildSearcherFactory(searchExecutor);
+        this.indexWriter = null;
+        this.snapshotPolicy = null;
+        this.reopenThread = null;
+        if (DirectoryReader.indexExists(directory)) {
+            this.searcherManager = new SearcherManager(directory, searcherFactory);
+        }
+        log.info("Lucene只读索引副本初始化完成：name={}", name);
+    }
+
+    /**
+     * 打开只读索引副本（不持有写锁，索引文件由复制任务从主节点拉取）
+     */
+    public static LuceneIndexManager openReplica(String name, Directory directory, Executor searchExecutor) throws IOException {
+        return new LuceneIndexManager(name, directory, searchExecutor);
+    }
+
+    private static SearcherFactory buildSearcherFactory(Executor searchExecutor) {
+        return new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+                return new IndexSearcher(reader, searchExecutor);
+            }
+        };
+    }
+
+    /**
+     * 是否只读副本
+     */
+    public boolean isReadOnly() {
+        return indexWriter == null;
+    }
+
+    /**
+     * 获取共享IndexWriter（只读副本不允许写入）
+     */
+    public IndexWriter getIndexWriter() {
+        if (indexWriter == null) {
+            throw new IllegalStateException("索引[" + name + "]为只读副本，不能写入，请在主节点上传/删除文档");
+        }
+        return indexWriter;
+    }
+
+    /**
+     * 获取一个近实时IndexSearcher执行检索，执行完毕后归还
+     */
+    public <T> T search(SearcherCallback<T> callback) throws IOException {
+        IndexSearcher searcher = acquire();
+        try {
+            return callback.apply(searcher);
+        } finally {
+            release(searcher);
+        }
+    }
+
+    /**
+     * 获取近实时IndexSearcher（调用方必须通过 release 归还，跨分片检索时使用）
+     */
+    public IndexSearcher acquire() throws IOException {
+        SearcherManager manager = searcherManager;
+        return manager == null ? emptySearcher : manager.acquire();
+    }
+
+    /**
+     * 归还 acquire 获取的IndexSearcher
+     */
+    public void release(IndexSearcher searcher) throws IOException {
+        if (searcher == emptySearcher) {
+            return;
+        }
+        SearcherManager manager = searcherManager;
+        if (manager != null) {
+            manager.release(searcher);
+        } else {
+            searcher.getIndexReader().decRef(); // reopen 期间获取的Searcher
+        }
+    }
+
+    /**
+     * 提交索引（持久化到磁盘，只读副本无操作）
+     */
+    public void commit() throws IOException {
+        if (indexWriter != null) {
+            indexWriter.commit();
+        }
+    }
+
+    /**
+     * 提交索引并写入提交用户数据（如已持久化的最大分片ID，崩溃恢复时读取；只读副本无操作）
+     */
+    public void commit(Map<String, String> userData) throws IOException {
+        if (indexWriter != null) {
+            indexWriter.setLiveCommitData(userData.entrySet());
+            indexWriter.commit();
+        }
+    }
+
+    /**
+     * 最近一次提交的用户数据（尚无提交时返回空Map）
+     */
+    public Map<String, String> getCommitUserData() throws IOException {
+        if (!DirectoryReader.indexExists(directory)) {
+            return Map.of();
+        }
+        return SegmentInfos.readLatestCommit(directory).getUserData();
+    }
+
+    /**
+     * 立即刷新Searcher（阻塞到刷新完成，用于需要读己之写的场景；只读副本打开目录中最新的提交）
+     */
+    public void refresh() throws IOException {
+        SearcherManager manager = searcherManager;
+        if (manager != null) {
+            manager.maybeRefreshBlocking();
+            return;
+        }
+        synchronized (this) {
+            if (searcherManager == null && DirectoryReader.indexExists(directory)) {
+                searcherManager = new SearcherManager(directory, searcherFactory);
+            }
+        }
+    }
+
+    /**
+     * 重新打开目录中最新的提交（只读副本的主节点索引被全量重建替换时使用，不复用旧段的Reader）
+     */
+    public synchronized void reopen() throws IOException {
+        if (indexWriter != null) {
+            throw new IllegalStateException("索引[" + name + "]不是只读副本，不能重新打开");
+        }
+        SearcherManager old = searcherManager;
+        searcherManager = DirectoryReader.indexExists(directory) ? new SearcherManager(directory, searcherFactory) : null;
+        if (old != null) {
+            old.close(); // 进行中的检索持有的Reader在归还后释放
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reopenThread != null) {
+            reopenThread.close();
+        }
+        if (searcherManager != null) {
+            searcherManager.close();
+        }
+        if (indexWriter != null && indexWriter.isOpen()) {
+            indexWriter.close(); // close 会先 commit 未提交的变更
+        }
+        log.info("Lucene索引管理器已关闭：name={}", name);
+    }
+}
@@ -0,0 +1,262 @@
+package org.example.woolcoat.service.rag.index;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermStatistics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * 分片Lucene索引管理器（按用户ID哈希路由到分片，每个分片独立的IndexWriter + 近实时Searcher）
+ * 同一用户的分片只写入一个索引分片，检索只需查询该分片；检索时使用全部分片汇总的词项/字段统计，
+ * BM25打分与分片数无关（与不分片时一致）。提交、刷新、按文档删除等操作在线程池上并行扇出到所有分片。
+ * 全量重建完成后通过 swap 原子切换到新的分片组，各操作开始时读取一次当前分片组，进行中的检索继续使用旧分片。
+ */
+@Slf4j
+public class ShardedIndexManager implements Closeable {
+
+    /**
+     * 分片写入回调（在指定分片的IndexWriter上执行）
+     */
+    @FunctionalInterface
+    public interface WriterCallback {
+        void apply(IndexWriter writer) throws IOException;
+    }
+
+    private volatile List<LuceneIndexManager> shards;
+    private final Executor executor;
+
+    /**
+     * @param shards 索引分片（顺序决定路由，分片数变更后需重建索引）
+     * @param executor 分片扇出与段级并行检索使用的线程池
+     */
+    public ShardedIndexManager(List<LuceneIndexManager> shards, Executor executor) {
+        if (shards == null || shards.isEmpty()) {
+            throw new IllegalArgumentException("索引分片不能为空");
+        }
+        this.shards = List.copyOf(shards);
+        this.executor = executor;
+        log.info("分片索引管理器初始化完成：分片数={}", shards.size());
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * 原子切换到新的分片组（分片数必须一致），返回旧分片组（由调用方在进行中的检索结束后关闭）
+     */
+    public synchronized List<LuceneIndexManager> swap(List<LuceneIndexManager> newShards) {
+        if (newShards == null || newShards.size() != shards.size()) {
+            throw new IllegalArgumentException("切换的索引分片数与当前不一致");
+        }
+        List<LuceneIndexManager> oldShards = shards;
+        shards = List.copyOf(newShards);
+        log.info("分片索引已切换：分片数={}", newShards.size());
+        return oldShards;
+    }
+
+    /**
+     * 全部分片（按序号排列，索引复制时使用）
+     */
+    public List<LuceneIndexManager> getShards() {
+        return shards;
+    }
+
+    /**
+     * 用户ID路由到的分片序号
+     */
+    public int shardOf(String userId) {
+        return shardOf(userId, shards.size());
+    }
+
+    /**
+     * 用户ID在指定分片数下路由到的分片序号（全量重建写入新分片组时使用）
+     */
+    public static int shardOf(String userId, int shardCount) {
+        return Math.floorMod(userId.hashCode(), shardCount);
+    }
+
+    /**
+     * 用户ID路由到的分片
+     */
+    public LuceneIndexManager shardFor(String userId) {
+        List<LuceneIndexManager> current = shards;
+        return current.get(shardOf(userId, current.size()));
+    }
+
+    /**
+     * 按序号获取分片
+     */
+    public LuceneIndexManager shardFor(int shard) {
+        return shards.get(shard);
+    }
+
+    /**
+     * 在用户所在分片上检索（使用全局词项统计打分），执行完毕后归还所有Searcher
+     */
+    public <T> T search(String userId, LuceneIndexManager.SearcherCallback<T> callback) throws IOException {
+        List<LuceneIndexManager> shards = this.shards;
+        if (shards.size() == 1) {
+            return shards.get(0).search(callback);
+        }
+        int target = shardOf(userId, shards.size());
+        IndexSearcher[] searchers = new IndexSearcher[shards.size()];
+        try {
+            IndexReader[] readers = new IndexReader[shards.size()];
+            for (int i = 0; i < shards.size(); i++) {
+                searchers[i] = shards.get(i).acquire();
+                readers[i] = searchers[i].getIndexReader();
+            }
+            IndexSearcher searcher = new GlobalStatsIndexSearcher(readers[target], executor, readers);
+            searcher.setSimilarity(searchers[target].getSimilarity());
+            return callback.apply(searcher);
+        } finally {
+            for (int i = 0; i < searchers.length; i++) {
+                if (searchers[i] != null) {
+                    shards.get(i).release(searchers[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在所有分片的IndexWriter上并行执行写操作（如按文档ID删除）
+     */
+    public void forEachWriter(WriterCallback callback) throws IOException {
+        fanOut(shard -> callback.apply(shard.getIndexWriter()));
+    }
+
+    /**
+     * 并行提交所有分片
+     */
+    public void commit() throws IOException {
+        fanOut(LuceneIndexManager::commit);
+    }
+
+    /**
+     * 并行提交所有分片，并写入相同的提交用户数据
+     */
+    public void commit(Map<String, String> userData) throws IOException {
+        fanOut(shard -> shard.commit(userData));
+    }
+
+    /**
+     * 并行刷新所有分片的Searcher（阻塞到刷新完成）
+     */
+    public void refresh() throws IOException {
+        fanOut(LuceneIndexManager::refresh);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeAll(shards);
+    }
+
+    /**
+     * 关闭一组分片（切换后关闭旧分片组时使用）
+     */
+    public static void closeAll(List<LuceneIndexManager> shards) throws IOException {
+        IOException error = null;
+        for (LuceneIndexManager shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ShardTask {
+        void apply(LuceneIndexManager shard) throws IOException;
+    }
+
+    // 单分片时直接在调用线程执行，多分片时在线程池上并行执行并等待全部完成
+    private void fanOut(ShardTask task) throws IOException {
+        List<LuceneIndexManager> shards = this.shards;
+        if (shards.size() == 1) {
+            task.apply(shards.get(0));
+            return;
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(shards.size());
+        for (LuceneIndexManager shard : shards) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    task.apply(shard);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 使用全部分片汇总统计的IndexSearcher（只检索目标分片，但docFreq/文档总数等按全局计算）
+     */
+    private static class GlobalStatsIndexSearcher extends IndexSearcher {
+
+        private final IndexReader[] allReaders;
+
+        GlobalStatsIndexSearcher(IndexReader reader, Executor executor, IndexReader[] allReaders) {
+            super(reader, executor);
+            this.allReaders = allReaders;
+        }
+
+        @Override
+        public TermStatistics termStatistics(Term term, int docFreq, long totalTermFreq) throws IOException {
+            if (docFreq == 0) {
+                return null; // 目标分片不含该词项，不参与打分
+            }
+            long globalDocFreq = 0;
+            long globalTotalTermFreq = 0;
+            for (IndexReader reader : allReaders) {
+                globalDocFreq += reader.docFreq(term);
+                globalTotalTermFreq += reader.totalTermFreq(term);
+            }
+            return new TermStatistics(term.bytes(), globalDocFreq, globalTotalTermFreq);
+        }
+
+        @Override
+        public CollectionStatistics collectionStatistics(String field) throws IOException {
+            long maxDoc = 0;
+            long docCount = 0;
+            long sumTotalTermFreq = 0;
+            long sumDocFreq = 0;
+            for (IndexReader reader : allReaders) {
+                maxDoc += reader.maxDoc();
+                docCount += reader.getDocCount(field);
+                sumTotalTermFreq += reader.getSumTotalTermFreq(field);
+                sumDocFreq += reader.getSumDocFreq(field);
+            }
+            if (docCount == 0) {
+                return null;
+            }
+            return new CollectionStatistics(field, maxDoc, docCount, sumTotalTermFreq, sumDocFreq);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package org.example.woolcoat.service.rag.reindex;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.example.woolcoat.entity.KbDocument;
+import org.example.woolcoat.entity.KbDocumentChunk;
+import org.example.woolcoat.exceptions.BusinessException;
+import org.example.woolcoat.mapper.KbDocumentChunkMapper;
+import org.example.woolcoat.mapper.KbDocumentMapper;
+import org.example.woolcoat.service.rag.cache.RagResultCache;
+import org.example.woolcoat.service.rag.commit.IndexCommitScheduler;
+import org.example.woolcoat.service.rag.commit.IndexRecoveryService;
+import org.example.woolcoat.service.rag.index.ChunkDocuments;
+import org.example.woolcoat.service.rag.index.IndexLayout;
+import org.example.woolcoat.service.rag.index.LuceneIndexManager;
+import org.example.woolcoat.service.rag.index.ShardedIndexManager;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 全量重建Lucene索引（分词器变更、索引损坏等场景）
+ * 1. 用MyBatis游标按分片ID升序流式读取 kb_document_chunk，按批交给多个写入线程并行写入新的空索引目录（各分片独立IndexWriter）；
+ * 2. 在新索引上补齐重建期间新增的分片（按分片ID覆盖写入）并删除数据库中已不存在的文档；
+ * 3. 原子切换分片组（检索全程使用旧索引，切换后使用新索引），更新 index.current 指针；
+ * 4. 等待进行中的写入结束后再补齐一次，关闭并删除旧索引。
+ * 向量索引与分词器无关，不参与重建。
+ */
+@Slf4j
+@Service
+public class IndexRebuildService {
+
+    private static final int DOC_ID_BATCH_SIZE = 500;
+
+    private final ShardedIndexManager shardedIndexManager;
+    private final IndexLayout indexLayout;
+    private final Analyzer ikAnalyzer;
+    private final KbDocumentMapper documentMapper;
+    private final KbDocumentChunkMapper documentChunkMapper;
+    private final RagResultCache ragResultCache;
+    private final Executor reindexExecutor;
+    private final Executor luceneSearchExecutor;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ExecutorService jobRunner;
+
+    @Value("${rag.reindex.batch-size:500}")
+    private int batchSize;
+    @Value("${rag.reindex.ram-buffer-mb:256}")
+    private double ramBufferMb;
+    @Value("${rag.reindex.swap-grace-ms:5000}")
+    private long swapGraceMs;
+    @Value("${rag.lucene.refresh-interval-ms:1000}")
+    private long refreshIntervalMs;
+    @Value("${rag.replication.role:standalone}")
+    private String replicationRole;
+    // 补齐时回看的时间：此后更新过（替换）的文档需对账分片，删除重建期间被删除的分片
+    @Value("${rag.lucene.commit.recovery-margin-ms:600000}")
+    private long catchUpMarginMs;
+
+    private final AtomicReference<ReindexJob> currentJob = new AtomicReference<>();
+
+    public IndexRebuildService(ShardedIndexManager shardedIndexManager,
+                               IndexLayout indexLayout,
+                               Analyzer ikAnalyzer,
+                               KbDocumentMapper documentMapper,
+                               KbDocumentChunkMapper documentChunkMapper,
+                               RagResultCache ragResultCache,
+                               @Qualifier("reindexExecutor") Executor reindexExecutor,
+                               @Qualifier("luceneSearchExecutor") Executor luceneSearchExecutor,
+                               PlatformTransactionManager transactionManager) {
+        this.shardedIndexManager = shardedIndexManager;
+        this.indexLayout = indexLayout;
+        this.ikAnalyzer = ikAnalyzer;
+        this.documentMapper = documentMapper;
+        this.documentChunkMapper = documentChunkMapper;
+        this.ragResultCache = ragResultCache;
+        this.reindexExecutor = reindexExecutor;
+        this.luceneSearchExecutor = luceneSearchExecutor;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.jobRunner = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "index-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        jobRunner.shutdownNow();
+    }
+
+    /**
+     * 提交全量重建任务（同一时间只允许一个重建任务）
+     */
+    public ReindexJob startRebuild() {
+        if ("follower".equalsIgnoreCase(replicationRole)) {
+            throw new BusinessException("当前节点为只读索引副本，请在主节点重建索引");
+        }
+        ReindexJob job = new ReindexJob();
+        ReindexJob previous = currentJob.get();
+        if (previous != null && isRunning(previous) || !currentJob.compareAndSet(previous, job)) {
+            throw new BusinessException("已有索引重建任务在执行：" + currentJob.get().getJobId());
+        }
+        jobRunner.execute(() -> run(job));
+        return job;
+    }
+
+    /**
+     * 最近一次重建任务（从未重建返回null）
+     */
+    public ReindexJob getCurrentJob() {
+        return currentJob.get();
+    }
+
+    private void run(ReindexJob job) {
+        long start = System.currentTimeMillis();
+        List<LuceneIndexManager> newShards = new ArrayList<>();
+        Path base = null;
+        boolean swapped = false;
+        try {
+            base = indexLayout.newBase();
+            List<Path> shardDirs = indexLayout.shardDirs(base);
+            job.setIndexPath(base.toString());
+            log.info("开始全量重建索引：jobId={}，新索引目录={}", job.getJobId(), base);
+
+            // 1. 流式读取全部分片，多线程写入新索引目录
+            Date since = new Date(start - catchUpMarginMs);
+            long lastId = bulkBuild(job, shardDirs);
+
+            // 2. 打开新索引，补齐重建期间的变更
+            updateStage(job, ReindexStageEnum.CATCHING_UP);
+            for (int i = 0; i < shardDirs.size(); i++) {
+                newShards.add(new LuceneIndexManager(shardDirs.size() == 1 ? "main" : "shard-" + i,
+                        FSDirectory.open(shardDirs.get(i)), ikAnalyzer, refreshIntervalMs, luceneSearchExecutor));
+            }
+            lastId = catchUp(job, newShards, lastId, since);
+
+            // 3. 原子切换（检索从此使用新索引），重启后也打开新索引
+            Path oldBase = indexLayout.currentBase();
+            List<LuceneIndexManager> oldShards = shardedIndexManager.swap(newShards);
+            swapped = true;
+            indexLayout.switchTo(base);
+            ragResultCache.invalidate();
+
+            // 4. 等待切换前取得旧分片的写入结束，再补齐一次，然后释放旧索引
+            Thread.sleep(swapGraceMs);
+            catchUp(job, newShards, lastId, since);
+            ragResultCache.invalidate();
+            ShardedIndexManager.closeAll(oldShards);
+            indexLayout.deleteBase(oldBase);
+
+            job.setEndTime(new Date());
+            updateStage(job, ReindexStageEnum.SUCCESS);
+            log.info("全量重建索引完成：jobId={}，分片数={}，耗时={}ms", job.getJobId(), job.getIndexedCount(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            log.error("全量重建索引失败：jobId={}", job.getJobId(), cause);
+            if (!swapped) {
+                try {
+                    ShardedIndexManager.closeAll(newShards);
+                    if (base != null) {
+                        indexLayout.deleteBase(base);
+                    }
+                } catch (IOException ignored) {
+                    // 尽力释放新索引的写锁并删除未切换的新索引
+                }
+            }
+            job.setFailReason(cause.getMessage());
+            job.setEndTime(new Date());
+            updateStage(job, ReindexStageEnum.FAIL);
+        }
+    }
+
+    /**
+     * 流式读取全部分片并行写入新索引目录（新目录只有本任务写入，直接追加，不做覆盖）
+     * @return 已读取的最大分片ID
+     */
+    private long bulkBuild(ReindexJob job, List<Path> shardDirs) throws IOException {
+        List<IndexWriter> writers = new ArrayList<>(shardDirs.size());
+        try {
+            for (Path shardDir : shardDirs) {
+                IndexWriterConfig config = new IndexWriterConfig(ikAnalyzer);
+                config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+                config.setRAMBufferSizeMB(ramBufferMb); // 批量写入加大内存缓冲，减少小段与合并
+                writers.add(new IndexWriter(FSDirectory.open(shardDir), config));
+            }
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            long lastId = streamChunks(job, 0L, batch -> futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    for (KbDocumentChunk chunk : batch) {
+                        writers.get(ShardedIndexManager.shardOf(chunk.getUserId(), writers.size()))
+                                .addDocument(ChunkDocuments.build(chunk));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                addIndexed(job, batch.size());
+            }, reindexExecutor)));
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            for (IndexWriter writer : writers) {
+                writer.commit();
+            }
+            return lastId;
+        } finally {
+            for (IndexWriter writer : writers) {
+                Directory directory = writer.getDirectory();
+                writer.close();
+                directory.close();
+            }
+        }
+    }
+
+    /**
+     * 在新索引上补齐 afterId 之后的分片（按分片ID覆盖写入），删除数据库中已不存在的文档，
+     * 以及 since 之后替换过的文档中已删除的分片（全量读取之后才删除的分片仍在新索引中）
+     * @return 已读取的最大分片ID
+     */
+    private long catchUp(ReindexJob job, List<LuceneIndexManager> shards, long afterId, Date since) throws IOException {
+        long lastId = streamChunks(job, afterId, batch -> {
+            try {
+                for (KbDocumentChunk chunk : batch) {
+                    shards.get(ShardedIndexManager.shardOf(chunk.getUserId(), shards.size())).getIndexWriter()
+                            .updateDocument(ChunkDocuments.chunkIdTerm(chunk.getId()), ChunkDocuments.build(chunk));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            addIndexed(job, batch.size());
+        });
+        // 提交时写入已补齐的最大分片ID，切换后崩溃重启可从此处恢复
+        Map<String, String> userData = Map.of(
+                IndexCommitScheduler.MAX_CHUNK_ID, String.valueOf(lastId),
+                IndexCommitScheduler.COMMIT_TIME, String.valueOf(System.currentTimeMillis()));
+        List<KbDocument> updatedDocuments = listUpdatedDocuments(since);
+        for (LuceneIndexManager shard : shards) {
+            shard.refresh();
+            for (Long docId : findDeletedDocIds(shard)) {
+                shard.getIndexWriter().deleteDocuments(LongPoint.newExactQuery(ChunkDocuments.FIELD_DOC_ID, docId));
+            }
+            for (KbDocument document : updatedDocuments) {
+                Set<Long> stale = shard.search(searcher -> ChunkDocuments.collectChunkIds(searcher, document.getId()));
+                if (stale.isEmpty()) {
+                    continue;
+                }
+                stale.removeAll(IndexRecoveryService.listChunkIds(documentChunkMapper, document.getId()));
+                for (Long chunkId : stale) {
+                    shard.getIndexWriter().deleteDocuments(ChunkDocuments.chunkIdTerm(chunkId));
+                }
+            }
+            shard.commit(userData);
+            shard.refresh();
+        }
+        return lastId;
+    }
+
+    /**
+     * 在只读事务内用游标流式读取 afterId 之后的分片，按 batchSize 分批交给 consumer（跳过空内容分片）
+     * @return 已读取的最大分片ID
+     */
+    private long streamChunks(ReindexJob job, long afterId, Consumer<List<KbDocumentChunk>> consumer) {
+        AtomicLong lastId = new AtomicLong(afterId);
+        readOnlyTransaction.executeWithoutResult(status -> {
+            try (Cursor<KbDocumentChunk> cursor = documentChunkMapper.scanAfterId(afterId)) {
+                List<KbDocumentChunk> batch = new ArrayList<>(batchSize);
+                for (KbDocumentChunk chunk : cursor) {
+                    lastId.set(chunk.getId());
+                    synchronized (job) {
+                        job.setScannedCount(job.getScannedCount() + 1);
+                    }
+                    if (!ChunkDocuments.isIndexable(chunk)) {
+                        continue;
+                    }
+                    batch.add(chunk);
+                    if (batch.size() >= batchSize) {
+                        consumer.accept(batch);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    consumer.accept(batch);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return lastId.get();
+    }
+
+    private List<KbDocument> listUpdatedDocuments(Date since) {
+        LambdaQueryWrapper<KbDocument> wrapper = new LambdaQueryWrapper<>();
+        wrapper.select(KbDocument::getId)
+                .ge(KbDocument::getUpdateTime, since);
+        return documentMapper.selectList(wrapper);
+    }
+
+    // 索引中存在、数据库中已删除的文档ID
+    private Set<Long> findDeletedDocIds(LuceneIndexManager shard) throws IOException {
+        List<Long> indexedDocIds = shard.search(searcher -> {
+            List<Long> docIds = new ArrayList<>();
+            Terms terms = MultiTerms.getTerms(searcher.getIndexReader(), ChunkDocuments.FIELD_DOC_ID);
+            if (terms != null) {
+                TermsEnum termsEnum = terms.iterator();
+                BytesRef term;
+                while ((term = termsEnum.next()) != null) {
+                    docIds.add(Long.parseLong(term.utf8ToString()));
+                }
+            }
+            return docIds;
+        });
+        Set<Long> deleted = new HashSet<>();
+        for (int from = 0; from < indexedDocIds.size(); from += DOC_ID_BATCH_SIZE) {
+            List<Long> batch = indexedDocIds.subList(from, Math.min(from + DOC_ID_BATCH_SIZE, indexedDocIds.size()));
+            Set<Long> existing = new HashSet<>();
+            for (KbDocument document : documentMapper.selectBatchIds(batch)) {
+                existing.add(document.getId());
+            }
+            for (Long docId : batch) {
+                if (!existing.contains(docId)) {
+                    deleted.add(docId);
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private static void addIndexed(ReindexJob job, int count) {
+        synchronized (job) {
+            job.setIndexedCount(job.getIndexedCount() + count);
+        }
+    }
+
+    private static void updateStage(ReindexJob job, ReindexStageEnum stage) {
+        synchronized (job) {
+            job.setStage(stage);
+        }
+    }
+
+    private static boolean isRunning(ReindexJob job) {
+        return job.getStage() == ReindexStageEnum.BUILDING || job.getStage() == ReindexStageEnum.CATCHING_UP;
+    }
+}
@@ -0,0 +1,46 @@
+package org.example.woolcoat.service.rag.reindex;
+
+import lombok.Data;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * 全量重建索引任务（阶段、进度，供管理接口查询）
+ */
+@Data
+public class ReindexJob {
+
+    /**
+     * 任务唯一ID
+     */
+    private String jobId = UUID.randomUUID().toString();
+    /**
+     * 当前阶段
+     */
+    private ReindexStageEnum stage = ReindexStageEnum.BUILDING;
+    /**
+     * 已从数据库读取的分片数
+     */
+    private long scannedCount;
+    /**
+     * 已写入新索引的分片数
+     */
+    private long indexedCount;
+    /**
+     * 新索引目录
+     */
+    private String indexPath;
+    /**
+     * 失败原因（阶段为FAIL时非空）
+     */
+    private String failReason;
+    /**
+     * 开始时间
+     */
+    private Date startTime = new Date();
+    /**
+     * 结束时间（完成或失败时填充）
+     */
+    private Date endTime;
+}
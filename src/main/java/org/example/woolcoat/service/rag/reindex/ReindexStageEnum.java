@@ -0,0 +1,22 @@
+package org.example.woolcoat.service.rag.reindex;
+
+import lombok.Getter;
+
+/**
+ * 全量重建索引任务阶段枚举
+ */
+@Getter
+public enum ReindexStageEnum {
+    BUILDING("从数据库流式重建新索引中", 0),
+    CATCHING_UP("补齐重建期间的变更中", 1),
+    SUCCESS("重建完成并已切换", 2),
+    FAIL("重建失败", 3);
+
+    private final String name;
+    private final Integer code;
+
+    ReindexStageEnum(String name, Integer code) {
+        this.name = name;
+        this.code = code;
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.woolcoat.service.rag.replication;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 主节点发布的索引清单（每个分片最新提交点包含的文件 + 向量索引版本 + 检索缓存代数）
+ */
+@Data
+public class IndexManifest {
+
+    /**
+     * 检索缓存代数（副本应用该清单后使用此代数作为缓存Key版本）
+     */
+    private Long cacheGeneration;
+
+    /**
+     * 各分片的提交点
+     */
+    private List<ShardCommit> shards;
+
+    /**
+     * 向量索引文件版本（未开启向量检索时为null）
+     */
+    private String vectorVersion;
+
+    @Data
+    public static class ShardCommit {
+        private Integer shard; // 分片序号
+        private String indexId; // 主节点索引实例标识（重启、全量重建后变化，变化时副本整体重新打开索引）
+        private Long generation; // 提交代数（segments_N 的 N）
+        private List<IndexFile> files; // 提交点引用的全部文件（最后拉取 segments_N）
+    }
+
+    @Data
+    public static class IndexFile {
+        private String name;
+        private Long length;
+        private Long checksum; // 文件尾部CRC32（重建索引后同名段文件内容可能不同，按长度+校验和判断是否需要重新下载）
+    }
+}
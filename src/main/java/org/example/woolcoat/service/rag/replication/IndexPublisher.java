@@ -0,0 +1,186 @@
+package org.example.woolcoat.service.rag.replication;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.example.woolcoat.exceptions.BusinessException;
+import org.example.woolcoat.service.rag.cache.RagResultCache;
+import org.example.woolcoat.service.rag.index.LuceneIndexManager;
+import org.example.woolcoat.service.rag.index.ShardedIndexManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 索引发布（主节点）：把每个分片的最新提交点做成快照并发布清单，供只读副本按文件增量拉取
+ * 已发布的提交点由 SnapshotDeletionPolicy 保留，最后一次被访问超过 snapshot-retention-ms 且不是最新提交时释放，
+ * 释放后IndexWriter才会删除不再引用的段文件。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "rag.replication.role", havingValue = "primary")
+public class IndexPublisher {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final ShardedIndexManager shardedIndexManager;
+    private final RagResultCache ragResultCache;
+    private final boolean vectorEnabled;
+    private final Path vectorIndexFile;
+    private final long retentionMs;
+
+    // 分片序号 → (提交代数 → 已发布提交点)
+    private final Map<Integer, Map<Long, PublishedCommit>> published = new HashMap<>();
+
+    private static class PublishedCommit {
+        final LuceneIndexManager owner; // 提交点所属分片（全量重建切换后旧分片的提交点不再发布）
+        final IndexCommit commit;
+        final List<IndexManifest.IndexFile> files;
+        volatile long lastAccess;
+
+        PublishedCommit(LuceneIndexManager owner, IndexCommit commit, List<IndexManifest.IndexFile> files) {
+            this.owner = owner;
+            this.commit = commit;
+            this.files = files;
+        }
+    }
+
+    public IndexPublisher(ShardedIndexManager shardedIndexManager,
+                          RagResultCache ragResultCache,
+                          @Value("${rag.vector.enabled:false}") boolean vectorEnabled,
+                          @Value("${rag.vector.index-path:./lucene/vector/}") String vectorIndexPath,
+                          @Value("${rag.replication.snapshot-retention-ms:60000}") long retentionMs) {
+        this.shardedIndexManager = shardedIndexManager;
+        this.ragResultCache = ragResultCache;
+        this.vectorEnabled = vectorEnabled;
+        this.vectorIndexFile = Paths.get(vectorIndexPath, "hnsw.bin");
+        this.retentionMs = retentionMs;
+    }
+
+    /**
+     * 生成当前索引清单（先读取缓存代数、再快照提交点，保证副本按该代数缓存的结果不会旧于清单对应的索引）
+     */
+    public synchronized IndexManifest currentManifest() throws IOException {
+        IndexManifest manifest = new IndexManifest();
+        manifest.setCacheGeneration(ragResultCache.getGeneration());
+        List<IndexManifest.ShardCommit> shardCommits = new ArrayList<>();
+        List<LuceneIndexManager> shards = shardedIndexManager.getShards();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < shards.size(); i++) {
+            LuceneIndexManager shard = shards.get(i);
+            SnapshotDeletionPolicy snapshotPolicy = shard.getSnapshotPolicy();
+            IndexCommit commit = snapshotPolicy.snapshot();
+            Map<Long, PublishedCommit> commits = published.computeIfAbsent(i, k -> new HashMap<>());
+            // 全量重建切换后旧分片已关闭，丢弃其提交点（旧索引目录由重建任务删除）
+            commits.values().removeIf(c -> c.owner != shard);
+            PublishedCommit publishedCommit = commits.get(commit.getGeneration());
+            if (publishedCommit == null) {
+                publishedCommit = new PublishedCommit(shard, commit, listFiles(shard.getDirectory(), commit));
+                commits.put(commit.getGeneration(), publishedCommit);
+            } else {
+                snapshotPolicy.release(commit); // 同一提交点只保留一份快照引用
+            }
+            publishedCommit.lastAccess = now;
+            releaseExpired(shard, commits, commit.getGeneration(), now);
+
+            IndexManifest.ShardCommit shardCommit = new IndexManifest.ShardCommit();
+            shardCommit.setShard(i);
+            shardCommit.setIndexId(shard.getInstanceId());
+            shardCommit.setGeneration(commit.getGeneration());
+            shardCommit.setFiles(publishedCommit.files);
+            shardCommits.add(shardCommit);
+        }
+        manifest.setShards(shardCommits);
+        if (vectorEnabled && Files.exists(vectorIndexFile)) {
+            manifest.setVectorVersion(Files.size(vectorIndexFile) + "-" + Files.getLastModifiedTime(vectorIndexFile).toMillis());
+        }
+        return manifest;
+    }
+
+    /**
+     * 输出已发布提交点中的一个索引文件（只允许读取清单中列出的文件）
+     */
+    public void writeFile(int shard, long generation, String name, OutputStream out) throws IOException {
+        Directory directory;
+        synchronized (this) {
+            PublishedCommit publishedCommit = published.getOrDefault(shard, Map.of()).get(generation);
+            if (publishedCommit == null || publishedCommit.files.stream().noneMatch(f -> f.getName().equals(name))) {
+                throw new BusinessException("提交点已过期或文件不存在：shard=" + shard + "，generation=" + generation + "，file=" + name);
+            }
+            publishedCommit.lastAccess = System.currentTimeMillis();
+            directory = publishedCommit.owner.getDirectory();
+        }
+        try (IndexInput in = directory.openInput(name, IOContext.READONCE)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long remaining = in.length();
+            while (remaining > 0) {
+                int n = (int) Math.min(buffer.length, remaining);
+                in.readBytes(buffer, 0, n);
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+
+    /**
+     * 输出向量索引文件
+     */
+    public void writeVectorFile(OutputStream out) throws IOException {
+        if (!vectorEnabled || !Files.exists(vectorIndexFile)) {
+            throw new BusinessException("向量索引未开启或尚未生成");
+        }
+        Files.copy(vectorIndexFile, out);
+    }
+
+    // 提交点引用的文件（segments_N 放在最后，副本拉取完所有段文件后才会看到新提交）
+    private List<IndexManifest.IndexFile> listFiles(Directory directory, IndexCommit commit) throws IOException {
+        List<IndexManifest.IndexFile> files = new ArrayList<>();
+        for (String name : commit.getFileNames()) {
+            IndexManifest.IndexFile file = new IndexManifest.IndexFile();
+            file.setName(name);
+            file.setLength(directory.fileLength(name));
+            try (IndexInput in = directory.openInput(name, IOContext.READONCE)) {
+                file.setChecksum(CodecUtil.retrieveChecksum(in));
+            }
+            files.add(file);
+        }
+        files.sort(Comparator.comparing((IndexManifest.IndexFile f) -> f.getName().startsWith(IndexFileNames.SEGMENTS))
+                .thenComparing(IndexManifest.IndexFile::getName));
+        return files;
+    }
+
+    // 释放过期的旧提交点快照，并让IndexWriter删除不再引用的文件
+    private void releaseExpired(LuceneIndexManager shard, Map<Long, PublishedCommit> commits, long latestGeneration, long now) throws IOException {
+        boolean released = false;
+        Iterator<Map.Entry<Long, PublishedCommit>> iterator = commits.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, PublishedCommit> entry = iterator.next();
+            if (entry.getKey() != latestGeneration && now - entry.getValue().lastAccess > retentionMs) {
+                shard.getSnapshotPolicy().release(entry.getValue().commit);
+                iterator.remove();
+                released = true;
+            }
+        }
+        if (released) {
+            shard.getIndexWriter().deleteUnusedFiles();
+            log.info("释放过期的索引提交点快照：分片={}，最新提交代数={}", shard.getName(), latestGeneration);
+        }
+    }
+}
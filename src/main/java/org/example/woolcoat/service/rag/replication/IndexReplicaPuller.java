@@ -0,0 +1,273 @@
+package org.example.woolcoat.service.rag.replication;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.example.woolcoat.service.rag.cache.RagResultCache;
+import org.example.woolcoat.service.rag.index.HnswVectorIndex;
+import org.example.woolcoat.service.rag.index.LuceneIndexManager;
+import org.example.woolcoat.service.rag.index.ShardedIndexManager;
+import org.example.woolcoat.vo.response.CommonResponse;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 索引副本拉取（只读副本节点）：定期拉取主节点的索引清单，只下载本地缺少的段文件，
+ * segments_N 最后写入，随后刷新Searcher打开新提交，并删除不再被引用的旧文件。
+ * 向量索引文件版本变化时整体下载后重新加载；应用清单后把检索缓存代数切换为主节点发布的代数。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "rag.replication.role", havingValue = "follower")
+public class IndexReplicaPuller {
+
+    private static final Gson GSON = new Gson();
+    private static final String WRITE_LOCK = "write.lock";
+    private static final String PART_SUFFIX = ".part";
+
+    private final ShardedIndexManager shardedIndexManager;
+    private final RagResultCache ragResultCache;
+    private final ObjectProvider<HnswVectorIndex> vectorIndexProvider;
+    private final OkHttpClient okHttpClient;
+    private final String primaryUrl;
+    private final String apiKey;
+    private final long pollIntervalMs;
+    private final Path vectorIndexFile;
+    private final ScheduledExecutorService scheduler;
+
+    // 各分片已应用的提交代数、已应用的向量索引版本
+    private final long[] appliedGenerations;
+    private final String[] appliedIndexIds; // 已应用的主节点索引实例标识（本节点启动后首次拉取时整体打开）
+    private String appliedVectorVersion;
+
+    public IndexReplicaPuller(ShardedIndexManager shardedIndexManager,
+                              RagResultCache ragResultCache,
+                              ObjectProvider<HnswVectorIndex> vectorIndexProvider,
+                              @Value("${rag.replication.primary-url}") String primaryUrl,
+                              @Value("${woolcoat.auth.api-key:}") String apiKey,
+                              @Value("${rag.replication.poll-interval-ms:1000}") long pollIntervalMs,
+                              @Value("${rag.vector.index-path:./lucene/vector/}") String vectorIndexPath) {
+        this.shardedIndexManager = shardedIndexManager;
+        this.ragResultCache = ragResultCache;
+        this.vectorIndexProvider = vectorIndexProvider;
+        this.primaryUrl = primaryUrl.endsWith("/") ? primaryUrl.substring(0, primaryUrl.length() - 1) : primaryUrl;
+        this.apiKey = apiKey;
+        this.pollIntervalMs = pollIntervalMs;
+        this.vectorIndexFile = Paths.get(vectorIndexPath, "hnsw.bin");
+        this.appliedGenerations = new long[shardedIndexManager.getShardCount()];
+        this.appliedIndexIds = new String[shardedIndexManager.getShardCount()];
+        this.okHttpClient = new OkHttpClient.Builder()
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .build();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "index-replica-puller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                pullOnce();
+            } catch (Exception e) {
+                log.warn("拉取主节点索引失败（下次重试）：primary={}，原因={}", primaryUrl, e.getMessage());
+            }
+        }, 0, pollIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("索引副本拉取已启动：primary={}，间隔={}ms", primaryUrl, pollIntervalMs);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 拉取一次主节点索引（只下载变化的文件）
+     */
+    void pullOnce() throws IOException {
+        IndexManifest manifest = fetchManifest();
+        List<LuceneIndexManager> shards = shardedIndexManager.getShards();
+        if (manifest.getShards() == null || manifest.getShards().size() != shards.size()) {
+            log.error("主节点索引分片数与本节点不一致，跳过复制：主节点={}，本节点={}",
+                    manifest.getShards() == null ? 0 : manifest.getShards().size(), shards.size());
+            return;
+        }
+        for (IndexManifest.ShardCommit shardCommit : manifest.getShards()) {
+            int shard = shardCommit.getShard();
+            if (shardCommit.getGeneration() == appliedGenerations[shard]
+                    && Objects.equals(shardCommit.getIndexId(), appliedIndexIds[shard])) {
+                continue;
+            }
+            pullShard(shards.get(shard), shardCommit);
+            appliedGenerations[shard] = shardCommit.getGeneration();
+            appliedIndexIds[shard] = shardCommit.getIndexId();
+        }
+        HnswVectorIndex vectorIndex = vectorIndexProvider.getIfAvailable();
+        if (vectorIndex != null && manifest.getVectorVersion() != null
+                && !Objects.equals(manifest.getVectorVersion(), appliedVectorVersion)) {
+            download(urlBuilder("vector").build(), vectorIndexFile, null);
+            vectorIndex.reload();
+            appliedVectorVersion = manifest.getVectorVersion();
+            log.info("向量索引复制完成：version={}", appliedVectorVersion);
+        }
+        // 索引已刷新后再切换缓存代数
+        if (manifest.getCacheGeneration() != null) {
+            ragResultCache.applyGeneration(manifest.getCacheGeneration());
+        }
+    }
+
+    private void pullShard(LuceneIndexManager shard, IndexManifest.ShardCommit shardCommit) throws IOException {
+        Path dir = fsPath(shard.getDirectory());
+        Set<String> referenced = new HashSet<>();
+        int downloaded = 0;
+        for (IndexManifest.IndexFile file : shardCommit.getFiles()) {
+            referenced.add(file.getName());
+            Path target = dir.resolve(file.getName());
+            if (isSameFile(shard.getDirectory(), target, file)) {
+                continue; // 段文件写入后不再修改，同名、同长度、同校验和即可复用
+            }
+            HttpUrl url = urlBuilder("file")
+                    .addQueryParameter("shard", String.valueOf(shardCommit.getShard()))
+                    .addQueryParameter("generation", String.valueOf(shardCommit.getGeneration()))
+                    .addQueryParameter("name", file.getName())
+                    .build();
+            download(url, target, file.getLength());
+            downloaded++;
+        }
+        long appliedGeneration = appliedGenerations[shardCommit.getShard()];
+        boolean sameIndex = Objects.equals(shardCommit.getIndexId(), appliedIndexIds[shardCommit.getShard()]);
+        if (!sameIndex || shardCommit.getGeneration() < appliedGeneration) {
+            // 主节点换了索引（重启、全量重建，提交代数可能更小、相同或更大）：先删除旧的 segments_N，
+            // 再整体重新打开（同名段文件内容可能已变化，不能按段名复用旧Reader）
+            deleteUnreferenced(dir, referenced, true);
+            shard.reopen();
+        } else {
+            shard.refresh();
+        }
+        // 删除新提交不再引用的旧文件（仍被旧Searcher打开的文件删除失败时下次再删）
+        deleteUnreferenced(dir, referenced, false);
+        log.info("索引分片复制完成：分片={}，提交代数={}，下载文件数={}", shard.getName(), shardCommit.getGeneration(), downloaded);
+    }
+
+    private void deleteUnreferenced(Path dir, Set<String> referenced, boolean segmentsOnly) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (referenced.contains(name) || WRITE_LOCK.equals(name)
+                        || segmentsOnly && !name.startsWith(IndexFileNames.SEGMENTS)) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.debug("删除旧索引文件失败（稍后重试）：{}", path);
+                }
+            }
+        }
+    }
+
+    private boolean isSameFile(Directory directory, Path target, IndexManifest.IndexFile file) {
+        try {
+            if (!Files.exists(target) || Files.size(target) != file.getLength()) {
+                return false;
+            }
+            if (file.getChecksum() == null) {
+                return true;
+            }
+            try (IndexInput in = directory.openInput(file.getName(), IOContext.READONCE)) {
+                return CodecUtil.retrieveChecksum(in) == file.getChecksum();
+            }
+        } catch (IOException e) {
+            return false; // 本地文件损坏时重新下载
+        }
+    }
+
+    private IndexManifest fetchManifest() throws IOException {
+        Request request = newRequest(urlBuilder("manifest").build());
+        try (Response response = okHttpClient.newCall(request).execute();
+             ResponseBody body = response.body()) {
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("获取索引清单失败，响应码：" + response.code());
+            }
+            CommonResponse<IndexManifest> result = GSON.fromJson(body.string(),
+                    new TypeToken<CommonResponse<IndexManifest>>() { }.getType());
+            if (result == null || result.getCode() == null || result.getCode() != 200 || result.getData() == null) {
+                throw new IOException("获取索引清单失败：" + (result == null ? "响应为空" : result.getMsg()));
+            }
+            return result.getData();
+        }
+    }
+
+    // 先写临时文件，校验长度后原子替换
+    private void download(HttpUrl url, Path target, Long expectedLength) throws IOException {
+        Path part = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+        try (Response response = okHttpClient.newCall(newRequest(url)).execute();
+             ResponseBody body = response.body()) {
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("下载索引文件失败：" + url.queryParameter("name") + "，响应码：" + response.code());
+            }
+            try (InputStream in = body.byteStream()) {
+                Files.copy(in, part, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (expectedLength != null && Files.size(part) != expectedLength) {
+                throw new IOException("下载索引文件长度不一致：" + target.getFileName());
+            }
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    private HttpUrl.Builder urlBuilder(String path) {
+        HttpUrl base = HttpUrl.get(primaryUrl + "/internal/index/replication/" + path);
+        return base.newBuilder();
+    }
+
+    private Request newRequest(HttpUrl url) {
+        Request.Builder builder = new Request.Builder().url(url).get();
+        if (apiKey != null && !apiKey.isBlank()) {
+            builder.header("X-API-Key", apiKey);
+        }
+        return builder.build();
+    }
+
+    private static Path fsPath(Directory directory) {
+        if (directory instanceof FSDirectory fsDirectory) {
+            return fsDirectory.getDirectory();
+        }
+        throw new IllegalStateException("只读副本的索引目录必须是文件系统目录");
+    }
+}
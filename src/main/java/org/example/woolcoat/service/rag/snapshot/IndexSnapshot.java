@@ -0,0 +1,37 @@
+package org.example.woolcoat.service.rag.snapshot;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 索引快照元数据（快照目录下的 snapshot.json，写入该文件表示快照完整可用）
+ */
+@Data
+public class IndexSnapshot {
+
+    /**
+     * 快照名称（即快照目录名）
+     */
+    private String name;
+
+    /**
+     * 快照创建时间（毫秒时间戳，恢复后从数据库补齐此时间之后的文档）
+     */
+    private Long createdAt;
+
+    /**
+     * 各分片快照时的提交代数（按分片序号排列）
+     */
+    private List<Long> generations;
+
+    /**
+     * 是否包含向量索引文件
+     */
+    private Boolean vectorIncluded;
+
+    /**
+     * 快照总大小（字节）
+     */
+    private Long sizeBytes;
+}
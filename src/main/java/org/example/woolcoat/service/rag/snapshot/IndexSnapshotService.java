@@ -0,0 +1,199 @@
+package org.example.woolcoat.service.rag.snapshot;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.woolcoat.entity.KbDocument;
+import org.example.woolcoat.entity.KbDocumentChunk;
+import org.example.woolcoat.exceptions.BusinessException;
+import org.example.woolcoat.mapper.KbDocumentChunkMapper;
+import org.example.woolcoat.mapper.KbDocumentMapper;
+import org.example.woolcoat.service.rag.RagSearchService;
+import org.example.woolcoat.service.rag.commit.IndexCommitScheduler;
+import org.example.woolcoat.service.rag.commit.IndexRecoveryService;
+import org.example.woolcoat.service.rag.index.ChunkDocuments;
+import org.example.woolcoat.service.rag.index.HnswVectorIndex;
+import org.example.woolcoat.service.rag.index.ShardedIndexManager;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 索引快照服务：定期（或通过管理接口）生成索引快照；启动时若从快照恢复了索引，
+ * 在后台从MySQL补齐快照之后的变更（快照时间前 catch-up-margin-ms 起创建的文档整体重建索引，已删除的文档删除索引）。
+ * 只读副本（rag.replication.role=follower）的索引来自主节点复制，不生成快照也不补齐。
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "rag.snapshot.enabled", havingValue = "true")
+public class IndexSnapshotService {
+
+    private final IndexSnapshotStore indexSnapshotStore;
+    private final ShardedIndexManager shardedIndexManager;
+    private final IndexCommitScheduler indexCommitScheduler;
+    private final IndexRecoveryService indexRecoveryService;
+    private final RagSearchService ragSearchService;
+    private final KbDocumentMapper documentMapper;
+    private final KbDocumentChunkMapper documentChunkMapper;
+    private final ObjectProvider<HnswVectorIndex> vectorIndexProvider;
+    private final Path vectorIndexFile;
+    private final long intervalMs;
+    private final int retain;
+    private final long catchUpMarginMs;
+    private final int batchSize;
+    private final boolean replica;
+    private final ScheduledExecutorService scheduler;
+
+    public IndexSnapshotService(IndexSnapshotStore indexSnapshotStore,
+                                ShardedIndexManager shardedIndexManager,
+                                IndexCommitScheduler indexCommitScheduler,
+                                IndexRecoveryService indexRecoveryService,
+                                RagSearchService ragSearchService,
+                                KbDocumentMapper documentMapper,
+                                KbDocumentChunkMapper documentChunkMapper,
+                                ObjectProvider<HnswVectorIndex> vectorIndexProvider,
+                                @Value("${rag.vector.index-path:./lucene/vector/}") String vectorIndexPath,
+                                @Value("${rag.snapshot.interval-ms:3600000}") long intervalMs,
+                                @Value("${rag.snapshot.retain:3}") int retain,
+                                @Value("${rag.snapshot.catch-up-margin-ms:600000}") long catchUpMarginMs,
+                                @Value("${rag.document.batch-size:100}") int batchSize,
+                                @Value("${rag.replication.role:standalone}") String replicationRole) {
+        this.indexSnapshotStore = indexSnapshotStore;
+        this.shardedIndexManager = shardedIndexManager;
+        this.indexCommitScheduler = indexCommitScheduler;
+        this.indexRecoveryService = indexRecoveryService;
+        this.ragSearchService = ragSearchService;
+        this.documentMapper = documentMapper;
+        this.documentChunkMapper = documentChunkMapper;
+        this.vectorIndexProvider = vectorIndexProvider;
+        this.vectorIndexFile = Paths.get(vectorIndexPath, "hnsw.bin");
+        this.intervalMs = intervalMs;
+        this.retain = retain;
+        this.catchUpMarginMs = catchUpMarginMs;
+        this.batchSize = Math.max(1, batchSize);
+        this.replica = "follower".equalsIgnoreCase(replicationRole);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "index-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 应用启动完成后：补齐快照之后的变更，再开启定时快照
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (replica) {
+            return;
+        }
+        IndexSnapshot restored = indexSnapshotStore.getRestored();
+        if (restored != null) {
+            scheduler.execute(() -> {
+                try {
+                    catchUp(restored);
+                } catch (Exception e) {
+                    log.error("从数据库补齐快照之后的索引变更失败：snapshot={}", restored.getName(), e);
+                }
+            });
+        }
+        if (intervalMs > 0) {
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    createSnapshot();
+                } catch (Exception e) {
+                    log.error("定时生成索引快照失败", e);
+                }
+            }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+            log.info("定时索引快照已开启：间隔={}ms，保留个数={}", intervalMs, retain);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 立即生成一次索引快照（生成后清理超出保留个数的旧快照）
+     */
+    public synchronized IndexSnapshot createSnapshot() {
+        if (replica) {
+            throw new BusinessException("当前节点为只读索引副本，请在主节点生成快照");
+        }
+        try {
+            long start = System.currentTimeMillis();
+            // 快照基于最近一次提交点：先保存向量索引，再提交组提交缓冲中的写入（同时记录向量保存点）
+            indexCommitScheduler.saveVectorsNow();
+            indexCommitScheduler.commitNow();
+            HnswVectorIndex vectorIndex = vectorIndexProvider.getIfAvailable();
+            IndexSnapshot snapshot = indexSnapshotStore.create(shardedIndexManager.getShards(),
+                    vectorIndex != null ? vectorIndexFile : null);
+            indexSnapshotStore.prune(retain);
+            log.info("索引快照生成成功：snapshot={}，大小={}字节，耗时={}ms",
+                    snapshot.getName(), snapshot.getSizeBytes(), System.currentTimeMillis() - start);
+            return snapshot;
+        } catch (IOException e) {
+            throw new BusinessException("生成索引快照失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 全部可用快照（按创建时间倒序）
+     */
+    public List<IndexSnapshot> listSnapshots() {
+        try {
+            return indexSnapshotStore.list();
+        } catch (IOException e) {
+            throw new BusinessException("读取索引快照列表失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 从MySQL补齐快照之后的索引变更
+     */
+    void catchUp(IndexSnapshot snapshot) {
+        long start = System.currentTimeMillis();
+        // 1. 删除快照中已不存在于数据库的文档
+        int deleted = indexRecoveryService.removeDeletedDocuments();
+
+        // 2. 快照时可能尚未入库完成的文档、之后新增或替换过的文档：删除旧索引后按分片整体重建
+        //    （替换保留原创建时间，只更新update_time，新增分片与删除分片都需要同步）
+        Date since = new Date(snapshot.getCreatedAt() - catchUpMarginMs);
+        LambdaQueryWrapper<KbDocument> wrapper = new LambdaQueryWrapper<>();
+        wrapper.and(w -> w.ge(KbDocument::getCreateTime, since).or().ge(KbDocument::getUpdateTime, since))
+                .orderByAsc(KbDocument::getId);
+        List<KbDocument> documents = documentMapper.selectList(wrapper);
+        int chunkCount = 0;
+        for (KbDocument document : documents) {
+            ragSearchService.deleteIndex(document.getId());
+            LambdaQueryWrapper<KbDocumentChunk> chunkWrapper = new LambdaQueryWrapper<>();
+            chunkWrapper.eq(KbDocumentChunk::getDocumentId, document.getId())
+                    .orderByAsc(KbDocumentChunk::getChunkIndex);
+            List<KbDocumentChunk> chunks = documentChunkMapper.selectList(chunkWrapper).stream()
+                    .filter(ChunkDocuments::isIndexable)
+                    .toList();
+            for (int from = 0; from < chunks.size(); from += batchSize) {
+                ragSearchService.addToIndex(chunks.subList(from, Math.min(from + batchSize, chunks.size())));
+            }
+            chunkCount += chunks.size();
+        }
+        if (!documents.isEmpty()) {
+            ragSearchService.commitIndex();
+        }
+        log.info("快照之后的索引变更补齐完成：snapshot={}，删除文档数={}，重建文档数={}，分片数={}，耗时={}ms",
+                snapshot.getName(), deleted, documents.size(), chunkCount, System.currentTimeMillis() - start);
+    }
+}
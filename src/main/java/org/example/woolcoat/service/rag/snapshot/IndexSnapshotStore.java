@@ -0,0 +1,227 @@
+package org.example.woolcoat.service.rag.snapshot;
+
+import com.google.gson.Gson;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.example.woolcoat.service.rag.index.LuceneIndexManager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 索引快照存储（快照根目录下每个快照一个子目录：shard-{序号}/ 为分片提交点文件，hnsw.bin 为向量索引，snapshot.json 为元数据）
+ * 快照先写入 .tmp 目录，全部文件落盘后写 snapshot.json 再整体重命名，未完成的快照不会被恢复。
+ * 分片文件取自 SnapshotDeletionPolicy 固定的提交点，复制期间IndexWriter照常写入。
+ */
+@Slf4j
+public class IndexSnapshotStore {
+
+    private static final Gson GSON = new Gson();
+    private static final String META_FILE = "snapshot.json";
+    private static final String VECTOR_FILE = "hnsw.bin";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final Path root;
+
+    /**
+     * 启动时恢复的快照（未恢复为null）
+     */
+    @Getter
+    private volatile IndexSnapshot restored;
+
+    public IndexSnapshotStore(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * 生成快照（逐个分片固定当前提交点并复制文件）
+     * @param shards 索引分片（按序号排列，必须是可写分片）
+     * @param vectorIndexFile 向量索引文件（未开启向量检索时传null）
+     */
+    public IndexSnapshot create(List<LuceneIndexManager> shards, Path vectorIndexFile) throws IOException {
+        long createdAt = System.currentTimeMillis();
+        String name = "snapshot-" + LocalDateTime.now().format(NAME_FORMAT);
+        Path tmp = root.resolve(name + TMP_SUFFIX);
+        Files.createDirectories(tmp);
+        try {
+            List<Long> generations = new ArrayList<>(shards.size());
+            for (int i = 0; i < shards.size(); i++) {
+                generations.add(copyCommit(shards.get(i), tmp.resolve(shardDirName(i))));
+            }
+            boolean vectorIncluded = vectorIndexFile != null && Files.exists(vectorIndexFile);
+            if (vectorIncluded) {
+                Files.copy(vectorIndexFile, tmp.resolve(VECTOR_FILE));
+            }
+            IndexSnapshot snapshot = new IndexSnapshot();
+            snapshot.setName(name);
+            snapshot.setCreatedAt(createdAt);
+            snapshot.setGenerations(generations);
+            snapshot.setVectorIncluded(vectorIncluded);
+            snapshot.setSizeBytes(sizeOf(tmp));
+            Files.writeString(tmp.resolve(META_FILE), GSON.toJson(snapshot), StandardCharsets.UTF_8);
+            Files.move(tmp, root.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            deleteRecursively(tmp);
+            throw e;
+        }
+    }
+
+    /**
+     * 本地索引为空时从最新快照恢复（分片数不一致的快照跳过）
+     * @param shardDirs 各分片的本地索引目录（按序号排列）
+     * @param vectorIndexFile 向量索引文件（未开启向量检索时传null）
+     * @return 恢复的快照，未恢复返回null
+     */
+    public IndexSnapshot restoreIfEmpty(List<Path> shardDirs, Path vectorIndexFile) throws IOException {
+        for (Path shardDir : shardDirs) {
+            if (Files.isDirectory(shardDir)) {
+                try (Directory directory = FSDirectory.open(shardDir)) {
+                    if (DirectoryReader.indexExists(directory)) {
+                        return null; // 本地已有索引，直接使用
+                    }
+                }
+            }
+        }
+        for (IndexSnapshot snapshot : list()) {
+            if (snapshot.getGenerations() == null || snapshot.getGenerations().size() != shardDirs.size()) {
+                log.warn("快照分片数与当前配置不一致，跳过：snapshot={}，快照分片数={}，当前分片数={}",
+                        snapshot.getName(), snapshot.getGenerations() == null ? 0 : snapshot.getGenerations().size(), shardDirs.size());
+                continue;
+            }
+            Path snapshotDir = root.resolve(snapshot.getName());
+            for (int i = 0; i < shardDirs.size(); i++) {
+                restoreShard(snapshotDir.resolve(shardDirName(i)), shardDirs.get(i));
+            }
+            if (vectorIndexFile != null && Boolean.TRUE.equals(snapshot.getVectorIncluded())) {
+                Files.createDirectories(vectorIndexFile.getParent());
+                Files.copy(snapshotDir.resolve(VECTOR_FILE), vectorIndexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            restored = snapshot;
+            log.info("已从快照恢复索引：snapshot={}，创建时间={}，大小={}字节", snapshot.getName(), snapshot.getCreatedAt(), snapshot.getSizeBytes());
+            return snapshot;
+        }
+        return null;
+    }
+
+    /**
+     * 全部完整快照（按创建时间倒序）
+     */
+    public List<IndexSnapshot> list() throws IOException {
+        List<IndexSnapshot> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path dir : stream) {
+                Path meta = dir.resolve(META_FILE);
+                if (Files.isDirectory(dir) && Files.exists(meta)) {
+                    try {
+                        IndexSnapshot snapshot = GSON.fromJson(Files.readString(meta, StandardCharsets.UTF_8), IndexSnapshot.class);
+                        snapshot.setName(dir.getFileName().toString());
+                        snapshots.add(snapshot);
+                    } catch (RuntimeException e) {
+                        log.warn("快照元数据损坏，忽略：{}", meta);
+                    }
+                }
+            }
+        }
+        snapshots.sort(Comparator.comparing(IndexSnapshot::getCreatedAt).reversed());
+        return snapshots;
+    }
+
+    /**
+     * 只保留最新的 retain 个快照，并清理中断遗留的临时目录
+     */
+    public void prune(int retain) throws IOException {
+        List<IndexSnapshot> snapshots = list();
+        for (int i = Math.max(retain, 1); i < snapshots.size(); i++) {
+            deleteRecursively(root.resolve(snapshots.get(i).getName()));
+            log.info("删除过期索引快照：{}", snapshots.get(i).getName());
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, "*" + TMP_SUFFIX)) {
+            for (Path dir : stream) {
+                deleteRecursively(dir);
+            }
+        }
+    }
+
+    // 固定当前提交点并复制其文件，复制完成后释放（释放后IndexWriter可删除不再引用的旧文件）
+    private long copyCommit(LuceneIndexManager shard, Path target) throws IOException {
+        SnapshotDeletionPolicy snapshotPolicy = shard.getSnapshotPolicy();
+        if (snapshotPolicy == null) {
+            throw new IllegalStateException("索引[" + shard.getName() + "]为只读副本，不能生成快照");
+        }
+        IndexCommit commit = snapshotPolicy.snapshot();
+        try (Directory targetDirectory = FSDirectory.open(target)) {
+            List<String> names = new ArrayList<>(commit.getFileNames());
+            for (String fileName : names) {
+                targetDirectory.copyFrom(shard.getDirectory(), fileName, fileName, IOContext.READONCE);
+            }
+            targetDirectory.sync(names);
+            return commit.getGeneration();
+        } finally {
+            snapshotPolicy.release(commit);
+            shard.getIndexWriter().deleteUnusedFiles();
+        }
+    }
+
+    // 先复制段文件，最后复制 segments_N（复制中断时目录中不会出现可打开的提交点）
+    private void restoreShard(Path source, Path target) throws IOException {
+        Files.createDirectories(target);
+        List<String> names;
+        try (Stream<Path> files = Files.list(source)) {
+            names = files.map(p -> p.getFileName().toString())
+                    .sorted(Comparator.comparing((String n) -> n.startsWith(IndexFileNames.SEGMENTS)))
+                    .toList();
+        }
+        try (Directory sourceDirectory = FSDirectory.open(source);
+             Directory targetDirectory = FSDirectory.open(target)) {
+            for (String fileName : names) {
+                Files.deleteIfExists(target.resolve(fileName)); // 上次恢复中断遗留的同名文件
+                targetDirectory.copyFrom(sourceDirectory, fileName, fileName, IOContext.READONCE);
+            }
+            targetDirectory.sync(names);
+            targetDirectory.syncMetaData();
+        }
+    }
+
+    private static String shardDirName(int shard) {
+        return "shard-" + shard;
+    }
+
+    private static long sizeOf(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.woolcoat.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Consumer;
+
+/**
+ * 文档分片工具类（流式分片，内存占用只与分片大小有关，与文件大小无关）
+ * 固定窗口分片（splitStream）边界只由位置决定；内容定义分片（splitContentDefined）边界由内容决定，
+ * 文档局部修改后其余分片内容不变，替换文档时只需重写变化的分片。
+ */
+public class ChunkUtils {
+
+    /**
+     * 流式分片：从Reader逐段读取，每凑满 chunkSize 个字符回调一次 onChunk，
+     * 相邻分片重叠 chunkOverlap 个字符；最后一个分片只在包含新内容时输出，保证一定终止。
+     * @param reader 文本字符流（由调用方负责关闭）
+     * @param chunkSize 分片大小（字符数，必须大于0）
+     * @param chunkOverlap 分片重叠字符数（必须小于chunkSize）
+     * @param onChunk 分片回调（按顺序回调）
+     * @return 输出的分片数
+     */
+    public static int splitStream(Reader reader, int chunkSize, int chunkOverlap, Consumer<String> onChunk) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("分片大小必须大于0：" + chunkSize);
+        }
+        if (chunkOverlap < 0 || chunkOverlap >= chunkSize) {
+            throw new IllegalArgumentException("分片重叠字数必须在[0, 分片大小)之间：" + chunkOverlap);
+        }
+        char[] window = new char[chunkSize];
+        int filled = 0; // 窗口中已有字符数
+        int carried = 0; // 窗口开头从上一分片保留的重叠字符数
+        int chunkCount = 0;
+        int read;
+        while ((read = reader.read(window, filled, chunkSize - filled)) != -1) {
+            filled += read;
+            if (filled < chunkSize) {
+                continue;
+            }
+            // 窗口已满：输出分片，并把末尾的重叠部分移到窗口开头
+            onChunk.accept(new String(window, 0, filled));
+            chunkCount++;
+            System.arraycopy(window, filled - chunkOverlap, window, 0, chunkOverlap);
+            filled = chunkOverlap;
+            carried = chunkOverlap;
+        }
+        // 末尾剩余内容：仅当读到了重叠部分之外的新字符时才输出
+        if (filled > carried) {
+            onChunk.accept(new String(window, 0, filled));
+            chunkCount++;
+        }
+        return chunkCount;
+    }
+
+    /**
+     * 内容定义分片（Gear滚动哈希，FastCDC思路）：逐字符更新哈希，分片正文达到最小长度后，
+     * 哈希高位全为0的位置即为边界（只取决于边界前约64个字符），达到最大长度时强制切分。
+     * 每个分片带上前一分片末尾 chunkOverlap 个字符作为重叠，正文最长 chunkSize - chunkOverlap，
+     * 因此分片（重叠+正文）不超过 chunkSize，与固定窗口分片的上限一致；分片平均长度约为 chunkSize 的60%。
+     * @param reader 文本字符流（由调用方负责关闭）
+     * @param chunkSize 最大分片大小（字符数，必须大于0）
+     * @param chunkOverlap 分片重叠字符数（必须小于chunkSize）
+     * @param onChunk 分片回调（按顺序回调）
+     * @return 输出的分片数
+     */
+    public static int splitContentDefined(Reader reader, int chunkSize, int chunkOverlap, Consumer<String> onChunk) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("分片大小必须大于0：" + chunkSize);
+        }
+        if (chunkOverlap < 0 || chunkOverlap >= chunkSize) {
+            throw new IllegalArgumentException("分片重叠字数必须在[0, 分片大小)之间：" + chunkOverlap);
+        }
+        int maxBody = chunkSize - chunkOverlap;
+        int minBody = Math.max(1, maxBody / 2);
+        // 最小长度之后平均再经过 2^bits 个字符出现边界（约为剩余可用长度的1/4，强制切分的比例很小）
+        int bits = Math.max(1, 31 - Integer.numberOfLeadingZeros(Math.max(1, (maxBody - minBody) / 4)));
+        long cutMask = -1L << (64 - bits);
+
+        char[] buffer = new char[8192];
+        StringBuilder body = new StringBuilder(maxBody);
+        String carried = "";
+        long hash = 0;
+        int chunkCount = 0;
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                char c = buffer[i];
+                body.append(c);
+                hash = (hash << 1) + gear(c);
+                if (body.length() >= minBody && ((hash & cutMask) == 0 || body.length() >= maxBody)) {
+                    String chunk = carried + body;
+                    onChunk.accept(chunk);
+                    chunkCount++;
+                    carried = chunk.substring(Math.max(0, chunk.length() - chunkOverlap));
+                    body.setLength(0);
+                }
+            }
+        }
+        if (body.length() > 0) {
+            onChunk.accept(carried + body);
+            chunkCount++;
+        }
+        return chunkCount;
+    }
+
+    // Gear表：字符到64位伪随机数的映射（splitmix64，无需预置256项表，覆盖全部中文字符）
+    private static long gear(char c) {
+        long z = (c + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -5,14 +5,23 @@ import cn.hutool.core.util.StrUtil;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
 
 /**
  * 文件处理工具类（扩展Hutool，新增PDF解析）
  */
 public class FileUtils {
 
+    // PDF按页流式读取时每个页范围的默认页数
+    private static final int DEFAULT_PDF_PAGES_PER_RANGE = 8;
+
     /**
      * 读取文件内容（支持txt/md/pdf）
      */
@@ -35,6 +44,47 @@ public class FileUtils {
         }
     }
 
+    /**
+     * 打开文件内容的字符流（支持txt/md/pdf），txt/md 按 UTF-8 流式读取，不整体加载到内存
+     * 调用方负责关闭返回的Reader
+     */
+    public static Reader openContentReader(String filePath, String suffix) {
+        if (StrUtil.isBlank(filePath) || !FileUtil.exist(filePath)) {
+            throw new RuntimeException("文件不存在：" + filePath);
+        }
+        try {
+            switch (suffix.toLowerCase()) {
+                case "pdf":
+                    return new PdfPageReader(new File(filePath), DEFAULT_PDF_PAGES_PER_RANGE, 1, null);
+                case "txt":
+                case "md":
+                    return new BufferedReader(new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8));
+                default:
+                    throw new RuntimeException("不支持的文件格式：" + suffix);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("读取文件失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 按页范围流式读取PDF文本（可多个页范围并行提取，按页序输出），不整体加载全文
+     * 调用方负责关闭返回的Reader
+     * @param pagesPerRange 每个页范围的页数
+     * @param parallelism 并行提取的页范围数（1 表示顺序提取）
+     * @param executor 并行提取使用的线程池
+     */
+    public static Reader openPdfReader(String pdfPath, int pagesPerRange, int parallelism, Executor executor) {
+        if (StrUtil.isBlank(pdfPath) || !FileUtil.exist(pdfPath)) {
+            throw new RuntimeException("文件不存在：" + pdfPath);
+        }
+        try {
+            return new PdfPageReader(new File(pdfPath), pagesPerRange, parallelism, executor);
+        } catch (Exception e) {
+            throw new RuntimeException("读取文件失败：" + e.getMessage());
+        }
+    }
+
     /**
      * 解析PDF文本内容
      */
@@ -0,0 +1,181 @@
+package org.example.woolcoat.utils;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * PDF按页流式读取（以字符流形式按页范围输出文本，可直接交给分片器）
+ * 文档按 pagesPerRange 页划分为若干页范围，每个页范围由独立的 PDFTextStripper（setStartPage/setEndPage）提取；
+ * PDDocument 非线程安全，因此并行时每个工作线程从文档池借用各自的 PDDocument 实例。
+ * 最多预取 parallelism 个页范围，内存占用与页范围大小有关，与PDF总页数无关。
+ */
+public class PdfPageReader extends Reader {
+
+    private final File pdfFile;
+    private final int pageCount;
+    private final int pagesPerRange;
+    private final int parallelism;
+    private final Executor executor;
+
+    // PDDocument 池（最多 parallelism 个实例，按需加载）
+    private final BlockingQueue<PDDocument> documentPool = new LinkedBlockingQueue<>();
+    private final List<PDDocument> openedDocuments = new ArrayList<>();
+    // 已提交、按页序排列的页范围提取任务
+    private final Deque<CompletableFuture<String>> pendingRanges = new ArrayDeque<>();
+    private int nextStartPage = 1;
+
+    private String currentText = "";
+    private int currentPos = 0;
+    private boolean closed = false;
+
+    /**
+     * @param pdfFile PDF文件
+     * @param pagesPerRange 每个页范围的页数
+     * @param parallelism 并行提取的页范围数（1 表示在调用线程上顺序提取）
+     * @param executor 并行提取使用的线程池（parallelism 为 1 时可传 null）
+     */
+    public PdfPageReader(File pdfFile, int pagesPerRange, int parallelism, Executor executor) throws IOException {
+        this.pdfFile = pdfFile;
+        this.pagesPerRange = Math.max(1, pagesPerRange);
+        this.parallelism = executor == null ? 1 : Math.max(1, parallelism);
+        this.executor = executor == null ? Runnable::run : executor;
+        PDDocument document = loadDocument();
+        if (document.isEncrypted()) {
+            close();
+            throw new IOException("PDF文件已加密，无法解析");
+        }
+        this.pageCount = document.getNumberOfPages();
+        documentPool.add(document);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("PDF读取流已关闭");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (currentPos >= currentText.length()) {
+            if (!nextRange()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, currentText.length() - currentPos);
+        currentText.getChars(currentPos, currentPos + n, cbuf, off);
+        currentPos += n;
+        return n;
+    }
+
+    /**
+     * 切换到下一个页范围的文本（并补充预取窗口）
+     */
+    private boolean nextRange() throws IOException {
+        fillWindow();
+        CompletableFuture<String> next = pendingRanges.pollFirst();
+        if (next == null) {
+            return false;
+        }
+        try {
+            currentText = next.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw cause instanceof IOException ? (IOException) cause : new IOException("PDF解析失败：" + cause.getMessage(), cause);
+        }
+        currentPos = 0;
+        fillWindow();
+        return true;
+    }
+
+    /**
+     * 按页序提交页范围提取任务，保持最多 parallelism 个在途
+     */
+    private void fillWindow() {
+        while (pendingRanges.size() < parallelism && nextStartPage <= pageCount) {
+            int startPage = nextStartPage;
+            int endPage = Math.min(startPage + pagesPerRange - 1, pageCount);
+            nextStartPage = endPage + 1;
+            pendingRanges.addLast(CompletableFuture.supplyAsync(() -> extractRange(startPage, endPage), executor));
+        }
+    }
+
+    /**
+     * 提取指定页范围的文本（从文档池借用 PDDocument，用完归还）
+     */
+    private String extractRange(int startPage, int endPage) {
+        PDDocument document = null;
+        try {
+            document = borrowDocument();
+            PDFTextStripper stripper = new PDFTextStripper();
+            stripper.setStartPage(startPage);
+            stripper.setEndPage(endPage);
+            return stripper.getText(document);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            if (document != null) {
+                documentPool.add(document);
+            }
+        }
+    }
+
+    private PDDocument borrowDocument() throws IOException {
+        PDDocument document = documentPool.poll();
+        if (document != null) {
+            return document;
+        }
+        synchronized (openedDocuments) {
+            if (openedDocuments.size() < parallelism) {
+                return loadDocument();
+            }
+        }
+        try {
+            return documentPool.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("PDF解析被中断");
+        }
+    }
+
+    // 使用临时文件缓存解析数据，降低大PDF的堆内存占用
+    private PDDocument loadDocument() throws IOException {
+        PDDocument document = PDDocument.load(pdfFile, MemoryUsageSetting.setupTempFileOnly());
+        synchronized (openedDocuments) {
+            openedDocuments.add(document);
+        }
+        return document;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // 等待在途的提取任务结束后再关闭文档，避免并发访问已关闭的 PDDocument
+        for (CompletableFuture<String> pending : pendingRanges) {
+            pending.exceptionally(e -> null).join();
+        }
+        pendingRanges.clear();
+        synchronized (openedDocuments) {
+            for (PDDocument document : openedDocuments) {
+                document.close();
+            }
+            openedDocuments.clear();
+        }
+    }
+}
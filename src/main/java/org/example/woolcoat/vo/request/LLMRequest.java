@@ -14,4 +14,6 @@ public class LLMRequest {
     private List<Message> messages;
     // 温度（0-1，越高越随机，越低越严谨，默认0.7）
     private Float temperature = 0.7f;
+    // 是否允许缓存响应（null：温度不高于 llm.cache.max-temperature 时缓存；true/false：由调用方指定）
+    private Boolean cacheable;
 }
\ No newline at end of file
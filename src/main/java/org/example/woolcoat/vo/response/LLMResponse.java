@@ -15,4 +15,6 @@ public class LLMResponse {
     private String errorMsg;
     // 响应耗时（毫秒）
     private long costTime;
+    // 实际应答的模型标识（如 dashscope:qwen-turbo；主模型失败降级时为备用模型）
+    private String model;
 }
@@ -17,6 +17,7 @@ import org.example.woolcoat.service.SessionService;
 import org.example.woolcoat.service.document.DocumentService;
 import org.example.woolcoat.service.memory.MemoryService;
 import org.example.woolcoat.service.rag.RagSearchService;
+import org.example.woolcoat.service.rag.index.ShardedIndexManager;
 import org.example.woolcoat.vo.request.LLMRequest;
 import org.example.woolcoat.vo.request.TaskSubmitRequest;
 import org.example.woolcoat.vo.request.ToolCallRequest;
@@ -110,6 +111,9 @@ class WoolCoatApplicationTests {
     @MockBean
     private Analyzer ikAnalyzer;
 
+    @MockBean
+    private ShardedIndexManager shardedIndexManager;
+
     @org.junit.jupiter.api.BeforeEach
     void setUpMocks() {
         // UserLongMemoryMapper：fuseMemoryToSystemPrompt 需要，否则 getLongTermMemory 返回 null 导致 NPE
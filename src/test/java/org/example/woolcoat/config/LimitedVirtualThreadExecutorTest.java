@@ -0,0 +1,50 @@
+package org.example.woolcoat.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 限流虚拟线程执行器测试：任务运行在虚拟线程上、超过并发上限时拒绝、任务结束后释放名额
+ */
+class LimitedVirtualThreadExecutorTest {
+
+    @Test
+    void rejectsOverLimitAndReleasesPermits() throws Exception {
+        LimitedVirtualThreadExecutor executor = new LimitedVirtualThreadExecutor("test-vt-", 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        boolean[] virtual = new boolean[2];
+        for (int i = 0; i < 2; i++) {
+            int index = i;
+            executor.execute(() -> {
+                virtual[index] = Thread.currentThread().isVirtual();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(virtual).containsOnly(true);
+        assertThat(executor.getActiveCount()).isEqualTo(2);
+        assertThatThrownBy(() -> executor.execute(() -> { })).isInstanceOf(RejectedExecutionException.class);
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(executor.getActiveCount()).isZero();
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.execute(ran::countDown);
+        assertThat(ran.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.woolcoat.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * LLM 流式 Publisher 测试：按 request 数量下发、完成信号在缓冲分片之后、取消时执行取消回调
+ */
+class ChunkPublisherTest {
+
+    @Test
+    void deliversOnDemandAndCancelsProducer() {
+        AtomicReference<ChunkPublisher.Sink> sinkRef = new AtomicReference<>();
+        AtomicBoolean producerCancelled = new AtomicBoolean();
+        Flow.Publisher<String> publisher = ChunkPublisher.create(sink -> {
+            sink.onCancel(() -> producerCancelled.set(true));
+            sinkRef.set(sink);
+        });
+
+        List<String> received = new ArrayList<>();
+        AtomicBoolean completed = new AtomicBoolean();
+        AtomicReference<Flow.Subscription> subscriptionRef = new AtomicReference<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriptionRef.set(subscription);
+            }
+
+            @Override
+            public void onNext(String item) {
+                received.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.set(true);
+            }
+        });
+
+        ChunkPublisher.Sink sink = sinkRef.get();
+        sink.next("a");
+        sink.next("b");
+        sink.next("c");
+        sink.complete();
+        assertThat(received).isEmpty(); // 未 request 不下发
+
+        subscriptionRef.get().request(2);
+        assertThat(received).containsExactly("a", "b");
+        assertThat(completed).isFalse(); // 仍有缓冲分片，不能提前完成
+
+        subscriptionRef.get().request(1);
+        assertThat(received).containsExactly("a", "b", "c");
+        assertThat(completed).isTrue();
+
+        subscriptionRef.get().cancel();
+        assertThat(producerCancelled).isTrue();
+    }
+}
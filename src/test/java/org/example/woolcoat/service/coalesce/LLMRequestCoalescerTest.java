@@ -0,0 +1,133 @@
+package org.example.woolcoat.service.coalesce;
+
+import org.example.woolcoat.llm.ChunkPublisher;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 在途请求合并测试：并发相同调用只执行一次、流式跟随者补发已有分片、异步流广播给所有订阅者
+ */
+class LLMRequestCoalescerTest {
+
+    private final LLMRequestCoalescer coalescer = new LLMRequestCoalescer(true);
+
+    @Test
+    void concurrentCallsShareOneInvocation() throws Exception {
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> coalescer.execute("k", () -> {
+            invocations.incrementAndGet();
+            entered.countDown();
+            await(release);
+            return "answer";
+        }));
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<String> follower = coalescer.executeAsync("k", () -> {
+            invocations.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+        assertThat(invocations).hasValue(1);
+        // 上游结束后不再合并
+        assertThat(coalescer.execute("k", () -> "fresh")).isEqualTo("fresh");
+    }
+
+    @Test
+    void streamFollowerReplaysBufferedChunks() throws Exception {
+        CountDownLatch firstSent = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> leaderChunks = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> leader = CompletableFuture.runAsync(() -> coalescer.stream("s", leaderChunks::add, sink -> {
+            sink.accept("He");
+            firstSent.countDown();
+            await(release);
+            sink.accept("llo");
+        }));
+        assertThat(firstSent.await(5, TimeUnit.SECONDS)).isTrue();
+
+        List<String> followerChunks = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> follower = CompletableFuture.runAsync(() -> coalescer.stream("s", followerChunks::add, sink -> {
+            throw new AssertionError("跟随者不应发起上游调用");
+        }));
+        Thread.sleep(100);
+        release.countDown();
+
+        leader.get(5, TimeUnit.SECONDS);
+        follower.get(5, TimeUnit.SECONDS);
+        assertThat(leaderChunks).containsExactly("He", "llo");
+        assertThat(followerChunks).containsExactly("He", "llo");
+    }
+
+    @Test
+    void publishBroadcastsOneUpstream() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        AtomicReference<ChunkPublisher.Sink> upstreamSink = new AtomicReference<>();
+        Flow.Publisher<String> first = coalescer.publish("p", () -> {
+            upstreamCalls.incrementAndGet();
+            return ChunkPublisher.create(upstreamSink::set);
+        });
+        Flow.Publisher<String> second = coalescer.publish("p", () -> {
+            upstreamCalls.incrementAndGet();
+            return ChunkPublisher.create(sink -> { });
+        });
+
+        StringBuilder a = new StringBuilder();
+        StringBuilder b = new StringBuilder();
+        CountDownLatch completed = new CountDownLatch(2);
+        first.subscribe(collector(a, completed));
+        upstreamSink.get().next("He");
+        second.subscribe(collector(b, completed));
+        upstreamSink.get().next("llo");
+        upstreamSink.get().complete();
+
+        assertThat(completed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(a).hasToString("Hello");
+        assertThat(b).hasToString("Hello");
+        assertThat(upstreamCalls).hasValue(1);
+    }
+
+    private static Flow.Subscriber<String> collector(StringBuilder out, CountDownLatch completed) {
+        return new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(String item) {
+                out.append(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.woolcoat.service.document.dedup;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SimHash + LSH索引测试：近似重复命中、不相关文本不命中、用户隔离、删除
+ */
+class SimHashIndexTest {
+
+    private static final String TEXT = "本公司员工手册适用于全体正式员工。员工应遵守考勤制度，每日上午九点前打卡，"
+            + "迟到三次以上按旷工半天处理。年假按工龄计算，满一年不满十年的员工每年享有五天带薪年假，"
+            + "满十年不满二十年的享有十天，满二十年的享有十五天。请假需提前在系统中提交申请并经直属上级审批。";
+
+    @Test
+    void findsNearDuplicatesWithinUser() {
+        SimHashIndex index = new SimHashIndex(6);
+        long original = SimHash.compute(TEXT, 3);
+        index.add(1L, "u1", original);
+
+        long nearCopy = SimHash.compute(TEXT.replace("请假需提前", "请假须提前"), 3);
+        assertThat(SimHash.distance(original, nearCopy)).isLessThanOrEqualTo(6);
+        assertThat(index.findNearest("u1", nearCopy)).isEqualTo(1L);
+        assertThat(index.findNearest("u2", nearCopy)).isNull();
+
+        long unrelated = SimHash.compute("Lucene 使用倒排索引实现全文检索，BM25 根据词频、逆文档频率和文档长度为候选文档打分，"
+                + "近实时检索通过 IndexWriter 打开的 Reader 读取尚未提交的段。", 3);
+        assertThat(index.findNearest("u1", unrelated)).isNull();
+
+        index.remove(1L);
+        assertThat(index.findNearest("u1", nearCopy)).isNull();
+        assertThat(index.size()).isZero();
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.woolcoat.service.rag.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * HNSW向量索引测试：召回率、用户过滤（含小租户）、删除、持久化
+ */
+class HnswVectorIndexTest {
+
+    private static final int DIM = 32;
+
+    @TempDir
+    Path tempDir;
+
+    private float[] randomVector(Random random) {
+        float[] vector = new float[DIM];
+        for (int i = 0; i < DIM; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return dot / Math.sqrt(na * nb);
+    }
+
+    @Test
+    void recallAgainstBruteForceWithUserFilter() throws Exception {
+        Random random = new Random(7);
+        HnswVectorIndex index = HnswVectorIndex.open(tempDir.resolve("hnsw.bin"), 16, 100, 64);
+        float[][] vectors = new float[2000][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random);
+            index.add(i, i / 10, i % 4 == 0 ? "u1" : "u2", vectors[i]);
+        }
+        int found = 0;
+        for (int q = 0; q < 20; q++) {
+            float[] query = randomVector(random);
+            List<Long> expected = IntStream.range(0, vectors.length).filter(i -> i % 4 == 0).boxed()
+                    .sorted(Comparator.comparingDouble(i -> -cosine(query, vectors[i])))
+                    .limit(10).map(Integer::longValue).toList();
+            List<HnswVectorIndex.VectorHit> hits = index.search(query, 10, "u1");
+            assertThat(hits).allMatch(h -> h.getChunkId() % 4 == 0);
+            found += (int) hits.stream().filter(h -> expected.contains(h.getChunkId())).count();
+        }
+        assertThat(found / 200.0).isGreaterThan(0.9);
+    }
+
+    @Test
+    void smallTenantAmongLargeTenantsReturnsExactResults() throws Exception {
+        Random random = new Random(13);
+        HnswVectorIndex index = HnswVectorIndex.open(tempDir.resolve("hnsw.bin"), 16, 100, 64);
+        float[][] vectors = new float[3000][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random);
+            // 只有5个向量的小租户分散在两个大租户之间
+            index.add(i, i / 10, i % 600 == 7 ? "small" : i % 2 == 0 ? "big1" : "big2", vectors[i]);
+        }
+        index.deleteByChunkIds(List.of(607L));
+        for (int q = 0; q < 10; q++) {
+            float[] query = randomVector(random);
+            List<Long> expected = IntStream.range(0, vectors.length).filter(i -> i % 600 == 7 && i != 607).boxed()
+                    .sorted(Comparator.comparingDouble(i -> -cosine(query, vectors[i])))
+                    .map(Integer::longValue).toList();
+            List<Long> hits = index.search(query, 10, "small").stream().map(HnswVectorIndex.VectorHit::getChunkId).toList();
+            assertThat(hits).containsExactlyElementsOf(expected);
+            assertThat(index.search(query, 3, "small")).extracting(HnswVectorIndex.VectorHit::getChunkId)
+                    .containsExactlyElementsOf(expected.subList(0, 3));
+        }
+    }
+
+    @Test
+    void deleteAndReload() throws Exception {
+        Random random = new Random(11);
+        Path file = tempDir.resolve("hnsw.bin");
+        HnswVectorIndex index = HnswVectorIndex.open(file, 8, 50, 32);
+        for (int i = 0; i < 300; i++) {
+            index.add(i, i / 100, "u1", randomVector(random));
+        }
+        assertThat(index.deleteByDocId(0)).isEqualTo(100);
+        index.close();
+
+        HnswVectorIndex reloaded = HnswVectorIndex.open(file, 8, 50, 32);
+        assertThat(reloaded.size()).isEqualTo(200);
+        List<HnswVectorIndex.VectorHit> hits = reloaded.search(randomVector(random), 50, "u1");
+        assertThat(hits).hasSize(50).allMatch(h -> h.getDocId() != 0);
+        assertThat(reloaded.search(randomVector(random), 5, "other")).isEmpty();
+    }
+}
@@ -0,0 +1,87 @@
+package org.example.woolcoat.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 流式分片工具测试：分片边界、重叠、终止性，内容定义分片的局部性
+ */
+class ChunkUtilsTest {
+
+    private List<String> split(String content, int chunkSize, int chunkOverlap) throws Exception {
+        List<String> chunks = new ArrayList<>();
+        int count = ChunkUtils.splitStream(new StringReader(content), chunkSize, chunkOverlap, chunks::add);
+        assertThat(count).isEqualTo(chunks.size());
+        return chunks;
+    }
+
+    @Test
+    void splitWithOverlap() throws Exception {
+        assertThat(split("abcdefghij", 4, 1)).containsExactly("abcd", "defg", "ghij");
+    }
+
+    @Test
+    void lastChunkOnlyEmittedWhenItHasNewContent() throws Exception {
+        // 最后一个窗口刚好填满后，剩余的只有重叠部分，不应再输出一个重复分片
+        assertThat(split("abcdefg", 4, 1)).containsExactly("abcd", "defg");
+        assertThat(split("abcdefgh", 4, 1)).containsExactly("abcd", "defg", "gh");
+    }
+
+    @Test
+    void shortAndEmptyContent() throws Exception {
+        assertThat(split("abc", 500, 50)).containsExactly("abc");
+        assertThat(split("", 500, 50)).isEmpty();
+    }
+
+    @Test
+    void largeContentTerminates() throws Exception {
+        String content = "测".repeat(100_000);
+        List<String> chunks = split(content, 500, 50);
+        // 每个分片推进 450 个字符
+        assertThat(chunks).hasSize((100_000 - 50 + 449) / 450);
+        assertThat(chunks).allMatch(c -> c.length() <= 500);
+    }
+
+    @Test
+    void rejectInvalidOverlap() {
+        assertThatThrownBy(() -> split("abc", 10, 10)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void contentDefinedChunksSurviveLocalEdit() throws Exception {
+        Random random = new Random(3);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            sb.append((char) ('\u4e00' + random.nextInt(2000)));
+        }
+        String original = sb.toString();
+        // 在中间插入一段文字（固定窗口分片下其后所有分片都会变化）
+        String edited = original.substring(0, 10_000) + "新增的一段话。" + original.substring(10_000);
+
+        List<String> before = new ArrayList<>();
+        List<String> after = new ArrayList<>();
+        ChunkUtils.splitContentDefined(new StringReader(original), 500, 50, before::add);
+        ChunkUtils.splitContentDefined(new StringReader(edited), 500, 50, after::add);
+
+        // 去掉重叠部分后按序拼接应还原原文
+        StringBuilder restored = new StringBuilder(before.get(0));
+        for (int i = 1; i < before.size(); i++) {
+            restored.append(before.get(i).substring(50));
+        }
+        assertThat(restored.toString()).isEqualTo(original);
+        assertThat(before).allMatch(c -> c.length() <= 500);
+        Set<String> unchanged = new HashSet<>(before);
+        unchanged.retainAll(after);
+        assertThat(before.size() - unchanged.size()).isLessThanOrEqualTo(3);
+        assertThat(after.size() - unchanged.size()).isLessThanOrEqualTo(3);
+    }
+}